@@ -0,0 +1,40 @@
+alter table snapshot_content_item add index `IDX_SNAPSHOT_CONTENT_ITEM_ID` (`snapshot_id`,`id`);
+
+alter table snapshot_content_item add column `md5` varchar(32) COLLATE utf8_bin DEFAULT NULL after `metadata`;
+alter table snapshot_content_item add column `sha256` varchar(64) COLLATE utf8_bin DEFAULT NULL after `md5`;
+alter table snapshot_content_item add column `size_bytes` bigint(20) DEFAULT NULL after `sha256`;
+
+-- Backfills the md5 and size_bytes columns of existing content items from the
+-- content properties held in the metadata column, batch_size rows at a time so
+-- that no single transaction has to lock the whole table. The sha256 of existing
+-- items is not among their properties (it is only recorded in the snapshot's
+-- sha256 manifest), so it is left null.
+DROP PROCEDURE IF EXISTS backfill_snapshot_content_item_checksums;
+
+DELIMITER #
+CREATE PROCEDURE backfill_snapshot_content_item_checksums(IN batch_size INT)
+BEGIN
+    declare last_id bigint default 0;
+    declare max_id bigint;
+
+    select coalesce(max(id), 0) into max_id from snapshot_content_item;
+
+    while last_id < max_id do
+        update snapshot_content_item
+           set md5 = substring_index(substring_index(metadata, '"content-checksum":"', -1), '"', 1)
+         where id > last_id and id <= last_id + batch_size and md5 is null
+               and metadata like '%"content-checksum":"%';
+
+        update snapshot_content_item
+           set size_bytes = cast(substring_index(substring_index(metadata, '"content-size":"', -1), '"', 1)
+                                 as unsigned)
+         where id > last_id and id <= last_id + batch_size and size_bytes is null
+               and metadata like '%"content-size":"%';
+
+        set last_id = last_id + batch_size;
+    end while;
+END #
+DELIMITER ;
+
+call backfill_snapshot_content_item_checksums(10000);
+DROP PROCEDURE backfill_snapshot_content_item_checksums;
@@ -38,6 +38,8 @@ import javax.ws.rs.core.UriInfo;
 import org.apache.http.HttpStatus;
 import org.duracloud.client.ContentStore;
 import org.duracloud.common.constant.Constants;
+import org.duracloud.common.util.ChecksumUtil;
+import org.duracloud.common.util.ChecksumUtil.Algorithm;
 import org.duracloud.error.ContentStoreException;
 import org.duracloud.snapshot.EmptySpaceException;
 import org.duracloud.snapshot.SnapshotException;
@@ -527,13 +529,37 @@ public class SnapshotResource {
         }
     }
 
+    /**
+     * Returns a page of the content items of a snapshot. Pages read by number
+     * are in content id order, but get slower the further they are into the
+     * snapshot (each is read by OFFSET), so reading by page number is
+     * deprecated for walking through all of the items of a snapshot. Such
+     * callers should instead pass a marker: an empty marker for the first
+     * page, then the content id of the last item of each page for the next
+     * page. Pages read by marker are in content id hash order (content ids are
+     * too long to be indexed for ordering) and cost the same wherever they
+     * fall in the snapshot. With a prefix, though, a page read by marker costs
+     * in proportion to how sparse the prefix is, as items are found by
+     * scanning in hash order. The page number is ignored when a marker is
+     * given.
+     *
+     * @param snapshotId
+     * @param page     the page number, when no marker is given; deprecated
+     *                 for walking through all of the items of a snapshot
+     * @param pageSize
+     * @param prefix
+     * @param marker the content id after which items are returned, or an
+     *               empty string for the first page
+     * @return
+     */
     @Path("{snapshotId}/content")
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     public Response getContent(@PathParam("snapshotId") String snapshotId,
                                @QueryParam(value = "page") Integer page,
                                @QueryParam(value = "pageSize") Integer pageSize,
-                               @QueryParam(value = "prefix") String prefix) {
+                               @QueryParam(value = "prefix") String prefix,
+                               @QueryParam(value = "marker") String marker) {
         try {
             if (page == null) {
                 page = 0;
@@ -542,19 +568,36 @@ public class SnapshotResource {
                 pageSize = 1000;
             }
 
-            PageRequest pageable = new PageRequest(page, pageSize);
-
+            boolean hasPrefix = null != prefix && !prefix.equals("");
             List<SnapshotContentItem> items;
-            if (null == prefix || prefix.equals("")) {
-                items = this.snapshotContentItemRepo
-                    .findBySnapshotNameOrderByContentIdAsc(snapshotId,
-                                                           pageable);
-
+            if (null != marker) {
+                PageRequest pageable = new PageRequest(0, pageSize);
+                String markerHash = marker.equals("") ? "" :
+                                    new ChecksumUtil(Algorithm.MD5).generateChecksum(marker);
+                if (hasPrefix) {
+                    items = this.snapshotContentItemRepo
+                        .findBySnapshotNameAndContentIdPrefixAfterMarker(snapshotId,
+                                                                         prefix,
+                                                                         markerHash,
+                                                                         pageable);
+                } else {
+                    items = this.snapshotContentItemRepo
+                        .findBySnapshotNameAndContentIdHashGreaterThanOrderByContentIdHashAsc(snapshotId,
+                                                                                              markerHash,
+                                                                                              pageable);
+                }
             } else {
-                items = this.snapshotContentItemRepo
-                    .findBySnapshotNameAndContentIdStartingWithOrderByContentIdAsc(snapshotId,
-                                                                                   prefix,
-                                                                                   pageable);
+                PageRequest pageable = new PageRequest(page, pageSize);
+                if (hasPrefix) {
+                    items = this.snapshotContentItemRepo
+                        .findBySnapshotNameAndContentIdStartingWithOrderByContentIdAsc(snapshotId,
+                                                                                       prefix,
+                                                                                       pageable);
+                } else {
+                    items = this.snapshotContentItemRepo
+                        .findBySnapshotNameOrderByContentIdAsc(snapshotId,
+                                                               pageable);
+                }
             }
 
             List<org.duracloud.snapshot.dto.SnapshotContentItem> snapshotItems =
@@ -29,6 +29,8 @@ import org.codehaus.jettison.json.JSONException;
 import org.duracloud.client.ContentStore;
 import org.duracloud.common.constant.Constants;
 import org.duracloud.common.notification.NotificationManager;
+import org.duracloud.common.util.ChecksumUtil;
+import org.duracloud.common.util.ChecksumUtil.Algorithm;
 import org.duracloud.snapshot.SnapshotException;
 import org.duracloud.snapshot.common.test.SnapshotTestBase;
 import org.duracloud.snapshot.db.model.DuracloudEndPointConfig;
@@ -540,7 +542,7 @@ public class SnapshotResourceTest extends SnapshotTestBase {
         replayAll();
 
         Response response =
-            resource.getContent(snapshotId, page, pageSize, prefix);
+            resource.getContent(snapshotId, page, pageSize, prefix, null);
         GetSnapshotContentBridgeResult result =
             (GetSnapshotContentBridgeResult) response.getEntity();
 
@@ -586,7 +588,7 @@ public class SnapshotResourceTest extends SnapshotTestBase {
         replayAll();
 
         Response response =
-            resource.getContent(snapshotId, page, pageSize, null);
+            resource.getContent(snapshotId, page, pageSize, null, null);
         GetSnapshotContentBridgeResult result =
             (GetSnapshotContentBridgeResult) response.getEntity();
 
@@ -603,6 +605,81 @@ public class SnapshotResourceTest extends SnapshotTestBase {
 
     }
 
+    @Test
+    public void testGetSnapshotContentWithMarker() {
+        String snapshotId = "snapshot-id";
+        String prefix = "prefix";
+        String marker = "prefix-marker";
+        // pages read by marker seek on the hash of the marker
+        String markerHash = new ChecksumUtil(Algorithm.MD5).generateChecksum(marker);
+        int pageSize = 5;
+        Long count = 1000l;
+
+        Capture<PageRequest> pageRequestCapture = new Capture<>();
+
+        SnapshotContentItem item = new SnapshotContentItem();
+        item.setContentId("prefix-test");
+
+        List<SnapshotContentItem> contentIds =
+            Arrays.asList(new SnapshotContentItem[] {item});
+        expect(snapshotContentItemRepo
+                   .findBySnapshotNameAndContentIdPrefixAfterMarker(eq(snapshotId),
+                                                                    eq(prefix),
+                                                                    eq(markerHash),
+                                                                    capture(pageRequestCapture)))
+            .andReturn(contentIds);
+
+        expect(snapshotContentItemRepo
+                   .countBySnapshotName(eq(snapshotId)))
+            .andReturn(count);
+
+        replayAll();
+
+        Response response =
+            resource.getContent(snapshotId, 3, pageSize, prefix, marker);
+        GetSnapshotContentBridgeResult result =
+            (GetSnapshotContentBridgeResult) response.getEntity();
+
+        // the page number is ignored when reading by marker
+        PageRequest pageRequest = pageRequestCapture.getValue();
+        assertEquals(0, pageRequest.getPageNumber());
+        assertEquals(pageSize, pageRequest.getPageSize());
+
+        assertEquals("prefix-test", result.getContentItems().get(0).getContentId());
+        assertEquals(count, result.getTotalCount());
+    }
+
+    @Test
+    public void testGetSnapshotContentWithEmptyMarker() {
+        String snapshotId = "snapshot-id";
+        int pageSize = 5;
+        Long count = 1000l;
+
+        SnapshotContentItem item = new SnapshotContentItem();
+        item.setContentId("test");
+
+        // an empty marker starts the walk at the lowest content id hash
+        expect(snapshotContentItemRepo
+                   .findBySnapshotNameAndContentIdHashGreaterThanOrderByContentIdHashAsc(eq(snapshotId),
+                                                                                         eq(""),
+                                                                                         isA(PageRequest.class)))
+            .andReturn(Arrays.asList(new SnapshotContentItem[] {item}));
+
+        expect(snapshotContentItemRepo
+                   .countBySnapshotName(eq(snapshotId)))
+            .andReturn(count);
+
+        replayAll();
+
+        Response response =
+            resource.getContent(snapshotId, null, pageSize, null, "");
+        GetSnapshotContentBridgeResult result =
+            (GetSnapshotContentBridgeResult) response.getEntity();
+
+        assertEquals("test", result.getContentItems().get(0).getContentId());
+        assertEquals(count, result.getTotalCount());
+    }
+
     @Test
     public void testUpdateHistory() {
         String snapshotId = "snapshot-id";
@@ -52,7 +52,8 @@ public class SnapshotDatabaseConfig {
                                                "?useLegacyDatetimeCode=false" +
                                                "&serverTimezone=GMT" +
                                                "&characterEncoding=utf8" +
-                                               "&characterSetResults=utf8",
+                                               "&characterSetResults=utf8" +
+                                               "&rewriteBatchedStatements=true",
                                                env.getProperty("snapshot.db.host", "localhost"),
                                                env.getProperty("snapshot.db.port", "3306"),
                                                env.getProperty("snapshot.db.name", "snapshot")));
@@ -39,6 +39,15 @@ public class SnapshotContentItem extends BaseEntity implements Comparator<Snapsh
     @Column(length = 1024)
     private String metadata;
 
+    @Column(length = 32)
+    private String md5;
+
+    @Column(length = 64)
+    private String sha256;
+
+    @Column(name = "size_bytes")
+    private Long sizeBytes;
+
     /**
      * @return the contentId
      */
@@ -81,6 +90,48 @@ public class SnapshotContentItem extends BaseEntity implements Comparator<Snapsh
         this.metadata = metadata;
     }
 
+    /**
+     * @return the md5 checksum of the content
+     */
+    public String getMd5() {
+        return md5;
+    }
+
+    /**
+     * @param md5 the md5 to set
+     */
+    public void setMd5(String md5) {
+        this.md5 = md5;
+    }
+
+    /**
+     * @return the sha256 checksum of the content
+     */
+    public String getSha256() {
+        return sha256;
+    }
+
+    /**
+     * @param sha256 the sha256 to set
+     */
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+
+    /**
+     * @return the size of the content in bytes
+     */
+    public Long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * @param sizeBytes the sizeBytes to set
+     */
+    public void setSizeBytes(Long sizeBytes) {
+        this.sizeBytes = sizeBytes;
+    }
+
     /* (non-Javadoc)
      * @see java.util.Comparator#compare(java.lang.Object, java.lang.Object)
      */
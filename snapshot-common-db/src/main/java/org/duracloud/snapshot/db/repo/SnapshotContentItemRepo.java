@@ -14,6 +14,7 @@ import org.duracloud.snapshot.db.model.SnapshotContentItem;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
@@ -33,6 +34,62 @@ public interface SnapshotContentItemRepo extends JpaRepository<SnapshotContentIt
         @Param("contentId") String contentId,
         Pageable pageable);
 
+    /**
+     * Returns the content items of a snapshot, in content id hash order, whose
+     * content id hashes sort after the given marker hash (the hash of the
+     * content id of the last item of the previous page). Only the first page
+     * of the pageable should be requested: later pages are read by passing a
+     * new marker hash, which keeps each query a range scan of the
+     * (snapshot_id, content_id_hash) key however far into the snapshot it is.
+     *
+     * @param snapshotName
+     * @param markerHash   the content id hash after which items are returned
+     * @param pageable     limits the number of items returned
+     * @return
+     */
+    public List<SnapshotContentItem> findBySnapshotNameAndContentIdHashGreaterThanOrderByContentIdHashAsc(
+        @Param("snapshotName") String snapshotName,
+        @Param("markerHash") String markerHash,
+        Pageable pageable);
+
+    /**
+     * As findBySnapshotNameAndContentIdHashGreaterThanOrderByContentIdHashAsc(),
+     * limited to the content ids which start with the prefix. Note that the
+     * prefix cannot narrow the seek: the (snapshot_id, content_id_hash) key
+     * is scanned in hash order, testing each content id against the prefix,
+     * until a page of matches is found. A page costs about pageSize / (the
+     * fraction of the snapshot matching the prefix) rows, so walking a
+     * sparse prefix reads most of the snapshot on every page.
+     *
+     * @param snapshotName
+     * @param prefix
+     * @param markerHash   the content id hash after which items are returned
+     * @param pageable     limits the number of items returned
+     * @return
+     */
+    @Query("select i from SnapshotContentItem i where i.snapshot.name = :snapshotName " +
+           "and i.contentId like concat(:prefix, '%') and i.contentIdHash > :markerHash order by i.contentIdHash")
+    public List<SnapshotContentItem> findBySnapshotNameAndContentIdPrefixAfterMarker(
+        @Param("snapshotName") String snapshotName,
+        @Param("prefix") String prefix,
+        @Param("markerHash") String markerHash,
+        Pageable pageable);
+
+    /**
+     * Returns the content items of a snapshot, in id order, whose ids are
+     * greater than the given id (the id of the last item of the previous
+     * page). Only the first page of the pageable should be requested.
+     *
+     * @param snapshotName
+     * @param id           the id after which items are returned
+     * @param pageable     limits the number of items returned
+     * @return
+     */
+    public List<SnapshotContentItem> findBySnapshotNameAndIdGreaterThanOrderByIdAsc(
+        @Param("snapshotName") String snapshotName,
+        @Param("id") Long id,
+        Pageable pageable);
+
     public long countBySnapshotName(@Param("snapshotName") String snapshotName);
 
     /**
@@ -50,6 +107,45 @@ public interface SnapshotContentItemRepo extends JpaRepository<SnapshotContentIt
      */
     public SnapshotContentItem findBySnapshotAndContentIdHash(Snapshot snapshot, String contentIdHash);
 
+    /**
+     * Returns the id, content id and md5 (in that order) of the content items
+     * of a snapshot whose ids fall within (afterId, toId], in id order. Items
+     * whose md5 column has not been filled in also have their metadata
+     * returned (as a fourth column) so that the md5 can be read from it.
+     * Only the first page of the pageable should be requested: later pages are
+     * read by passing the id of the last item read as the afterId, which keeps
+     * each query an index range scan rather than an ever growing offset.
+     *
+     * @param snapshotName
+     * @param afterId      the (exclusive) lower bound of the ids
+     * @param toId         the (inclusive) upper bound of the ids
+     * @param pageable     limits the number of items returned
+     * @return
+     */
+    @Query("select i.id, i.contentId, i.md5, case when i.md5 is null then i.metadata else null end " +
+           "from SnapshotContentItem i " +
+           "where i.snapshot.name = :snapshotName and i.id > :afterId and i.id <= :toId order by i.id")
+    public List<Object[]> findContentIdAndMd5BySnapshotName(@Param("snapshotName") String snapshotName,
+                                                            @Param("afterId") Long afterId,
+                                                            @Param("toId") Long toId,
+                                                            Pageable pageable);
+
+    /**
+     * @param snapshotName
+     * @return the lowest content item id of the snapshot or null if the
+     * snapshot has no content items
+     */
+    @Query("select min(i.id) from SnapshotContentItem i where i.snapshot.name = :snapshotName")
+    public Long findMinIdBySnapshotName(@Param("snapshotName") String snapshotName);
+
+    /**
+     * @param snapshotName
+     * @return the highest content item id of the snapshot or null if the
+     * snapshot has no content items
+     */
+    @Query("select max(i.id) from SnapshotContentItem i where i.snapshot.name = :snapshotName")
+    public Long findMaxIdBySnapshotName(@Param("snapshotName") String snapshotName);
+
     /**
      * @param snapshotId
      */
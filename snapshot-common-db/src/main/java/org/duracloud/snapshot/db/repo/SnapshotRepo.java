@@ -76,6 +76,19 @@ public interface SnapshotRepo extends JpaRepository<Snapshot, Long> {
                                                                     String storeId,
                                                                     SnapshotStatus status);
 
+    /**
+     * @param host    where snapshot originated
+     * @param storeId storage provider ID
+     * @param spaceId space ID
+     * @param status  current snapshot status
+     * @return the most recent snapshot of the given space with the given status
+     */
+    public Snapshot findFirstBySourceHostAndSourceStoreIdAndSourceSpaceIdAndStatusOrderBySnapshotDateDesc(
+        String host,
+        String storeId,
+        String spaceId,
+        SnapshotStatus status);
+
     /**
      * @param snapshotId ID of snapshot
      * @return snapshot with the given ID
@@ -70,9 +70,13 @@ CREATE TABLE IF NOT EXISTS `snapshot_content_item` (
   `content_id` longtext COLLATE utf8_bin NOT NULL,
   `content_id_hash` varchar(50) COLLATE utf8_bin NOT NULL,
   `metadata` longtext COLLATE utf8_bin,
+  `md5` varchar(32) COLLATE utf8_bin DEFAULT NULL,
+  `sha256` varchar(64) COLLATE utf8_bin DEFAULT NULL,
+  `size_bytes` bigint(20) DEFAULT NULL,
   `snapshot_id` bigint(20) NOT NULL,
   PRIMARY KEY (`id`),
   UNIQUE KEY `UK_30tots9ry24rjg42xn08egdrl` (`snapshot_id`,`content_id_hash`),
+  KEY `IDX_SNAPSHOT_CONTENT_ITEM_ID` (`snapshot_id`,`id`),
   CONSTRAINT `FK_bif6fhum5u975ks9uo9xufbjh` FOREIGN KEY (`snapshot_id`) REFERENCES `snapshot` (`id`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_bin;
 /*!40101 SET character_set_client = @saved_cs_client */;
@@ -22,6 +22,39 @@ public class BridgeConfiguration {
 
     public static final String DURACLOUD_BRIDGE_ROOT_SYSTEM_PROPERTY = "duracloud.bridge.root.dir";
     public static final String DURACLOUD_BRIDGE_THREADS_PER_JOB = "duracloud.bridge.threads-per-job";
+    public static final String DURACLOUD_BRIDGE_SNAPSHOT_COMMIT_INTERVAL =
+        "duracloud.bridge.snapshot.commit-interval";
+    public static final int DEFAULT_SNAPSHOT_COMMIT_INTERVAL = 20;
+    public static final String DURACLOUD_BRIDGE_SNAPSHOT_PREFETCH_DEPTH =
+        "duracloud.bridge.snapshot.prefetch-depth";
+    public static final int DEFAULT_SNAPSHOT_PREFETCH_DEPTH = 1000;
+    public static final String DURACLOUD_BRIDGE_SNAPSHOT_LARGE_ITEM_THREADS =
+        "duracloud.bridge.snapshot.large-item-threads";
+    public static final int DEFAULT_SNAPSHOT_LARGE_ITEM_THREADS = 2;
+    public static final String DURACLOUD_BRIDGE_SNAPSHOT_THREADS_PER_CHUNKED_ITEM =
+        "duracloud.bridge.snapshot.threads-per-chunked-item";
+    public static final int DEFAULT_SNAPSHOT_THREADS_PER_CHUNKED_ITEM = 4;
+    public static final String DURACLOUD_BRIDGE_RESTORE_VERIFY_THREADS =
+        "duracloud.bridge.restore.verify-threads";
+    public static final String DURACLOUD_BRIDGE_RESTORE_VERIFY_COMMIT_INTERVAL =
+        "duracloud.bridge.restore.verify-commit-interval";
+    public static final int DEFAULT_RESTORE_VERIFY_COMMIT_INTERVAL = 500;
+    public static final String DURACLOUD_BRIDGE_MANIFEST_VERIFICATION_SORTED_MERGE =
+        "duracloud.bridge.manifest-verification.sorted-merge";
+    public static final String DURACLOUD_BRIDGE_SNAPSHOT_INCREMENTAL =
+        "duracloud.bridge.snapshot.incremental";
+    public static final String DURACLOUD_BRIDGE_RESTORE_REPO_VERIFY_PARTITIONS =
+        "duracloud.bridge.restore.repo-verify-partitions";
+    public static final String DURACLOUD_BRIDGE_RESTORE_REPO_VERIFY_PAGE_SIZE =
+        "duracloud.bridge.restore.repo-verify-page-size";
+    public static final int DEFAULT_RESTORE_REPO_VERIFY_PAGE_SIZE = 1000;
+    public static final String DURACLOUD_BRIDGE_RESTORE_PARALLEL_UPLOAD =
+        "duracloud.bridge.restore.parallel-upload";
+    public static final String DURACLOUD_BRIDGE_RESTORE_THREADS_PER_CHUNKED_FILE =
+        "duracloud.bridge.restore.threads-per-chunked-file";
+    public static final int DEFAULT_RESTORE_THREADS_PER_CHUNKED_FILE = 4;
+    public static final String DURACLOUD_BRIDGE_RESTORE_PROPERTIES_WITH_CONTENT =
+        "duracloud.bridge.restore.properties-with-content";
 
     private String[] duracloudEmailAddresses;
     private String duracloudUsername;
@@ -141,4 +174,146 @@ public class BridgeConfiguration {
         }
     }
 
+    /**
+     * @return the number of content items transferred in each chunk
+     * (ie each transaction) of the snapshot step.
+     */
+    public static int getSnapshotCommitInterval() {
+        return getPositiveIntProperty(DURACLOUD_BRIDGE_SNAPSHOT_COMMIT_INTERVAL,
+                                      DEFAULT_SNAPSHOT_COMMIT_INTERVAL);
+    }
+
+    /**
+     * @return the maximum number of content items listed ahead of the
+     * snapshot step.
+     */
+    public static int getSnapshotPrefetchDepth() {
+        return getPositiveIntProperty(DURACLOUD_BRIDGE_SNAPSHOT_PREFETCH_DEPTH,
+                                      DEFAULT_SNAPSHOT_PREFETCH_DEPTH);
+    }
+
+    /**
+     * @return the number of large (ie chunked) content items which may be
+     * transferred concurrently by the snapshot step, independently of the
+     * threads transferring small items.
+     */
+    public static int getSnapshotLargeItemThreads() {
+        return getPositiveIntProperty(DURACLOUD_BRIDGE_SNAPSHOT_LARGE_ITEM_THREADS,
+                                      DEFAULT_SNAPSHOT_LARGE_ITEM_THREADS);
+    }
+
+    /**
+     * @return the number of chunks of a single chunked content item which
+     * may be retrieved concurrently by the snapshot step.
+     */
+    public static int getSnapshotThreadsPerChunkedItem() {
+        return getPositiveIntProperty(DURACLOUD_BRIDGE_SNAPSHOT_THREADS_PER_CHUNKED_ITEM,
+                                      DEFAULT_SNAPSHOT_THREADS_PER_CHUNKED_ITEM);
+    }
+
+    /**
+     * @return the number of files checksummed concurrently when verifying
+     * retrieved content against the manifest of a restore. Defaults to the
+     * number of threads per job.
+     */
+    public static int getRestoreVerifyThreads() {
+        return getPositiveIntProperty(DURACLOUD_BRIDGE_RESTORE_VERIFY_THREADS,
+                                      getBridgeThreadsPerJob());
+    }
+
+    /**
+     * @return the number of manifest entries verified in each chunk of the
+     * restore manifest verification step.
+     */
+    public static int getRestoreVerifyCommitInterval() {
+        return getPositiveIntProperty(DURACLOUD_BRIDGE_RESTORE_VERIFY_COMMIT_INTERVAL,
+                                      DEFAULT_RESTORE_VERIFY_COMMIT_INTERVAL);
+    }
+
+    /**
+     * @return true if space manifests are verified against snapshot manifests
+     * by sorting both on disk and diffing them, false (the default) if the
+     * space manifest is probed against an index of the snapshot manifest.
+     */
+    public static boolean isManifestVerificationSortedMerge() {
+        return Boolean.parseBoolean(System.getProperty(DURACLOUD_BRIDGE_MANIFEST_VERIFICATION_SORTED_MERGE, "false"));
+    }
+
+    /**
+     * @return true if content which is unchanged since the previous snapshot
+     * of a space is taken from the local content store rather than retrieved
+     * again. The store is pruned to the content of the latest complete
+     * snapshot of each space whenever a snapshot completes. It is only used
+     * where files can be hard linked between it and the content dir. False
+     * by default.
+     */
+    public static boolean isSnapshotIncremental() {
+        return Boolean.parseBoolean(System.getProperty(DURACLOUD_BRIDGE_SNAPSHOT_INCREMENTAL, "false"));
+    }
+
+    /**
+     * @return the number of id ranges of a snapshot's content items which are
+     * read from the database concurrently when verifying a restore against the
+     * snapshot repository. Defaults to the number of threads per job.
+     */
+    public static int getRestoreRepoVerifyPartitions() {
+        return getPositiveIntProperty(DURACLOUD_BRIDGE_RESTORE_REPO_VERIFY_PARTITIONS,
+                                      getBridgeThreadsPerJob());
+    }
+
+    /**
+     * @return the number of content items fetched by each query when verifying
+     * a restore against the snapshot repository.
+     */
+    public static int getRestoreRepoVerifyPageSize() {
+        return getPositiveIntProperty(DURACLOUD_BRIDGE_RESTORE_REPO_VERIFY_PAGE_SIZE,
+                                      DEFAULT_RESTORE_REPO_VERIFY_PAGE_SIZE);
+    }
+
+    /**
+     * @return true if the chunks of files large enough to be chunked are
+     * uploaded concurrently when restoring content to DuraCloud. False by
+     * default, in which case the chunks of each file are uploaded one at a
+     * time.
+     */
+    public static boolean isRestoreParallelUpload() {
+        return Boolean.parseBoolean(System.getProperty(DURACLOUD_BRIDGE_RESTORE_PARALLEL_UPLOAD, "false"));
+    }
+
+    /**
+     * @return the number of chunks of a single file which may be uploaded
+     * concurrently when restoring content to DuraCloud.
+     */
+    public static int getRestoreThreadsPerChunkedFile() {
+        return getPositiveIntProperty(DURACLOUD_BRIDGE_RESTORE_THREADS_PER_CHUNKED_FILE,
+                                      DEFAULT_RESTORE_THREADS_PER_CHUNKED_FILE);
+    }
+
+    /**
+     * @return true if restored content is uploaded together with its
+     * properties, rather than having its properties set by a separate step
+     * once all of the content has been uploaded. False by default.
+     */
+    public static boolean isRestorePropertiesWithContent() {
+        return Boolean.parseBoolean(System.getProperty(DURACLOUD_BRIDGE_RESTORE_PROPERTIES_WITH_CONTENT, "false"));
+    }
+
+    private static int getPositiveIntProperty(String property, int defaultValue) {
+        String value = System.getProperty(property);
+        if (null != value) {
+            try {
+                int intValue = Integer.parseInt(value);
+                if (intValue > 0) {
+                    return intValue;
+                }
+                log.warn("System property " + property + " must be greater than zero (value=" +
+                         value + "). Proceeding with default setting of " + defaultValue + ".");
+            } catch (NumberFormatException e) {
+                log.warn("Could not parse system property " + property + " with value " + value +
+                         " into an int. Proceeding with default setting of " + defaultValue + ".");
+            }
+        }
+        return defaultValue;
+    }
+
 }
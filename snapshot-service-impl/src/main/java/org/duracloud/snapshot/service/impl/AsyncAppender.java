@@ -0,0 +1,217 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Base class for files which are appended to by many threads. Entries are
+ * handed off through a bounded queue to a single writer thread, which writes
+ * them in batches and flushes only when the queue runs dry, so the appending
+ * threads never contend for the file or wait on a flush. Callers that need
+ * their entries to have reached the file (ie at a chunk commit or at the end
+ * of a step) call sync().
+ *
+ * @author Daniel Bernstein
+ */
+public abstract class AsyncAppender<E> implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncAppender.class);
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    private static final int MAX_BATCH_SIZE = 256;
+
+    private static final Object END = new Object();
+
+    private static class Barrier {
+        private CountDownLatch latch = new CountDownLatch(1);
+    }
+
+    private String name;
+    private BlockingQueue<Object> queue;
+    private Thread writerThread;
+    private volatile IOException error;
+
+    /**
+     * @param name          the name of the writer thread
+     * @param queueCapacity the number of entries which may be waiting to be
+     *                      written before callers of append() block
+     */
+    protected AsyncAppender(String name, int queueCapacity) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    /**
+     * Opens the output and starts the writer thread.
+     *
+     * @throws IOException
+     */
+    public void open() throws IOException {
+        openOutput();
+        this.writerThread = new Thread(() -> drain(), name);
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Queues an entry to be written.
+     *
+     * @param entry
+     * @throws IOException if the writer thread has failed
+     */
+    protected void append(E entry) throws IOException {
+        checkError();
+        put(entry);
+    }
+
+    /**
+     * Blocks until every entry appended before this call has been written
+     * and flushed.
+     *
+     * @throws IOException if any entry could not be written
+     */
+    public void sync() throws IOException {
+        checkError();
+        Barrier barrier = new Barrier();
+        put(barrier);
+        try {
+            barrier.latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while syncing " + name, e);
+        }
+        checkError();
+    }
+
+    private void put(Object element) throws IOException {
+        try {
+            queue.put(element);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while appending to " + name, e);
+        }
+    }
+
+    private void drain() {
+        List<Object> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                for (Object element : batch) {
+                    if (element == END) {
+                        flushQuietly();
+                        return;
+                    } else if (element instanceof Barrier) {
+                        flushQuietly();
+                        ((Barrier) element).latch.countDown();
+                    } else if (error == null) {
+                        @SuppressWarnings("unchecked")
+                        E item = (E) element;
+                        writeQuietly(item);
+                    }
+                }
+                batch.clear();
+
+                if (queue.isEmpty()) {
+                    flushQuietly();
+                }
+            }
+        } catch (InterruptedException e) {
+            error = new IOException(name + " was interrupted", e);
+        }
+    }
+
+    private void writeQuietly(E entry) {
+        try {
+            write(entry);
+        } catch (IOException e) {
+            log.error(name + " failed to write " + entry + ": " + e.getMessage(), e);
+            error = e;
+        }
+    }
+
+    private void flushQuietly() {
+        if (error != null) {
+            return;
+        }
+
+        try {
+            flush();
+        } catch (IOException e) {
+            log.error(name + " failed to flush: " + e.getMessage(), e);
+            error = e;
+        }
+    }
+
+    private void checkError() throws IOException {
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Writes the queued entries and closes the output.
+     *
+     * @throws IOException if any entry could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (writerThread == null) {
+            return;
+        }
+
+        try {
+            put(END);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing " + name, e);
+        } finally {
+            writerThread = null;
+        }
+
+        IOException failure = error;
+        closeOutput(failure == null);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    protected abstract void openOutput() throws IOException;
+
+    /**
+     * Writes an entry. Only ever called by the writer thread.
+     */
+    protected abstract void write(E entry) throws IOException;
+
+    /**
+     * Flushes the entries written so far. Only ever called by the writer thread.
+     */
+    protected abstract void flush() throws IOException;
+
+    /**
+     * Closes the output once all entries have been written.
+     *
+     * @param complete false if writing failed, in which case the output
+     *                 should be closed without completing it (ie without
+     *                 closing any enclosing structure).
+     */
+    protected abstract void closeOutput(boolean complete) throws IOException;
+}
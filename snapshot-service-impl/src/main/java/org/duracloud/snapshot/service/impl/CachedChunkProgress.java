@@ -0,0 +1,69 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+
+/**
+ * Records the chunks of each chunked item transferred so far, along with
+ * their checksums, in a cache file which survives step failures and
+ * restarts. The owner of the cache deletes it once the step completes
+ * successfully.
+ *
+ * @author Daniel Bernstein
+ */
+public class CachedChunkProgress implements ParallelChunkRetriever.ChunkProgress {
+
+    // separates the content id from the chunk index in the cache keys;
+    // it sorts before any character which may appear in a content id.
+    private static final char SEPARATOR = '\u0000';
+
+    private GroupCommitCache chunkCache;
+    private ConcurrentNavigableMap<String, String> chunkMap;
+
+    /**
+     * @param chunkCache an open cache
+     * @param mapName    the name of the map in which progress is recorded
+     */
+    public CachedChunkProgress(GroupCommitCache chunkCache, String mapName) {
+        this.chunkCache = chunkCache;
+        this.chunkMap = chunkCache.getMap(mapName);
+    }
+
+    @Override
+    public Map<Integer, String> getCompletedChunks(String contentId) {
+        Map<Integer, String> completed = new HashMap<>();
+        for (Map.Entry<String, String> entry : getChunks(contentId).entrySet()) {
+            String key = entry.getKey();
+            completed.put(Integer.valueOf(key.substring(key.lastIndexOf(SEPARATOR) + 1)),
+                          entry.getValue());
+        }
+        return completed;
+    }
+
+    @Override
+    public void chunkCompleted(String contentId, int index, String checksum) {
+        chunkCache.put(chunkMap, contentId + SEPARATOR + index, checksum);
+        // chunks are large, so it is worth making each one durable
+        // as soon as it has been transferred.
+        chunkCache.sync();
+    }
+
+    @Override
+    public void clear(String contentId) {
+        getChunks(contentId).clear();
+        chunkCache.sync();
+    }
+
+    private Map<String, String> getChunks(String contentId) {
+        return chunkMap.subMap(contentId + SEPARATOR, true,
+                               contentId + (char) (SEPARATOR + 1), false);
+    }
+}
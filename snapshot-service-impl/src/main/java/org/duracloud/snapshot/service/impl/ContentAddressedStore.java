@@ -0,0 +1,243 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A local store of snapshot content keyed by MD5 checksum, which allows the
+ * content of one snapshot to be reused by later snapshots of the same space
+ * without retrieving it again. Content is only ever added to and taken from
+ * the store by hard linking files, so a file held both by the store and by a
+ * snapshot takes up space only once. Where files cannot be linked (eg the
+ * store and the snapshot are on different file systems) the store is not
+ * used at all: content is never copied into or out of it.
+ *
+ * Files are laid out as {@code <root>/<first two digits of md5>/<md5>}.
+ * Callers must only add files whose MD5 checksum has been verified, and must
+ * detach a file before writing to it in place, as writing through a link
+ * would change the stored content. The store only grows as content is
+ * added: prune() removes the content which is no longer needed.
+ *
+ * @author Daniel Bernstein
+ */
+public class ContentAddressedStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ContentAddressedStore.class);
+
+    /**
+     * The name of the directory of the bridge work dir in which the store is
+     * kept.
+     */
+    public static final String DIRECTORY_NAME = "content-store";
+
+    private static final Pattern MD5_PATTERN = Pattern.compile("[0-9a-f]{32}");
+
+    private File root;
+    private volatile boolean linkable = true;
+
+    /**
+     * @param root the directory in which the content is stored
+     */
+    public ContentAddressedStore(File root) {
+        this.root = root;
+    }
+
+    /**
+     * @param md5
+     * @return the file in which the content with the checksum is (or would be)
+     * stored.
+     */
+    protected File getFile(String md5) {
+        String key = md5.toLowerCase();
+        return new File(new File(root, key.substring(0, 2)), key);
+    }
+
+    /**
+     * @param md5
+     * @return true if the store holds content with the checksum
+     */
+    public boolean contains(String md5) {
+        return md5 != null && md5.length() > 2 && getFile(md5).isFile();
+    }
+
+    /**
+     * Adds a file to the store unless the store already holds content with
+     * the same checksum, or the file cannot be linked into the store.
+     *
+     * @param md5  the verified MD5 checksum of the file
+     * @param file
+     * @throws IOException
+     */
+    public void add(String md5, File file) throws IOException {
+        if (!linkable || md5 == null || md5.length() <= 2 || contains(md5)) {
+            return;
+        }
+
+        File stored = getFile(md5);
+        stored.getParentFile().mkdirs();
+
+        // link under a temporary name so that the stored file only appears
+        // once it is complete.
+        File temp = new File(stored.getParentFile(),
+                             stored.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        Files.deleteIfExists(temp.toPath());
+        if (!link(file, temp)) {
+            return;
+        }
+        try {
+            Files.move(temp.toPath(), stored.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException ex) {
+            // added concurrently by another thread
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * Places the content with the checksum at the target path, replacing any
+     * file already there.
+     *
+     * @param md5
+     * @param target
+     * @return false if the store does not hold content with the checksum or
+     * it cannot be linked to the target path
+     * @throws IOException
+     */
+    public boolean retrieve(String md5, File target) throws IOException {
+        if (!linkable || !contains(md5)) {
+            return false;
+        }
+
+        target.getParentFile().mkdirs();
+        Files.deleteIfExists(target.toPath());
+        return link(getFile(md5), target);
+    }
+
+    /**
+     * Deletes the content which is not referenced.
+     *
+     * @param referenced the (lower case) MD5 checksums of the content to keep
+     * @return the number of files deleted
+     * @throws IOException
+     */
+    public int prune(Set<String> referenced) throws IOException {
+        int deleted = 0;
+        File[] dirs = root.listFiles(File::isDirectory);
+        if (dirs == null) {
+            return deleted;
+        }
+
+        for (File dir : dirs) {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                continue;
+            }
+
+            for (File file : files) {
+                // files being added are left alone: they are under temporary
+                // names until they are complete.
+                String name = file.getName();
+                if (MD5_PATTERN.matcher(name).matches() && !referenced.contains(name)) {
+                    Files.deleteIfExists(file.toPath());
+                    deleted++;
+                }
+            }
+        }
+
+        log.info("pruned {} unreferenced files from the content store {}", deleted, root.getAbsolutePath());
+        return deleted;
+    }
+
+    /**
+     * Deletes the file if it shares its content with any other file (ie it
+     * is linked to content in the store) so that it can be written afresh
+     * without modifying the stored content.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void detach(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+
+        boolean linked;
+        try {
+            linked = ((Number) Files.getAttribute(file.toPath(), "unix:nlink")).intValue() > 1;
+        } catch (UnsupportedOperationException | IllegalArgumentException ex) {
+            // the number of links is unknown: assume the worst
+            linked = true;
+        }
+
+        if (linked) {
+            log.debug("detaching {} from the content store", file.getAbsolutePath());
+            Files.delete(file.toPath());
+        }
+    }
+
+    /**
+     * @return false if the target could not be linked to the source. The
+     * store is not used again if links are not supported, or the store and
+     * the target are on different file systems; any other failure (eg a
+     * full disk) only affects the one file.
+     */
+    private boolean link(File source, File target) {
+        try {
+            Files.createLink(target.toPath(), source.toPath());
+            return true;
+        } catch (NoSuchFileException | FileAlreadyExistsException ex) {
+            // the stored content has been pruned since it was looked up, or
+            // the target has been created concurrently
+            log.debug("unable to link {} to {}: {}",
+                      target.getAbsolutePath(), source.getAbsolutePath(), ex.getMessage());
+            return false;
+        } catch (UnsupportedOperationException ex) {
+            disable(source, target, ex);
+            return false;
+        } catch (FileSystemException ex) {
+            if (isCrossDevice(ex)) {
+                disable(source, target, ex);
+            } else {
+                log.warn("unable to link {} to {}: {}",
+                         target.getAbsolutePath(), source.getAbsolutePath(), ex.getMessage());
+            }
+            return false;
+        } catch (IOException ex) {
+            log.warn("unable to link {} to {}: {}",
+                     target.getAbsolutePath(), source.getAbsolutePath(), ex.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the failure is due to a link between file systems
+     * (EXDEV), which is reported only by its message.
+     */
+    private boolean isCrossDevice(FileSystemException ex) {
+        String reason = ex.getReason();
+        return reason != null && reason.toLowerCase().contains("cross-device");
+    }
+
+    private void disable(File source, File target, Exception ex) {
+        log.warn("unable to link {} to {} ({}): the content store at {} will not be used",
+                 target.getAbsolutePath(), source.getAbsolutePath(), ex.getMessage(),
+                 root.getAbsolutePath());
+        linkable = false;
+    }
+}
@@ -9,20 +9,25 @@ package org.duracloud.snapshot.service.impl;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.codehaus.jackson.JsonFactory;
-import org.codehaus.jackson.JsonParser;
-import org.codehaus.jackson.JsonToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
 import org.springframework.batch.item.ItemReader;
 import org.springframework.batch.item.NonTransientResourceException;
 import org.springframework.batch.item.ParseException;
 import org.springframework.batch.item.UnexpectedInputException;
 
 /**
+ * Reads the entries of a content properties file by their position in the
+ * file through a {@link ContentPropertiesIndex}. Each read claims the next
+ * position and then fetches and parses just that entry, so concurrent reads
+ * are not serialized behind a single parser, and a restarted step starts
+ * straight from the first entry which has not yet been read rather than
+ * parsing and discarding the entries before it.
+ *
  * @author Daniel Bernstein
  * Date: Jul 16, 2014
  */
@@ -31,11 +36,19 @@ public class ContentPropertiesFileReader extends StepExecutionSupport implements
         LoggerFactory.getLogger(ContentPropertiesFileReader.class);
 
     private File propertiesFile;
+    private File indexFile;
 
-    private JsonParser jParser;
+    private ContentPropertiesIndex index;
+    private AtomicLong next;
 
-    public ContentPropertiesFileReader(File propertiesFile) {
+    /**
+     * @param propertiesFile the content properties file which is read
+     * @param indexFile      the file in which the index of the properties
+     *                       file is persisted
+     */
+    public ContentPropertiesFileReader(File propertiesFile, File indexFile) {
         this.propertiesFile = propertiesFile;
+        this.indexFile = indexFile;
     }
 
     /*
@@ -44,73 +57,56 @@ public class ContentPropertiesFileReader extends StepExecutionSupport implements
      * @see org.springframework.batch.item.ItemReader#read()
      */
     @Override
-    public synchronized ContentProperties read()
+    public ContentProperties read()
         throws Exception, UnexpectedInputException, ParseException, NonTransientResourceException {
 
-        if (jParser == null) {
-            JsonFactory jfactory = new JsonFactory();
-            jParser = jfactory.createJsonParser(this.propertiesFile);
-            jParser.nextToken(); //skips the first [
-
-            //skip properties already read.
-            int itemsRead = (int) getItemsRead();
-            for (int i = 0; i < itemsRead; i++) {
-                doRead();
-            }
-        }
-
-        return doRead();
-    }
-
-    /**
-     * @return
-     * @throws IOException
-     */
-    private ContentProperties doRead() throws IOException {
-        //once parser is closed, always return null.
-        if (jParser.isClosed()) {
+        ContentPropertiesIndex index = getIndex();
+        long ordinal = next.getAndIncrement();
+        //once every entry has been read, always return null.
+        if (ordinal >= index.size()) {
             return null;
         }
 
         try {
-            while (jParser.nextToken() != JsonToken.END_ARRAY &&
-                   jParser.getText() != null) {
-                return parseNext(jParser);
-            }
+            return index.get(ordinal);
         } catch (Exception e) {
             String message = "Error parsing content properties file: " + e.getMessage();
             log.error(message, e);
             throw new ParseException(message, e);
         }
-
-        jParser.close();
-        return null;
     }
 
-    /**
-     * @param jParser
-     * @return
-     */
-    private synchronized ContentProperties parseNext(JsonParser jParser)
-        throws Exception {
-        String contentId = null;
-        Map<String, String> properties = new HashMap<>();
-        while (jParser.nextToken() != JsonToken.END_OBJECT &&
-               jParser.getText() != null) {
-
-            contentId = jParser.getCurrentName();
-            jParser.nextToken();  // :
-            jParser.nextToken();  // {
-
-            while (jParser.nextToken() != JsonToken.END_OBJECT &&
-                   jParser.getText() != null) {
-                String key = jParser.getCurrentName();
-                String value = jParser.getText();
-                properties.put(key, value);
+    private synchronized ContentPropertiesIndex getIndex() throws IOException {
+        if (index == null) {
+            index = ContentPropertiesIndex.open(propertiesFile, indexFile);
+            long itemsRead = getItemsRead();
+            if (itemsRead > 0) {
+                log.info("resuming read of {} at entry {} of {}",
+                         propertiesFile.getAbsolutePath(), itemsRead, index.size());
             }
+            next = new AtomicLong(itemsRead);
         }
+        return index;
+    }
 
-        return new ContentProperties(contentId, properties);
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.springframework.batch.core.StepExecutionListener#afterStep(org.
+     * springframework.batch.core.StepExecution)
+     */
+    @Override
+    public synchronized ExitStatus afterStep(StepExecution stepExecution) {
+        ExitStatus status = super.afterStep(stepExecution);
+        if (index != null) {
+            index.close();
+            index = null;
+        }
+        if (ExitStatus.COMPLETED.getExitCode().equals(status.getExitCode())) {
+            // the index is only needed to resume the step
+            indexFile.delete();
+        }
+        return status;
     }
 
 }
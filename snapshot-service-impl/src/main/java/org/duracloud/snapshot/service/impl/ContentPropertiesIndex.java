@@ -0,0 +1,286 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An index of a content properties file (a JSON array of objects, each of
+ * which maps a content id to its properties) which gives the properties of
+ * any content id without reading the file from the start.
+ *
+ * The index maps each content id, as well as the position of each entry in
+ * the file, to the byte offset and length of the entry and is persisted in a
+ * MapDB file. It is built once and reused for as long as the length and
+ * modification time of the properties file recorded with it still match the
+ * file. Entries are read with positional reads, so any number of threads may
+ * read from the same index concurrently.
+ *
+ * @author Daniel Bernstein
+ */
+public class ContentPropertiesIndex implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ContentPropertiesIndex.class);
+
+    private static final String OFFSETS_MAP = "offsets";
+    private static final String ORDINALS_MAP = "ordinals";
+    private static final String INFO_MAP = "info";
+    private static final String SOURCE_KEY = "source";
+    private static final String COUNT_KEY = "count";
+    private static final int VERSION = 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private GroupCommitCache cache;
+    private Map<String, String> offsets;
+    private Map<String, String> ordinals;
+    private long size;
+    private FileChannel file;
+
+    private ContentPropertiesIndex(GroupCommitCache cache, File propertiesFile) throws IOException {
+        this.cache = cache;
+        this.offsets = cache.getMap(OFFSETS_MAP);
+        this.ordinals = cache.getMap(ORDINALS_MAP);
+        this.size = Long.parseLong(cache.getMap(INFO_MAP).get(COUNT_KEY));
+        this.file = FileChannel.open(propertiesFile.toPath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * Opens the index of a content properties file, first (re)building the
+     * index if it does not exist or is stale.
+     *
+     * @param propertiesFile the content properties file which is indexed
+     * @param indexFile      the file in which the index is persisted
+     * @return the index, which must be closed by the caller
+     * @throws IOException
+     */
+    public static synchronized ContentPropertiesIndex open(File propertiesFile, File indexFile) throws IOException {
+        GroupCommitCache cache = new GroupCommitCache(indexFile);
+        cache.open();
+
+        String source = describe(propertiesFile);
+        if (!source.equals(cache.getMap(INFO_MAP).get(SOURCE_KEY))) {
+            // start from an empty file rather than clearing the stale entries one by one
+            cache.delete();
+            cache = new GroupCommitCache(indexFile);
+            cache.open();
+            long count = build(propertiesFile, cache);
+            cache.put(cache.getMap(INFO_MAP), COUNT_KEY, String.valueOf(count));
+            cache.put(cache.getMap(INFO_MAP), SOURCE_KEY, source);
+            cache.sync();
+        }
+
+        try {
+            return new ContentPropertiesIndex(cache, propertiesFile);
+        } catch (IOException | RuntimeException e) {
+            cache.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param workDir        the bridge work directory
+     * @param propertiesFile a content properties file
+     * @return the file in which the index of the properties file is persisted
+     */
+    public static File getIndexFile(File workDir, File propertiesFile) {
+        File indexDir = new File(workDir, "content-properties-index");
+        indexDir.mkdirs();
+        String name = propertiesFile.getAbsoluteFile().getParentFile().getName() + "-" + propertiesFile.getName();
+        return new File(indexDir, name + ".db");
+    }
+
+    private static String describe(File propertiesFile) {
+        return VERSION + ":" + propertiesFile.length() + ":" + propertiesFile.lastModified();
+    }
+
+    /**
+     * Scans the file byte by byte for the objects of the top level array,
+     * keeping track of strings so that braces within them are ignored. The
+     * content id of each object is then read by parsing just that object.
+     *
+     * @return the number of entries in the file
+     */
+    private static long build(File propertiesFile, GroupCommitCache cache) throws IOException {
+        long start = System.currentTimeMillis();
+        Map<String, String> offsets = cache.getMap(OFFSETS_MAP);
+        Map<String, String> ordinals = cache.getMap(ORDINALS_MAP);
+        long count = 0;
+        try (InputStream stream = new FileInputStream(propertiesFile)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            ByteArrayOutputStream entry = new ByteArrayOutputStream();
+            long position = 0;
+            long offset = 0;
+            int depth = 0;
+            boolean inString = false;
+            boolean escaped = false;
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++, position++) {
+                    byte b = buffer[i];
+                    if (depth == 1 && b == '{') {
+                        offset = position;
+                        entry.reset();
+                    }
+                    if (depth > 1 || depth == 1 && b == '{') {
+                        entry.write(b);
+                    }
+
+                    if (inString) {
+                        if (escaped) {
+                            escaped = false;
+                        } else if (b == '\\') {
+                            escaped = true;
+                        } else if (b == '"') {
+                            inString = false;
+                        }
+                    } else if (b == '"') {
+                        inString = true;
+                    } else if (b == '{' || b == '[') {
+                        depth++;
+                    } else if (b == '}' || b == ']') {
+                        depth--;
+                        if (depth == 1 && b == '}') {
+                            String contentId = readContentId(entry.toByteArray());
+                            if (contentId != null) {
+                                String location = offset + ":" + (position + 1 - offset);
+                                cache.put(offsets, contentId, location);
+                                cache.put(ordinals, String.valueOf(count), location);
+                                count++;
+                            }
+                        }
+                    }
+                }
+            }
+
+            if (depth != 0 || inString) {
+                throw new IOException(propertiesFile.getAbsolutePath() + " is truncated");
+            }
+        }
+
+        log.info("indexed {} entries of {} in {} ms",
+                 count, propertiesFile.getAbsolutePath(), System.currentTimeMillis() - start);
+        return count;
+    }
+
+    private static String readContentId(byte[] entry) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createJsonParser(entry)) {
+            parser.nextToken(); // {
+            return parser.nextToken() == JsonToken.FIELD_NAME ? parser.getCurrentName() : null;
+        }
+    }
+
+    /**
+     * @param contentId
+     * @return the properties of the content or null if the file has no
+     * entry for the content id
+     * @throws IOException
+     */
+    public Map<String, String> getProperties(String contentId) throws IOException {
+        String location = offsets.get(contentId);
+        return location == null ? null : read(location).getProperties();
+    }
+
+    /**
+     * @return the number of entries in the properties file
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @param ordinal the position of an entry in the properties file,
+     *                starting from 0
+     * @return the content id and properties of the entry or null if there is
+     * no entry at that position
+     * @throws IOException
+     */
+    public ContentProperties get(long ordinal) throws IOException {
+        String location = ordinals.get(String.valueOf(ordinal));
+        return location == null ? null : read(location);
+    }
+
+    private ContentProperties read(String location) throws IOException {
+        int separator = location.indexOf(':');
+        long offset = Long.parseLong(location.substring(0, separator));
+        ByteBuffer entry = ByteBuffer.allocate(Integer.parseInt(location.substring(separator + 1)));
+        while (entry.hasRemaining()) {
+            if (file.read(entry, offset + entry.position()) == -1) {
+                throw new IOException("Unexpected end of content properties file at offset " + offset);
+            }
+        }
+
+        try (JsonParser parser = JSON_FACTORY.createJsonParser(entry.array())) {
+            parser.nextToken(); // {
+            return parse(parser);
+        }
+    }
+
+    /**
+     * Parses an entry of a content properties file. The parser must be
+     * positioned on the start of the entry's object.
+     *
+     * @param parser
+     * @return the content id and properties of the entry
+     * @throws IOException
+     */
+    static ContentProperties parse(JsonParser parser) throws IOException {
+        String contentId = null;
+        Map<String, String> properties = new HashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            contentId = parser.getCurrentName();
+            parser.nextToken(); // {
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String key = parser.getCurrentName();
+                parser.nextToken();
+                properties.put(key, parser.getText());
+            }
+        }
+
+        return new ContentProperties(contentId, properties);
+    }
+
+    /**
+     * Closes the properties file and the index.
+     */
+    @Override
+    public void close() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            log.warn("failed to close content properties file: " + e.getMessage(), e);
+        }
+        cache.close();
+    }
+
+    /**
+     * Closes the index and deletes the file in which it is persisted.
+     */
+    public void delete() {
+        close();
+        cache.delete();
+    }
+}
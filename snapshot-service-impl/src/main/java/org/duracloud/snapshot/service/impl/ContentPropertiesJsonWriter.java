@@ -0,0 +1,110 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * Writes the content properties file (a json array of
+ * {"content-id": {"name": "value", ...}} objects) read back by the
+ * ContentPropertiesFileReader. Entries written by any number of threads are
+ * handed off to a single writer thread that owns a streaming json generator,
+ * so callers neither contend for the file nor build the json themselves. The
+ * generator escapes names and values and separates the entries.
+ *
+ * @author Daniel Bernstein
+ */
+public class ContentPropertiesJsonWriter extends AsyncAppender<ContentPropertiesJsonWriter.Entry> {
+
+    protected static class Entry {
+        private String contentId;
+        private Map<String, String> properties;
+
+        Entry(String contentId, Map<String, String> properties) {
+            this.contentId = contentId;
+            this.properties = properties;
+        }
+
+        @Override
+        public String toString() {
+            return "properties of " + contentId;
+        }
+    }
+
+    private File file;
+    private JsonGenerator generator;
+
+    /**
+     * @param file the content properties file, which is overwritten
+     */
+    public ContentPropertiesJsonWriter(File file) {
+        this(file, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param file          the content properties file, which is overwritten
+     * @param queueCapacity the number of entries which may be waiting to be
+     *                      written before callers of write() block
+     */
+    public ContentPropertiesJsonWriter(File file, int queueCapacity) {
+        super("content-properties-writer", queueCapacity);
+        this.file = file;
+    }
+
+    /**
+     * Queues the properties of a content item to be written.
+     *
+     * @param contentId
+     * @param properties
+     * @throws IOException if the writer thread has failed
+     */
+    public void write(String contentId, Map<String, String> properties) throws IOException {
+        append(new Entry(contentId, properties));
+    }
+
+    @Override
+    protected void openOutput() throws IOException {
+        this.generator = new JsonFactory().createJsonGenerator(file, JsonEncoding.UTF8);
+        this.generator.useDefaultPrettyPrinter();
+        this.generator.writeStartArray();
+    }
+
+    @Override
+    protected void write(Entry entry) throws IOException {
+        generator.writeStartObject();
+        generator.writeObjectFieldStart(entry.contentId);
+        for (Map.Entry<String, String> property : entry.properties.entrySet()) {
+            generator.writeStringField(property.getKey(), property.getValue());
+        }
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+
+    @Override
+    protected void flush() throws IOException {
+        generator.flush();
+    }
+
+    @Override
+    protected void closeOutput(boolean complete) throws IOException {
+        try {
+            if (complete) {
+                generator.writeEndArray();
+                generator.writeRaw('\n');
+            }
+        } finally {
+            generator.close();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+import org.duracloud.client.ContentStore;
+import org.duracloud.common.model.ContentItem;
+import org.duracloud.common.retry.Retrier;
+import org.duracloud.common.util.ChecksumUtil;
+import org.duracloud.retrieval.mgmt.OutputWriter;
+import org.duracloud.retrieval.mgmt.RetrievalListener;
+import org.duracloud.retrieval.mgmt.RetrievalWorker;
+import org.duracloud.retrieval.source.ContentStream;
+import org.duracloud.retrieval.source.RetrievalSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A retrieval worker which computes the MD5 and SHA-256 digests of the content
+ * as it is written to disk, so the retrieved file does not have to be read
+ * back in order to verify it or to produce the sha256 manifest entry.
+ *
+ * @author Daniel Bernstein
+ */
+public class DigestingRetrievalWorker extends RetrievalWorker {
+
+    private static final Logger log = LoggerFactory.getLogger(DigestingRetrievalWorker.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ContentItem contentItem;
+    private RetrievalSource source;
+    private boolean applyTimestamps;
+    private String md5Checksum;
+    private String sha256Checksum;
+
+    /**
+     * @param contentItem
+     * @param source
+     * @param contentDir
+     * @param overwrite
+     * @param outWriter
+     * @param createSpaceDir
+     * @param applyTimestamps
+     */
+    public DigestingRetrievalWorker(ContentItem contentItem,
+                                    RetrievalSource source,
+                                    File contentDir,
+                                    boolean overwrite,
+                                    OutputWriter outWriter,
+                                    boolean createSpaceDir,
+                                    boolean applyTimestamps) {
+        super(contentItem, source, contentDir, overwrite, outWriter, createSpaceDir, applyTimestamps);
+        this.contentItem = contentItem;
+        this.source = source;
+        this.applyTimestamps = applyTimestamps;
+    }
+
+    /**
+     * @return the MD5 of the bytes written by the last successful transfer or
+     * null if the content was not transferred by this worker (ie the local
+     * file already matched the source).
+     */
+    public String getMd5Checksum() {
+        return md5Checksum;
+    }
+
+    /**
+     * @return the SHA-256 of the bytes written by the last successful transfer or
+     * null if the content was not transferred by this worker.
+     */
+    public String getSha256Checksum() {
+        return sha256Checksum;
+    }
+
+    /**
+     * Applies the file timestamps given by the properties of the content to
+     * the local file, as a transfer by this worker would. This is for content
+     * which was written to the local file by other means (ie chunk by chunk).
+     *
+     * @param properties the properties of the content
+     */
+    public void applyTimestamps(Map<String, String> properties) {
+        if (applyTimestamps) {
+            applyTimestamps(new ContentStream(null, properties), getLocalFile());
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.duracloud.retrieval.mgmt.RetrievalWorker#retrieveToFile(java.io.File,
+     * org.duracloud.retrieval.mgmt.RetrievalListener)
+     */
+    @Override
+    protected Map<String, String> retrieveToFile(File localFile, RetrievalListener listener)
+        throws IOException {
+        this.md5Checksum = null;
+        this.sha256Checksum = null;
+
+        ContentStream contentStream;
+        try {
+            contentStream = new Retrier(5, 4000, 3).execute(() -> {
+                return source.getSourceContent(contentItem, listener);
+            });
+        } catch (Exception ex) {
+            throw new IOException(ex);
+        }
+
+        MessageDigest md5 = createDigest("MD5");
+        MessageDigest sha256 = createDigest("SHA-256");
+
+        try (InputStream inStream = contentStream.getStream();
+             OutputStream outStream = new FileOutputStream(localFile)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = inStream.read(buffer)) != -1) {
+                md5.update(buffer, 0, read);
+                sha256.update(buffer, 0, read);
+                outStream.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            deleteQuietly(localFile);
+            throw e;
+        }
+
+        String localMd5 = ChecksumUtil.checksumBytesToString(md5.digest());
+        String remoteMd5 = contentStream.getProperties().get(ContentStore.CONTENT_CHECKSUM);
+        if (!localMd5.equals(remoteMd5)) {
+            deleteQuietly(localFile);
+            throw new IOException("Calculated checksum value (" + localMd5 + ") for retrieved file " +
+                                  localFile.getAbsolutePath() + " does not match properties checksum (" +
+                                  remoteMd5 + ").");
+        }
+
+        if (applyTimestamps) {
+            applyTimestamps(contentStream, localFile);
+        }
+
+        this.md5Checksum = localMd5;
+        this.sha256Checksum = ChecksumUtil.checksumBytesToString(sha256.digest());
+        return contentStream.getProperties();
+    }
+
+    private MessageDigest createDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void deleteQuietly(File localFile) {
+        if (localFile.exists() && !localFile.delete()) {
+            log.warn("Unable to delete partially retrieved file {}", localFile.getAbsolutePath());
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Sorts an arbitrarily large number of lines using a bounded amount of
+ * memory. Lines are buffered until the buffer is full, at which point the
+ * buffer is sorted and spilled to a temporary file. The sorted lines are
+ * then read back by merging the spilled files. Lines must not contain line
+ * breaks.
+ *
+ * @author Daniel Bernstein
+ */
+public class ExternalSorter implements Closeable {
+
+    public static final int DEFAULT_MAX_LINES_IN_MEMORY = 100000;
+
+    private interface LineSource {
+        String next() throws IOException;
+    }
+
+    private static class Run {
+        private LineSource source;
+        private String line;
+
+        Run(LineSource source) throws IOException {
+            this.source = source;
+            this.line = source.next();
+        }
+    }
+
+    private File tempDir;
+    private int maxLinesInMemory;
+    private Comparator<String> comparator;
+    private List<String> buffer = new ArrayList<>();
+    private List<File> spills = new ArrayList<>();
+    private List<BufferedReader> readers = new ArrayList<>();
+    private PriorityQueue<Run> runs;
+    private long size;
+
+    /**
+     * @param tempDir          the directory in which sorted runs are spilled
+     * @param maxLinesInMemory the number of lines held in memory before a
+     *                         sorted run is spilled to disk
+     * @param comparator       the order of the sorted lines
+     */
+    public ExternalSorter(File tempDir, int maxLinesInMemory, Comparator<String> comparator) {
+        this.tempDir = tempDir;
+        this.maxLinesInMemory = maxLinesInMemory;
+        this.comparator = comparator;
+    }
+
+    /**
+     * Adds a line to be sorted. Lines may not be added once reading has begun.
+     *
+     * @param line
+     * @throws IOException
+     */
+    public void add(String line) throws IOException {
+        if (runs != null) {
+            throw new IllegalStateException("lines cannot be added once the sorted lines are being read");
+        }
+
+        buffer.add(line);
+        size++;
+        if (buffer.size() >= maxLinesInMemory) {
+            spill();
+        }
+    }
+
+    /**
+     * @return the number of lines added
+     */
+    public long size() {
+        return size;
+    }
+
+    private void spill() throws IOException {
+        buffer.sort(comparator);
+        File spill = File.createTempFile("sort-run-", ".txt", tempDir);
+        spills.add(spill);
+        try (BufferedWriter writer = Files.newBufferedWriter(spill.toPath(), StandardCharsets.UTF_8)) {
+            for (String line : buffer) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return the next line in sorted order or null once all lines have
+     * been read.
+     * @throws IOException
+     */
+    public String readLine() throws IOException {
+        if (runs == null) {
+            merge();
+        }
+
+        Run run = runs.poll();
+        if (run == null) {
+            return null;
+        }
+
+        String line = run.line;
+        run.line = run.source.next();
+        if (run.line != null) {
+            runs.add(run);
+        }
+        return line;
+    }
+
+    private void merge() throws IOException {
+        runs = new PriorityQueue<>(Math.max(1, spills.size()),
+                                   (a, b) -> comparator.compare(a.line, b.line));
+        if (spills.isEmpty()) {
+            // everything fits in memory: no need to touch the disk
+            buffer.sort(comparator);
+            Iterator<String> lines = buffer.iterator();
+            Run run = new Run(() -> lines.hasNext() ? lines.next() : null);
+            if (run.line != null) {
+                runs.add(run);
+            }
+            return;
+        }
+
+        if (!buffer.isEmpty()) {
+            spill();
+        }
+
+        for (File spill : spills) {
+            BufferedReader reader = Files.newBufferedReader(spill.toPath(), StandardCharsets.UTF_8);
+            readers.add(reader);
+            Run run = new Run(reader::readLine);
+            if (run.line != null) {
+                runs.add(run);
+            }
+        }
+    }
+
+    /**
+     * Closes and deletes the spilled runs.
+     */
+    @Override
+    public void close() {
+        for (BufferedReader reader : readers) {
+            IOUtils.closeQuietly(reader);
+        }
+        for (File spill : spills) {
+            spill.delete();
+        }
+        buffer.clear();
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.duracloud.common.util.ChecksumUtil;
+
+/**
+ * Computes file digests by reading through a FileChannel into a large direct
+ * buffer which is allocated once per thread, so hashing many files from a
+ * pool of threads neither copies the bytes onto the heap nor allocates a
+ * buffer per file.
+ *
+ * @author Daniel Bernstein
+ */
+public class FileDigester {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> BUFFERS =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private FileDigester() {
+        // Ensures no instances are made of this class, as there are only static members.
+    }
+
+    /**
+     * @param file
+     * @return the hex encoded MD5 of the file
+     * @throws IOException
+     */
+    public static String md5(File file) throws IOException {
+        return digest(file, "MD5");
+    }
+
+    /**
+     * @param file
+     * @param algorithm a MessageDigest algorithm name (ie MD5 or SHA-256)
+     * @return the hex encoded digest of the file
+     * @throws IOException
+     */
+    public static String digest(File file, String algorithm) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+
+        ByteBuffer buffer = BUFFERS.get();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+
+        return ChecksumUtil.checksumBytesToString(digest.digest());
+    }
+}
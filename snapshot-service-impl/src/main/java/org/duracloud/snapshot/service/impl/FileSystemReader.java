@@ -7,29 +7,77 @@
  */
 package org.duracloud.snapshot.service.impl;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Collection;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.TimeUnit;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedList;
 
-import org.apache.commons.io.DirectoryWalker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
 import org.springframework.batch.item.ItemReader;
 import org.springframework.batch.item.NonTransientResourceException;
 import org.springframework.batch.item.ParseException;
 import org.springframework.batch.item.UnexpectedInputException;
 
 /**
+ * Reads the files beneath a root directory from an index of the directory.
+ *
+ * The index is built the first time the reader is used and lists the size
+ * and relative path of every file in a stable, sorted order (the entries of
+ * each directory are sorted by name), followed by a table of the offset of
+ * each entry. As the index is kept until the step completes, a restarted
+ * step reuses it and seeks straight to the first entry which has not yet
+ * been read rather than walking the directory again. Entries are read ahead
+ * of the step on a separate thread into a bounded queue.
+ *
  * @author Daniel Bernstein
  * Date: Jul 16, 2014
  */
 public class FileSystemReader extends StepExecutionSupport implements ItemReader<File> {
 
-    private SimpleDirectoryWalker walker;
+    private static final Logger log = LoggerFactory.getLogger(FileSystemReader.class);
+
+    private static final long MAGIC = 0x4443464c53494458L;
+    private static final int HEADER_SIZE = 32;
+    private static final int PREFETCH_DEPTH = 1000;
+
     private File rootDirectory = null;
+    private File indexFile;
+    private RandomAccessFile index;
+    private Prefetcher<File> prefetcher;
 
-    public FileSystemReader(File rootDirectory) {
+    /**
+     * @param rootDirectory the directory whose files are read
+     * @param indexFile     the file in which the index of the directory is
+     *                      persisted
+     */
+    public FileSystemReader(File rootDirectory, File indexFile) {
         this.rootDirectory = rootDirectory;
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * @param workDir       the bridge work directory
+     * @param rootDirectory a directory which is read
+     * @return the file in which the index of the directory is persisted
+     */
+    public static File getIndexFile(File workDir, File rootDirectory) {
+        File indexDir = new File(workDir, "file-index");
+        indexDir.mkdirs();
+        File dir = rootDirectory.getAbsoluteFile();
+        return new File(indexDir, dir.getParentFile().getName() + "-" + dir.getName() + ".idx");
     }
 
     /* (non-Javadoc)
@@ -39,72 +87,173 @@ public class FileSystemReader extends StepExecutionSupport implements ItemReader
     public synchronized File read()
         throws Exception, UnexpectedInputException, ParseException, NonTransientResourceException {
 
-        if (walker == null) {
-            this.walker = new SimpleDirectoryWalker(rootDirectory);
-            this.walker.start();
-            //skip ahead if items have already been processed.
-            long itemsRead = getItemsRead();
-            if (itemsRead > 0) {
-                for (int i = 0; i < itemsRead; i++) {
-                    this.walker.next();
-                }
-            }
+        if (prefetcher == null) {
+            prefetcher = open(getItemsRead());
         }
 
-        return this.walker.next();
+        return prefetcher.next();
     }
 
-    private class SimpleDirectoryWalker extends DirectoryWalker<File> {
-        private SynchronousQueue<File> queue = new SynchronousQueue<>();
-        private File root;
+    private Prefetcher<File> open(long itemsRead) throws IOException {
+        if (!isComplete()) {
+            build();
+        }
 
-        public SimpleDirectoryWalker(final File root) {
+        index = new RandomAccessFile(indexFile, "r");
+        index.seek(8);
+        long count = index.readLong();
+        long tableOffset = index.readLong();
+        long totalBytes = index.readLong();
 
-            this.root = root;
+        long first = Math.min(itemsRead, count);
+        long offset = tableOffset;
+        if (first < count) {
+            index.seek(tableOffset + first * 8);
+            offset = index.readLong();
+        }
+        if (first > 0) {
+            log.info("resuming read of {} at file {} of {}", rootDirectory.getAbsolutePath(), first, count);
         }
+        log.info("reading {} files ({} bytes) from {}", count, totalBytes, rootDirectory.getAbsolutePath());
 
-        /**
-         *
-         */
-        public void start() {
-            Thread t = new Thread(new Runnable() {
-
-                @Override
-                public void run() {
-                    try {
-                        walk(root, queue);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-            });
+        index.seek(offset);
+        final DataInputStream entries =
+            new DataInputStream(new BufferedInputStream(Channels.newInputStream(index.getChannel())));
+        final long[] remaining = {count - first};
+        Prefetcher<File> result = new Prefetcher<>("file-system-reader-" + rootDirectory.getName(), () -> {
+            if (remaining[0] == 0) {
+                return null;
+            }
+            remaining[0]--;
+            entries.readLong(); // size
+            byte[] path = new byte[entries.readInt()];
+            entries.readFully(path);
+            return new File(rootDirectory, new String(path, StandardCharsets.UTF_8));
+        }, PREFETCH_DEPTH);
+        result.start();
+        return result;
+    }
 
-            t.start();
+    private boolean isComplete() throws IOException {
+        if (!indexFile.exists() || indexFile.length() < HEADER_SIZE) {
+            return false;
         }
 
-        /* (non-Javadoc)
-         * @see org.apache.commons.io.DirectoryWalker#handleFile(java.io.File, int, java.util.Collection)
-         */
-        @Override
-        protected void handleFile(File file, int depth, Collection<File> results) throws IOException {
-            try {
-                if (file.isFile()) {
-                    queue.put(file);
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "r")) {
+            return file.readLong() == MAGIC;
+        }
+    }
+
+    /**
+     * Walks the root directory, writing the entries of the index as it goes
+     * and their offsets to a temporary file which is appended to the entries
+     * once the walk is complete. The index only appears under its own name
+     * once it is complete.
+     *
+     * @throws IOException
+     */
+    private void build() throws IOException {
+        long start = System.currentTimeMillis();
+        File temp = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+        File offsetsFile = new File(indexFile.getParentFile(), indexFile.getName() + ".offsets.tmp");
+
+        long count = 0;
+        long totalBytes = 0;
+        long tableOffset = HEADER_SIZE;
+        try {
+            try (FileOutputStream fos = new FileOutputStream(temp);
+                 DataOutputStream offsets =
+                     new DataOutputStream(new BufferedOutputStream(new FileOutputStream(offsetsFile)))) {
+                DataOutputStream entries = new DataOutputStream(new BufferedOutputStream(fos));
+                entries.write(new byte[HEADER_SIZE]);
+
+                LinkedList<String> dirs = new LinkedList<>();
+                dirs.push("");
+                while (!dirs.isEmpty()) {
+                    String dir = dirs.pop();
+                    String[] names = new File(rootDirectory, dir).list();
+                    if (names == null) {
+                        throw new IOException("unable to list " + new File(rootDirectory, dir).getAbsolutePath());
+                    }
+                    Arrays.sort(names);
+
+                    // files are listed before subdirectories, which are then
+                    // visited in order.
+                    LinkedList<String> subdirs = new LinkedList<>();
+                    for (String name : names) {
+                        String path = dir + name;
+                        File file = new File(rootDirectory, path);
+                        if (file.isDirectory()) {
+                            subdirs.add(path + File.separator);
+                        } else if (file.isFile()) {
+                            byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+                            offsets.writeLong(tableOffset);
+                            entries.writeLong(file.length());
+                            entries.writeInt(pathBytes.length);
+                            entries.write(pathBytes);
+                            tableOffset += 12 + pathBytes.length;
+                            totalBytes += file.length();
+                            count++;
+                        }
+                    }
+                    while (!subdirs.isEmpty()) {
+                        dirs.push(subdirs.removeLast());
+                    }
                 }
-            } catch (InterruptedException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
+
+                offsets.flush();
+                Files.copy(offsetsFile.toPath(), entries);
+                entries.flush();
+            }
+
+            try (RandomAccessFile file = new RandomAccessFile(temp, "rw")) {
+                file.writeLong(MAGIC);
+                file.writeLong(count);
+                file.writeLong(tableOffset);
+                file.writeLong(totalBytes);
+                file.getFD().sync();
             }
+
+            Files.move(temp.toPath(), indexFile.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            offsetsFile.delete();
+            temp.delete();
+        }
+
+        log.info("indexed {} files ({} bytes) of {} in {} ms",
+                 count, totalBytes, rootDirectory.getAbsolutePath(), System.currentTimeMillis() - start);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.springframework.batch.core.StepExecutionListener#afterStep(org.
+     * springframework.batch.core.StepExecution)
+     */
+    @Override
+    public synchronized ExitStatus afterStep(StepExecution stepExecution) {
+        ExitStatus status = super.afterStep(stepExecution);
+        close();
+        if (ExitStatus.COMPLETED.getExitCode().equals(status.getExitCode())) {
+            // the index is only needed to resume the step
+            indexFile.delete();
         }
+        return status;
+    }
 
-        public File next() {
+    private void close() {
+        if (prefetcher != null) {
+            prefetcher.close();
+            prefetcher = null;
+        }
+        if (index != null) {
             try {
-                return queue.poll(5000, TimeUnit.MILLISECONDS);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+                index.close();
+            } catch (IOException e) {
+                log.warn("failed to close " + indexFile.getAbsolutePath() + ": " + e.getMessage(), e);
             }
-
-            return null;
+            index = null;
         }
     }
 
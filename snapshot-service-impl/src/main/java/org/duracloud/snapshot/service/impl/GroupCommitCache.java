@@ -0,0 +1,140 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.Serializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A transactional MapDB file whose commits are batched. Writes are committed
+ * once a number of uncommitted writes have accumulated or once the oldest
+ * uncommitted write has reached a maximum age. Callers that need to know that
+ * their writes are durable (ie before acknowledging items to the step) call
+ * sync(), which commits any outstanding writes. Concurrent callers of sync()
+ * share a single commit.
+ *
+ * @author Daniel Bernstein
+ */
+public class GroupCommitCache {
+
+    private static final Logger log = LoggerFactory.getLogger(GroupCommitCache.class);
+
+    public static final int DEFAULT_MAX_PENDING_WRITES = 1000;
+    public static final long DEFAULT_MAX_COMMIT_DELAY_MS = 5000;
+
+    private File dbFile;
+    private int maxPendingWrites;
+    private long maxCommitDelayMs;
+    private DB db;
+
+    private final Object commitLock = new Object();
+    private final AtomicLong writeSequence = new AtomicLong(0);
+    private volatile long committedSequence = 0;
+    private volatile long lastCommitTime = System.currentTimeMillis();
+
+    /**
+     * @param dbFile
+     */
+    public GroupCommitCache(File dbFile) {
+        this(dbFile, DEFAULT_MAX_PENDING_WRITES, DEFAULT_MAX_COMMIT_DELAY_MS);
+    }
+
+    /**
+     * @param dbFile           the MapDB file
+     * @param maxPendingWrites the number of uncommitted writes that triggers a commit
+     * @param maxCommitDelayMs the age of uncommitted writes that triggers a commit
+     */
+    public GroupCommitCache(File dbFile, int maxPendingWrites, long maxCommitDelayMs) {
+        this.dbFile = dbFile;
+        this.maxPendingWrites = maxPendingWrites;
+        this.maxCommitDelayMs = maxCommitDelayMs;
+    }
+
+    /**
+     * Opens (or creates) the underlying database file.
+     */
+    public void open() {
+        this.db = DBMaker.fileDB(this.dbFile).transactionEnable().closeOnJvmShutdown().make();
+        this.lastCommitTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @param name
+     * @return the named map, creating it if necessary. Keys are kept sorted.
+     */
+    public ConcurrentNavigableMap<String, String> getMap(String name) {
+        return db.treeMap(name, Serializer.STRING, Serializer.STRING).createOrOpen();
+    }
+
+    /**
+     * Writes the value to the map. The write is committed with the next
+     * batch: it is only guaranteed to be durable once sync() has returned.
+     *
+     * @param map   a map obtained from getMap()
+     * @param key
+     * @param value
+     */
+    public void put(Map<String, String> map, String key, String value) {
+        map.put(key, value);
+        long sequence = writeSequence.incrementAndGet();
+        if (sequence - committedSequence >= maxPendingWrites ||
+            System.currentTimeMillis() - lastCommitTime >= maxCommitDelayMs) {
+            commitUpTo(sequence);
+        }
+    }
+
+    /**
+     * Commits all writes made so far, unless they have already been committed
+     * by another thread.
+     */
+    public void sync() {
+        commitUpTo(writeSequence.get());
+    }
+
+    private void commitUpTo(long sequence) {
+        synchronized (commitLock) {
+            if (committedSequence >= sequence) {
+                return;
+            }
+
+            // every write numbered at or below this value has already been
+            // applied to its map, so it is covered by the commit.
+            long upTo = writeSequence.get();
+            db.commit();
+            log.debug("committed {} write(s) to {}", upTo - committedSequence, dbFile.getAbsolutePath());
+            committedSequence = upTo;
+            lastCommitTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Commits outstanding writes and closes the database.
+     */
+    public void close() {
+        if (this.db != null && !this.db.isClosed()) {
+            sync();
+            this.db.close();
+        }
+    }
+
+    /**
+     * Closes and deletes the database file.
+     */
+    public void delete() {
+        close();
+        this.dbFile.delete();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Appends entries to the md5 and sha256 manifests of a snapshot. Entries
+ * appended by any number of threads are written by a single writer thread.
+ *
+ * @author Daniel Bernstein
+ */
+public class ManifestAppender extends AsyncAppender<ManifestAppender.Entry> {
+
+    protected static class Entry {
+        private boolean md5;
+        private String contentId;
+        private String checksum;
+
+        Entry(boolean md5, String contentId, String checksum) {
+            this.md5 = md5;
+            this.contentId = contentId;
+            this.checksum = checksum;
+        }
+
+        @Override
+        public String toString() {
+            return (md5 ? "md5" : "sha256") + " manifest entry of " + contentId;
+        }
+    }
+
+    private File md5ManifestFile;
+    private File sha256ManifestFile;
+    private BufferedWriter md5Writer;
+    private BufferedWriter sha256Writer;
+
+    /**
+     * @param md5ManifestFile    the md5 manifest, which is overwritten
+     * @param sha256ManifestFile the sha256 manifest, which is overwritten
+     */
+    public ManifestAppender(File md5ManifestFile, File sha256ManifestFile) {
+        super("manifest-appender", DEFAULT_QUEUE_CAPACITY);
+        this.md5ManifestFile = md5ManifestFile;
+        this.sha256ManifestFile = sha256ManifestFile;
+    }
+
+    /**
+     * Queues an entry for the md5 manifest.
+     *
+     * @param contentId
+     * @param checksum
+     * @throws IOException if the writer thread has failed
+     */
+    public void appendMd5(String contentId, String checksum) throws IOException {
+        append(new Entry(true, contentId, checksum));
+    }
+
+    /**
+     * Queues an entry for the sha256 manifest.
+     *
+     * @param contentId
+     * @param checksum
+     * @throws IOException if the writer thread has failed
+     */
+    public void appendSha256(String contentId, String checksum) throws IOException {
+        append(new Entry(false, contentId, checksum));
+    }
+
+    @Override
+    protected void openOutput() throws IOException {
+        this.md5Writer = Files.newBufferedWriter(md5ManifestFile.toPath(), StandardCharsets.UTF_8);
+        this.sha256Writer = Files.newBufferedWriter(sha256ManifestFile.toPath(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    protected void write(Entry entry) throws IOException {
+        ManifestFileHelper.writeManifestEntry(entry.md5 ? md5Writer : sha256Writer,
+                                              entry.contentId,
+                                              entry.checksum);
+    }
+
+    @Override
+    protected void flush() throws IOException {
+        md5Writer.flush();
+        sha256Writer.flush();
+    }
+
+    @Override
+    protected void closeOutput(boolean complete) throws IOException {
+        try {
+            md5Writer.close();
+            sha256Writer.close();
+        } finally {
+            IOUtils.closeQuietly(md5Writer);
+            IOUtils.closeQuietly(sha256Writer);
+        }
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+
+import org.duracloud.common.util.ChecksumUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A compact, memory-mapped index of a manifest file used to check whether the
+ * manifest contains a content id / checksum combination without loading the
+ * manifest onto the heap.
+ *
+ * Each manifest entry is stored as a fixed size record: the 128 bit MD5 of
+ * the content id followed by the 128 bit checksum (the checksum itself when
+ * it is a hex encoded MD5, otherwise the MD5 of the checksum string). Records
+ * are sorted by content id hash so lookups are binary searches over the
+ * mapped file. The index is written once to the index file and reused for as
+ * long as the length and modification time of the manifest recorded in its
+ * header still match the manifest.
+ *
+ * @author Daniel Bernstein
+ */
+public class ManifestIndex implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ManifestIndex.class);
+
+    private static final long MAGIC = 0x44434d414e494458L;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 32;
+    private static final int WORDS = RECORD_SIZE / 8;
+    private static final int SEGMENT_SHIFT = 25;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private RandomAccessFile file;
+    private MappedByteBuffer[] segments;
+    private long size;
+
+    private ManifestIndex(RandomAccessFile file, MapMode mode, long size) throws IOException {
+        this.file = file;
+        this.size = size;
+
+        int segmentCount = (int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        this.segments = new MappedByteBuffer[segmentCount];
+        FileChannel channel = file.getChannel();
+        for (int i = 0; i < segmentCount; i++) {
+            long first = (long) i << SEGMENT_SHIFT;
+            long records = Math.min(size - first, SEGMENT_MASK + 1);
+            segments[i] = channel.map(mode, HEADER_SIZE + first * RECORD_SIZE, records * RECORD_SIZE);
+        }
+    }
+
+    /**
+     * Opens the index of a manifest, first (re)building the index file if it
+     * does not exist or is stale.
+     *
+     * @param manifestFile the manifest which is indexed
+     * @param indexFile    the file in which the index is persisted
+     * @return the index, which must be closed by the caller
+     * @throws IOException
+     */
+    public static synchronized ManifestIndex open(File manifestFile, File indexFile) throws IOException {
+        if (!isCurrent(manifestFile, indexFile)) {
+            build(manifestFile, indexFile);
+        }
+
+        RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+        try {
+            file.seek(HEADER_SIZE - 8);
+            return new ManifestIndex(file, MapMode.READ_ONLY, file.readLong());
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param workDir      the bridge work directory
+     * @param manifestFile a manifest file
+     * @return the file in which the index of the manifest is persisted. Index
+     * files are kept in the work directory rather than next to the manifest
+     * so that they never become part of a snapshot or restoration, and are
+     * named after the full path of the manifest so that the indexes of
+     * different manifests never share a file. The owner of an index deletes
+     * it once it is no longer needed.
+     */
+    public static File getIndexFile(File workDir, File manifestFile) {
+        File indexDir = new File(workDir, "manifest-index");
+        indexDir.mkdirs();
+        File manifest = manifestFile.getAbsoluteFile();
+        String pathHash = ChecksumUtil.checksumBytesToString(
+            newMd5().digest(manifest.getPath().getBytes(StandardCharsets.UTF_8))).substring(0, 16);
+        String name = manifest.getParentFile().getName() + "-" + manifest.getName() + "-" + pathHash;
+        return new File(indexDir, name + ".idx");
+    }
+
+    private static boolean isCurrent(File manifestFile, File indexFile) throws IOException {
+        if (!indexFile.exists() || indexFile.length() < HEADER_SIZE) {
+            return false;
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "r")) {
+            return file.readLong() == MAGIC &&
+                   file.readInt() == VERSION &&
+                   file.readLong() == manifestFile.length() &&
+                   file.readLong() == manifestFile.lastModified();
+        }
+    }
+
+    private static void build(File manifestFile, File indexFile) throws IOException {
+        long start = System.currentTimeMillis();
+        long manifestLength = manifestFile.length();
+        long manifestLastModified = manifestFile.lastModified();
+
+        File tempFile = new File(indexFile.getAbsolutePath() + ".tmp");
+        long count = 0;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile), 1024 * 1024);
+             ManifestScanner scanner = new ManifestScanner(manifestFile)) {
+            out.write(new byte[HEADER_SIZE]);
+
+            MessageDigest md5 = newMd5();
+            while (scanner.next()) {
+                out.write(md5.digest(scanner.getContentId().getBytes(StandardCharsets.UTF_8)));
+                out.write(checksumBytes(md5, scanner.getChecksum()));
+                count++;
+            }
+        } catch (ParseException e) {
+            tempFile.delete();
+            throw new IOException("failed to index " + manifestFile.getAbsolutePath() + ": " + e.getMessage(), e);
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(tempFile, "rw")) {
+            if (count > 0) {
+                ManifestIndex index = new ManifestIndex(file, MapMode.READ_WRITE, count);
+                index.sort(0, count - 1);
+                for (MappedByteBuffer segment : index.segments) {
+                    segment.force();
+                }
+            }
+
+            // the header is written last, once the records are sorted
+            file.seek(0);
+            file.writeLong(MAGIC);
+            file.writeInt(VERSION);
+            file.writeLong(manifestLength);
+            file.writeLong(manifestLastModified);
+            file.seek(HEADER_SIZE - 8);
+            file.writeLong(count);
+        }
+
+        Files.move(tempFile.toPath(), indexFile.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("indexed {} entries of manifest {} in {} ms",
+                 count, manifestFile.getAbsolutePath(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * @return the number of entries in the manifest
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @param contentId
+     * @param checksum
+     * @return true if the manifest contains an entry for the content id with
+     * the checksum.
+     */
+    public boolean contains(String contentId, String checksum) {
+        MessageDigest md5 = newMd5();
+        ByteBuffer key = ByteBuffer.wrap(md5.digest(contentId.getBytes(StandardCharsets.UTF_8)));
+        ByteBuffer value = ByteBuffer.wrap(checksumBytes(md5, checksum));
+        long key0 = key.getLong();
+        long key1 = key.getLong();
+        long value0 = value.getLong();
+        long value1 = value.getLong();
+
+        for (long i = find(key0, key1); i < size && compareKey(i, key0, key1) == 0; i++) {
+            if (word(i, 2) == value0 && word(i, 3) == value1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param contentId
+     * @return true if the manifest contains an entry for the content id with
+     * any checksum.
+     */
+    public boolean containsContentId(String contentId) {
+        ByteBuffer key = ByteBuffer.wrap(newMd5().digest(contentId.getBytes(StandardCharsets.UTF_8)));
+        long key0 = key.getLong();
+        long key1 = key.getLong();
+        long i = find(key0, key1);
+        return i < size && compareKey(i, key0, key1) == 0;
+    }
+
+    /**
+     * Only meaningful for manifests of hex encoded MD5 checksums (such as
+     * manifest-md5.txt), as only those checksums are held in the index as
+     * they are rather than as a hash.
+     *
+     * @param contentId
+     * @return the MD5 checksum of the content id's entry in the manifest or
+     * null if the manifest has no entry for the content id.
+     */
+    public String getMd5(String contentId) {
+        ByteBuffer key = ByteBuffer.wrap(newMd5().digest(contentId.getBytes(StandardCharsets.UTF_8)));
+        long key0 = key.getLong();
+        long key1 = key.getLong();
+        long i = find(key0, key1);
+        if (i >= size || compareKey(i, key0, key1) != 0) {
+            return null;
+        }
+
+        ByteBuffer checksum = ByteBuffer.allocate(16);
+        checksum.putLong(word(i, 2));
+        checksum.putLong(word(i, 3));
+        return ChecksumUtil.checksumBytesToString(checksum.array());
+    }
+
+    /**
+     * @return the first record with the content id hash, or the record before
+     * which it would be if there is no such record.
+     */
+    private long find(long key0, long key1) {
+        long low = 0;
+        long high = size;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (compareKey(mid, key0, key1) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public void close() throws IOException {
+        segments = null;
+        file.close();
+    }
+
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] checksumBytes(MessageDigest md5, String checksum) {
+        if (checksum.length() == 32) {
+            byte[] bytes = new byte[16];
+            for (int i = 0; i < 16; i++) {
+                int high = Character.digit(checksum.charAt(i * 2), 16);
+                int low = Character.digit(checksum.charAt(i * 2 + 1), 16);
+                if (high < 0 || low < 0) {
+                    return md5.digest(checksum.getBytes(StandardCharsets.UTF_8));
+                }
+                bytes[i] = (byte) ((high << 4) | low);
+            }
+            return bytes;
+        }
+        return md5.digest(checksum.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private long word(long record, int word) {
+        MappedByteBuffer segment = segments[(int) (record >>> SEGMENT_SHIFT)];
+        return segment.getLong((int) (record & SEGMENT_MASK) * RECORD_SIZE + word * 8);
+    }
+
+    private void setWord(long record, int word, long value) {
+        MappedByteBuffer segment = segments[(int) (record >>> SEGMENT_SHIFT)];
+        segment.putLong((int) (record & SEGMENT_MASK) * RECORD_SIZE + word * 8, value);
+    }
+
+    private int compareKey(long record, long key0, long key1) {
+        int result = Long.compareUnsigned(word(record, 0), key0);
+        return result != 0 ? result : Long.compareUnsigned(word(record, 1), key1);
+    }
+
+    private int compare(long record, long[] pivot) {
+        for (int w = 0; w < WORDS; w++) {
+            int result = Long.compareUnsigned(word(record, w), pivot[w]);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    private void swap(long a, long b) {
+        for (int w = 0; w < WORDS; w++) {
+            long value = word(a, w);
+            setWord(a, w, word(b, w));
+            setWord(b, w, value);
+        }
+    }
+
+    private long[] read(long record, long[] words) {
+        for (int w = 0; w < WORDS; w++) {
+            words[w] = word(record, w);
+        }
+        return words;
+    }
+
+    /**
+     * Sorts the records in place (within the mapped file) so that building the
+     * index needs no heap proportional to the size of the manifest.
+     */
+    private void sort(long low, long high) {
+        long[] pivot = new long[WORDS];
+        long[] current = new long[WORDS];
+        while (high - low > INSERTION_SORT_THRESHOLD) {
+            long mid = (low + high) >>> 1;
+            if (compare(mid, read(low, current)) < 0) {
+                swap(mid, low);
+            }
+            if (compare(high, read(low, current)) < 0) {
+                swap(high, low);
+            }
+            if (compare(high, read(mid, current)) < 0) {
+                swap(high, mid);
+            }
+            read(mid, pivot);
+
+            long i = low - 1;
+            long j = high + 1;
+            while (true) {
+                do {
+                    i++;
+                } while (compare(i, pivot) < 0);
+                do {
+                    j--;
+                } while (compare(j, pivot) > 0);
+                if (i >= j) {
+                    break;
+                }
+                swap(i, j);
+            }
+
+            // recurse into the smaller partition to bound the stack depth
+            if (j - low < high - j) {
+                sort(low, j);
+                low = j + 1;
+            } else {
+                sort(j + 1, high);
+                high = j;
+            }
+        }
+
+        for (long i = low + 1; i <= high; i++) {
+            for (long j = i; j > low && compare(j - 1, read(j, current)) > 0; j--) {
+                swap(j - 1, j);
+            }
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+
+/**
+ * Scans the lines of a manifest file ("checksum  data/content-id") straight
+ * from a memory-mapped view of the file, without decoding the file into
+ * lines or running a regular expression over each of them. Whether the
+ * checksum is hex encoded is worked out while it is scanned, so callers can
+ * validate checksums without a second pass over them.
+ *
+ * A scanner is not thread safe.
+ *
+ * @author Daniel Bernstein
+ */
+public class ManifestScanner implements Closeable {
+
+    private static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+    private static final byte[] DATA_PREFIX = "data/".getBytes(StandardCharsets.US_ASCII);
+
+    private FileChannel channel;
+    private long length;
+    private int windowSize;
+    private ByteBuffer window;
+    private long windowStart;
+    private long position;
+    private long linesRead;
+
+    private byte[] scratch = new byte[256];
+    private String contentId;
+    private String checksum;
+    private boolean hexChecksum;
+
+    /**
+     * @param manifestFile the manifest to scan
+     * @throws IOException
+     */
+    public ManifestScanner(File manifestFile) throws IOException {
+        this(manifestFile, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param manifestFile the manifest to scan
+     * @param windowSize   the number of bytes of the file mapped at a time
+     * @throws IOException
+     */
+    protected ManifestScanner(File manifestFile, int windowSize) throws IOException {
+        this.channel = FileChannel.open(manifestFile.toPath(), StandardOpenOption.READ);
+        this.length = channel.size();
+        this.windowSize = windowSize;
+        this.window = ByteBuffer.allocate(0);
+    }
+
+    private ManifestScanner() {
+        // only used to parse single lines
+    }
+
+    /**
+     * Advances to the next line without parsing it.
+     *
+     * @return false if there are no more lines
+     * @throws IOException
+     */
+    public boolean skip() throws IOException {
+        if (position >= length) {
+            return false;
+        }
+
+        int end = findLineEnd();
+        position = windowStart + end + 1;
+        linesRead++;
+        return true;
+    }
+
+    /**
+     * Advances to and parses the next line. The position is advanced even
+     * if the line cannot be parsed, so scanning can carry on with the
+     * following line.
+     *
+     * @return false if there are no more lines
+     * @throws IOException
+     * @throws ParseException if the line is not a manifest entry
+     */
+    public boolean next() throws IOException, ParseException {
+        if (position >= length) {
+            return false;
+        }
+
+        int end = findLineEnd();
+        int start = (int) (position - windowStart);
+        position = windowStart + end + 1;
+        linesRead++;
+        parse(window, start, end);
+        return true;
+    }
+
+    /**
+     * @return the offset within the window of the end of the current line,
+     * remapping the window so that the whole line is within it.
+     */
+    private int findLineEnd() throws IOException {
+        int size = windowSize;
+        while (true) {
+            int start = (int) (position - windowStart);
+            if (start >= 0 && start < window.limit()) {
+                for (int i = start; i < window.limit(); i++) {
+                    if (window.get(i) == '\n') {
+                        return i;
+                    }
+                }
+                if (windowStart + window.limit() >= length) {
+                    // the last line has no line break
+                    return window.limit();
+                }
+            }
+
+            if (start == 0 && window.limit() >= size) {
+                // the line is longer than the window
+                size = (int) Math.min(Integer.MAX_VALUE, (long) size * 2);
+            }
+            windowStart = position;
+            window = channel.map(MapMode.READ_ONLY, position, Math.min(size, length - position));
+        }
+    }
+
+    private void parse(ByteBuffer buffer, int start, int end) throws ParseException {
+        this.contentId = null;
+        this.checksum = null;
+        this.hexChecksum = false;
+
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+
+        // the checksum: a run of word characters
+        int i = start;
+        boolean hex = true;
+        while (i < end && isWordCharacter(buffer.get(i))) {
+            hex &= isHexDigit(buffer.get(i));
+            i++;
+        }
+        int checksumEnd = i;
+
+        // at least one separator
+        while (i < end && isSeparator(buffer.get(i))) {
+            i++;
+        }
+        if (i == checksumEnd || end - i < DATA_PREFIX.length) {
+            throw parseFailure(buffer, start, end);
+        }
+
+        for (byte b : DATA_PREFIX) {
+            if (buffer.get(i++) != b) {
+                throw parseFailure(buffer, start, end);
+            }
+        }
+
+        this.checksum = decode(buffer, start, checksumEnd, StandardCharsets.US_ASCII);
+        this.hexChecksum = hex && checksumEnd > start;
+        this.contentId = decode(buffer, i, end, StandardCharsets.UTF_8);
+    }
+
+    private String decode(ByteBuffer buffer, int start, int end, Charset charset) {
+        int count = end - start;
+        if (scratch.length < count) {
+            scratch = new byte[Math.max(count, scratch.length * 2)];
+        }
+        for (int i = 0; i < count; i++) {
+            scratch[i] = buffer.get(start + i);
+        }
+        return new String(scratch, 0, count, charset);
+    }
+
+    private ParseException parseFailure(ByteBuffer buffer, int start, int end) {
+        return new ParseException("failed to parse \"" + decode(buffer, start, end, StandardCharsets.UTF_8) +
+                                  "\": not a manifest entry", 0);
+    }
+
+    private static boolean isWordCharacter(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_';
+    }
+
+    private static boolean isHexDigit(byte b) {
+        return (b >= '0' && b <= '9') || (b >= 'a' && b <= 'f') || (b >= 'A' && b <= 'F');
+    }
+
+    private static boolean isSeparator(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == '\f' || b == 0x0B || b == '^';
+    }
+
+    /**
+     * Parses a single manifest line.
+     *
+     * @param line
+     * @return the entry
+     * @throws ParseException if the line is not a manifest entry
+     */
+    public static ManifestEntry parseLine(String line) throws ParseException {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        ManifestScanner scanner = new ManifestScanner();
+        scanner.parse(ByteBuffer.wrap(bytes), 0, bytes.length);
+        return scanner.getEntry();
+    }
+
+    /**
+     * @return the content id of the current line
+     */
+    public String getContentId() {
+        return contentId;
+    }
+
+    /**
+     * @return the checksum of the current line
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @param length the expected number of hex digits (ie 32 for an MD5)
+     * @return true if the checksum of the current line is made up of exactly
+     * that many hex digits.
+     */
+    public boolean isHexChecksum(int length) {
+        return hexChecksum && checksum.length() == length;
+    }
+
+    /**
+     * @return the current line as a manifest entry
+     */
+    public ManifestEntry getEntry() {
+        return new ManifestEntry(checksum, contentId);
+    }
+
+    /**
+     * @return the number of lines scanned (or skipped) so far
+     */
+    public long getLinesRead() {
+        return linesRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
@@ -9,12 +9,16 @@ package org.duracloud.snapshot.service.impl;
 
 import java.io.File;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.duracloud.common.retry.Retriable;
 import org.duracloud.common.retry.Retrier;
-import org.duracloud.common.util.ChecksumUtil;
-import org.duracloud.common.util.ChecksumUtil.Algorithm;
 import org.duracloud.snapshot.dto.RestoreStatus;
 import org.duracloud.snapshot.service.RestoreManager;
 import org.slf4j.Logger;
@@ -27,6 +31,10 @@ import org.springframework.batch.item.ItemWriter;
 
 /**
  * This class verifies the manifest entry against the local file system.
+ * The files of each chunk are checksummed on a bounded pool of threads,
+ * largest first so that a large file is not left hashing alone at the end of
+ * the chunk. The verification throughput is reported in the step execution
+ * context.
  *
  * @author Daniel Bernstein
  * Date: Jul 28, 2015
@@ -38,6 +46,16 @@ public class ManifestVerifier extends StepExecutionSupport implements ItemWriter
     private String restorationId;
     private File contentDir;
     private RestoreManager restoreManager;
+    private int threads = 1;
+    private ExecutorService executor;
+    private long startTime;
+    private AtomicLong bytesVerified = new AtomicLong();
+    private AtomicLong filesVerified = new AtomicLong();
+
+    public static final String BYTES_VERIFIED_KEY = "verify.bytes";
+    public static final String FILES_VERIFIED_KEY = "verify.files";
+    public static final String MB_PER_SECOND_KEY = "verify.mb-per-second";
+    public static final String FILES_PER_SECOND_KEY = "verify.files-per-second";
 
     /**
      * @param restorationId
@@ -53,6 +71,13 @@ public class ManifestVerifier extends StepExecutionSupport implements ItemWriter
         this.restoreManager = restorationManager;
     }
 
+    /**
+     * @param threads the number of files to checksum concurrently
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -97,6 +122,15 @@ public class ManifestVerifier extends StepExecutionSupport implements ItemWriter
     public void beforeStep(StepExecution stepExecution) {
         super.beforeStep(stepExecution);
 
+        this.startTime = System.currentTimeMillis();
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable,
+                                       "manifest-verifier-" + restorationId + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
         try {
             new Retrier().execute(new Retriable() {
                 /*
@@ -127,6 +161,14 @@ public class ManifestVerifier extends StepExecutionSupport implements ItemWriter
      */
     @Override
     public ExitStatus afterStep(StepExecution stepExecution) {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+
+        log.info("manifest verification of restore {} checksummed {} files ({} bytes) " +
+                 "in {} ms", restorationId, filesVerified.get(), bytesVerified.get(),
+                 System.currentTimeMillis() - startTime);
+
         ExitStatus status = stepExecution.getExitStatus();
         List<String> errors = getErrors();
         if (errors.size() > 0) {
@@ -166,46 +208,89 @@ public class ManifestVerifier extends StepExecutionSupport implements ItemWriter
      */
     @Override
     public void write(List<? extends ManifestEntry> items) throws Exception {
+        List<ManifestEntry> present = new ArrayList<>(items.size());
+        List<Long> sizes = new ArrayList<>(items.size());
         for (ManifestEntry entry : items) {
-            try {
-                String contentId = entry.getContentId();
-                String checksum = entry.getChecksum();
-
-                File file = new File(this.contentDir, contentId);
-                if (!file.exists()) {
-                    String message =
-                        MessageFormat.format("content ({0}) not found in " +
-                                             "path ({1}) for restore ({2})",
-                                             contentId,
-                                             file.getAbsolutePath(),
-                                             restorationId);
-                    log.error(message);
-                    addError(message);
-                } else {
-                    ChecksumUtil checksumUtil = new ChecksumUtil(Algorithm.MD5);
-
-                    String fileChecksum = checksumUtil.generateChecksum(file);
-                    if (!checksum.equals(fileChecksum)) {
-                        String message =
-                            MessageFormat.format("content id ({0}) manifest " +
-                                                 "checksum ({1})  does not match " +
-                                                 "file ({2}) checksum ({3})",
-                                                 contentId,
-                                                 checksum,
-                                                 file.getAbsolutePath(),
-                                                 fileChecksum);
-                        log.error(message);
-                        addError(message);
-                    } else {
-                        log.debug("successfully verified entry {}", entry);
-                    }
-                }
+            File file = new File(this.contentDir, entry.getContentId());
+            if (!file.exists()) {
+                String message =
+                    MessageFormat.format("content ({0}) not found in " +
+                                         "path ({1}) for restore ({2})",
+                                         entry.getContentId(),
+                                         file.getAbsolutePath(),
+                                         restorationId);
+                log.error(message);
+                addError(message);
+            } else {
+                present.add(entry);
+                sizes.add(file.length());
+            }
+        }
+
+        // largest first, so the pool finishes the chunk together
+        List<Integer> order = new ArrayList<>(present.size());
+        for (int i = 0; i < present.size(); i++) {
+            order.add(i);
+        }
+        order.sort((a, b) -> Long.compare(sizes.get(b), sizes.get(a)));
 
-            } catch (Exception ex) {
-                String message = "failed to verify " + entry + ": " + ex.getMessage();
-                log.error(message, ex);
+        List<Future<?>> futures = new ArrayList<>(order.size());
+        for (int i : order) {
+            ManifestEntry entry = present.get(i);
+            long size = sizes.get(i);
+            futures.add(executor.submit(() -> verify(entry, size)));
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        reportThroughput(present.size(), sizes);
+    }
+
+    private void verify(ManifestEntry entry, long size) {
+        try {
+            String contentId = entry.getContentId();
+            String checksum = entry.getChecksum();
+            File file = new File(this.contentDir, contentId);
+
+            String fileChecksum = FileDigester.md5(file);
+            if (!checksum.equals(fileChecksum)) {
+                String message =
+                    MessageFormat.format("content id ({0}) manifest " +
+                                         "checksum ({1})  does not match " +
+                                         "file ({2}) checksum ({3})",
+                                         contentId,
+                                         checksum,
+                                         file.getAbsolutePath(),
+                                         fileChecksum);
+                log.error(message);
                 addError(message);
+            } else {
+                log.debug("successfully verified entry {}", entry);
             }
+        } catch (Exception ex) {
+            String message = "failed to verify " + entry + ": " + ex.getMessage();
+            log.error(message, ex);
+            addError(message);
+        }
+    }
+
+    private void reportThroughput(int files, List<Long> sizes) {
+        long bytes = 0;
+        for (long size : sizes) {
+            bytes += size;
+        }
+
+        long totalBytes = bytesVerified.addAndGet(bytes);
+        long totalFiles = filesVerified.addAndGet(files);
+        double seconds = Math.max(1, System.currentTimeMillis() - startTime) / 1000d;
+
+        synchronized (getStepExecution()) {
+            addToLong(BYTES_VERIFIED_KEY, bytes);
+            addToLong(FILES_VERIFIED_KEY, files);
+            getExecutionContext().putDouble(MB_PER_SECOND_KEY, totalBytes / (1024d * 1024d) / seconds);
+            getExecutionContext().putDouble(FILES_PER_SECOND_KEY, totalFiles / seconds);
         }
     }
 
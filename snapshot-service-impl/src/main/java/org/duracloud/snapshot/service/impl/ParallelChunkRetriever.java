@@ -0,0 +1,388 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.duracloud.chunk.manifest.ChunksManifest;
+import org.duracloud.chunk.manifest.ChunksManifestBean.ManifestEntry;
+import org.duracloud.chunk.manifest.xml.ManifestDocumentBinding;
+import org.duracloud.client.ContentStore;
+import org.duracloud.common.model.ContentItem;
+import org.duracloud.common.retry.Retriable;
+import org.duracloud.common.retry.Retrier;
+import org.duracloud.common.util.ChecksumUtil;
+import org.duracloud.domain.Content;
+import org.duracloud.retrieval.source.RetrievalSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Retrieves chunked content by fetching its chunks concurrently and writing
+ * each one at its offset in a preallocated local file, rather than streaming
+ * the stitched content over a single connection. Each chunk is verified
+ * against the chunk manifest as it is written. The MD5 and SHA-256 of the
+ * whole file are computed by reading each chunk back in order as soon as it
+ * has been written (while it is still in the page cache), so digesting
+ * overlaps the transfer rather than following it as a second pass.
+ *
+ * The chunks of all items are fetched on a single shared executor; each
+ * item keeps no more than its share of chunks in flight.
+ *
+ * @author Daniel Bernstein
+ */
+public class ParallelChunkRetriever {
+
+    private static final Logger log = LoggerFactory.getLogger(ParallelChunkRetriever.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Records the progress of a chunked transfer so an interrupted transfer
+     * can be resumed without transferring the chunks which were already
+     * written.
+     */
+    public interface ChunkProgress {
+        /**
+         * @param contentId the id of the stitched content
+         * @return the MD5s of the chunks already transferred, keyed by chunk
+         * index
+         */
+        Map<Integer, String> getCompletedChunks(String contentId);
+
+        /**
+         * @param contentId the id of the stitched content
+         * @param index     the index of the chunk which has been transferred
+         * @param checksum  the MD5 of the chunk
+         */
+        void chunkCompleted(String contentId, int index, String checksum);
+
+        /**
+         * Clears the progress of the content, ie because its transfer has
+         * been completed or abandoned.
+         *
+         * @param contentId the id of the stitched content
+         */
+        void clear(String contentId);
+    }
+
+    /**
+     * The outcome of a successful retrieval.
+     */
+    public static class Result {
+        private Map<String, String> properties;
+        private String md5Checksum;
+        private String sha256Checksum;
+
+        public Result(Map<String, String> properties, String md5Checksum, String sha256Checksum) {
+            this.properties = properties;
+            this.md5Checksum = md5Checksum;
+            this.sha256Checksum = sha256Checksum;
+        }
+
+        public Map<String, String> getProperties() {
+            return properties;
+        }
+
+        public String getMd5Checksum() {
+            return md5Checksum;
+        }
+
+        public String getSha256Checksum() {
+            return sha256Checksum;
+        }
+    }
+
+    private ContentStore contentStore;
+    private int threadsPerItem;
+    private ExecutorService executor;
+
+    /**
+     * @param contentStore   the store holding the chunks
+     * @param threadsPerItem the maximum number of chunks of a single item
+     *                       fetched concurrently
+     */
+    public ParallelChunkRetriever(ContentStore contentStore, int threadsPerItem) {
+        this.contentStore = contentStore;
+        this.threadsPerItem = threadsPerItem;
+        // bounded by the number of items retrieved concurrently, each of
+        // which has at most threadsPerItem chunks in flight.
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "chunk-retriever-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param contentItem
+     * @return true if the content item is a chunk manifest
+     */
+    public boolean isChunked(ContentItem contentItem) {
+        return contentItem.getContentId().endsWith(ChunksManifest.manifestSuffix);
+    }
+
+    private ChunksManifest retrieveManifest(final ContentItem manifestItem) throws IOException {
+        return retry(() -> {
+            Content content = contentStore.getContent(manifestItem.getSpaceId(), manifestItem.getContentId());
+            try (InputStream stream = content.getStream()) {
+                return ManifestDocumentBinding.createManifestFrom(stream);
+            }
+        });
+    }
+
+    /**
+     * Retrieves the content described by the chunk manifest to the local file.
+     *
+     * @param manifestItem    the chunk manifest content item
+     * @param retrievalSource the source of the stitched content properties
+     * @param localFile       the file to which the content is written
+     * @param progress        records the chunks which have been written
+     * @return the properties and checksums of the retrieved content
+     * @throws IOException if the content could not be retrieved or did not
+     *                     match its checksum
+     */
+    public Result retrieve(final ContentItem manifestItem,
+                           RetrievalSource retrievalSource,
+                           File localFile,
+                           ChunkProgress progress) throws IOException {
+        final String spaceId = manifestItem.getSpaceId();
+        final ChunksManifest manifest = retrieveManifest(manifestItem);
+
+        final String contentId = manifest.getHeader().getSourceContentId();
+        final long size = manifest.getHeader().getSourceByteSize();
+        List<ManifestEntry> chunks = new ArrayList<>(manifest.getEntries());
+        chunks.sort(Comparator.comparingInt(ManifestEntry::getIndex));
+
+        Map<Integer, String> completed = progress.getCompletedChunks(contentId);
+        if (!completed.isEmpty() && (!localFile.exists() || localFile.length() != size)) {
+            log.info("Local file {} does not match the recorded progress of {}: starting over.",
+                     localFile.getAbsolutePath(), contentId);
+            progress.clear(contentId);
+            completed = new HashMap<>();
+        }
+
+        localFile.getParentFile().mkdirs();
+        try (RandomAccessFile file = new RandomAccessFile(localFile, "rw")) {
+            file.setLength(size);
+        }
+
+        log.info("Retrieving {} chunks of {} ({} bytes) with {} chunk(s) already retrieved",
+                 chunks.size(), contentId, size, completed.size());
+
+        long total = 0;
+        for (ManifestEntry chunk : chunks) {
+            total += chunk.getByteSize();
+        }
+        if (total != size) {
+            throw new IOException("The chunks of " + contentId + " total " + total +
+                                  " bytes but the manifest gives a size of " + size);
+        }
+
+        MessageDigest md5 = createDigest("MD5");
+        MessageDigest sha256 = createDigest("SHA-256");
+        int window = Math.max(1, threadsPerItem);
+        LinkedList<Future<?>> transfers = new LinkedList<>();
+        try (FileChannel channel = FileChannel.open(localFile.toPath(),
+                                                    StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE)) {
+            try {
+                long submitOffset = 0;
+                long digestOffset = 0;
+                int submitted = 0;
+                for (final ManifestEntry chunk : chunks) {
+                    // keep up to window chunks in flight, digesting the
+                    // earliest chunk once it has been written.
+                    while (submitted < chunks.size() && transfers.size() < window) {
+                        transfers.add(submitChunk(spaceId, contentId, chunks.get(submitted),
+                                                  completed, progress, channel, submitOffset));
+                        submitOffset += chunks.get(submitted).getByteSize();
+                        submitted++;
+                    }
+
+                    transfers.removeFirst().get();
+                    digest(channel, digestOffset, chunk.getByteSize(), md5, sha256);
+                    digestOffset += chunk.getByteSize();
+                }
+                channel.force(false);
+            } finally {
+                // stop the chunks still in flight (if any chunk failed)
+                // before the channel they write to is closed.
+                for (Future<?> transfer : transfers) {
+                    transfer.cancel(true);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while retrieving chunks of " + contentId, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+
+        String md5Checksum = ChecksumUtil.checksumBytesToString(md5.digest());
+        String sourceMd5 = manifest.getHeader().getSourceMD5();
+        if (!md5Checksum.equals(sourceMd5)) {
+            progress.clear(contentId);
+            localFile.delete();
+            throw new IOException("Calculated checksum value (" + md5Checksum + ") for retrieved file " +
+                                  localFile.getAbsolutePath() + " does not match manifest checksum (" +
+                                  sourceMd5 + ").");
+        }
+
+        Map<String, String> sourceProperties = retry(() -> retrievalSource.getSourceProperties(manifestItem));
+        // describe the stitched content rather than the chunk manifest.
+        Map<String, String> properties = new HashMap<>(sourceProperties);
+        properties.put(ContentStore.CONTENT_CHECKSUM, md5Checksum);
+        progress.clear(contentId);
+        return new Result(properties, md5Checksum, ChecksumUtil.checksumBytesToString(sha256.digest()));
+    }
+
+    /**
+     * Stops the threads which fetch chunks. To be called once no more
+     * content is to be retrieved: retrievals in progress fail.
+     */
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private Future<?> submitChunk(final String spaceId,
+                                  final String contentId,
+                                  final ManifestEntry chunk,
+                                  Map<Integer, String> completed,
+                                  final ChunkProgress progress,
+                                  final FileChannel channel,
+                                  final long position) {
+        final String recordedChecksum = completed.get(chunk.getIndex());
+        return executor.submit(() -> {
+            if (isChunkInPlace(chunk, recordedChecksum, channel, position)) {
+                return null;
+            }
+
+            String checksum = retry(() -> writeChunk(spaceId, chunk, channel, position));
+            progress.chunkCompleted(contentId, chunk.getIndex(), checksum);
+            return null;
+        });
+    }
+
+    private void digest(FileChannel channel, long position, long length, MessageDigest... digests)
+        throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long remaining = length;
+        long readPosition = position;
+        while (remaining > 0) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), remaining));
+            int read = channel.read(buffer, readPosition);
+            if (read == -1) {
+                throw new IOException("Unexpected end of file with " + remaining + " bytes of the chunk unread");
+            }
+            for (MessageDigest digest : digests) {
+                digest.update(buffer.array(), 0, read);
+            }
+            readPosition += read;
+            remaining -= read;
+        }
+    }
+
+    /**
+     * A chunk recorded as completed by a previous attempt is only skipped if
+     * the bytes at its position still match the checksum recorded for it.
+     * Reading the local range is far cheaper than fetching the chunk again.
+     */
+    private boolean isChunkInPlace(ManifestEntry chunk, String recordedChecksum, FileChannel channel, long position)
+        throws IOException {
+        if (recordedChecksum == null || !recordedChecksum.equals(chunk.getChunkMD5())) {
+            return false;
+        }
+
+        if (channel.size() < position + chunk.getByteSize()) {
+            return false;
+        }
+
+        MessageDigest md5 = createDigest("MD5");
+        digest(channel, position, chunk.getByteSize(), md5);
+        boolean inPlace = ChecksumUtil.checksumBytesToString(md5.digest()).equals(recordedChecksum);
+        if (!inPlace) {
+            log.info("Chunk {} no longer matches its recorded checksum: retrieving it again.",
+                     chunk.getChunkId());
+        }
+        return inPlace;
+    }
+
+    /**
+     * Writes the chunk at its position in the file.
+     *
+     * @return the MD5 of the chunk
+     */
+    private String writeChunk(String spaceId, ManifestEntry chunk, FileChannel channel, long position)
+        throws Exception {
+        MessageDigest md5 = createDigest("MD5");
+        Content content = contentStore.getContent(spaceId, chunk.getChunkId());
+        long written = 0;
+        try (InputStream stream = content.getStream()) {
+            byte[] bytes = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = stream.read(bytes)) != -1) {
+                md5.update(bytes, 0, read);
+                ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, read);
+                while (buffer.hasRemaining()) {
+                    written += channel.write(buffer, position + written);
+                }
+            }
+        }
+
+        String checksum = ChecksumUtil.checksumBytesToString(md5.digest());
+        if (written != chunk.getByteSize() || !checksum.equals(chunk.getChunkMD5())) {
+            throw new IOException("Chunk " + chunk.getChunkId() + " (" + written + " bytes, checksum " +
+                                  checksum + ") does not match its manifest entry (" + chunk.getByteSize() +
+                                  " bytes, checksum " + chunk.getChunkMD5() + ")");
+        }
+
+        log.debug("Wrote chunk {} at offset {}", chunk.getChunkId(), position);
+        return checksum;
+    }
+
+    private <T> T retry(Retriable retriable) throws IOException {
+        try {
+            return new Retrier(5, 4000, 3).execute(retriable);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private MessageDigest createDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
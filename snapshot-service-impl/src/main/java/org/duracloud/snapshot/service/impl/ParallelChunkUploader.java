@@ -0,0 +1,343 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.duracloud.chunk.manifest.ChunksManifest;
+import org.duracloud.chunk.manifest.xml.ManifestDocumentBinding;
+import org.duracloud.client.ContentStore;
+import org.duracloud.common.retry.Retriable;
+import org.duracloud.common.retry.Retrier;
+import org.duracloud.common.util.ChecksumUtil;
+import org.duracloud.common.util.MimetypeUtil;
+import org.duracloud.error.NotFoundException;
+import org.duracloud.snapshot.service.impl.ParallelChunkRetriever.ChunkProgress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Uploads a large file as chunks which are sent concurrently, rather than
+ * streaming the chunks one after the other over a single connection. The MD5
+ * of each chunk is computed as the chunk is read for upload and checked
+ * against the checksum computed by DuraCloud. The chunk manifest is only
+ * written once every chunk has been uploaded, so the stitched content does
+ * not appear in the space until it is complete.
+ *
+ * Each chunk is retried on its own with backoff, and the chunks which have
+ * been uploaded are recorded so that an upload interrupted by a failure or a
+ * restart of the bridge resumes with the chunks which are still missing, and
+ * a file which was completely uploaded is not uploaded again.
+ *
+ * @author Daniel Bernstein
+ */
+public class ParallelChunkUploader {
+
+    private static final Logger log = LoggerFactory.getLogger(ParallelChunkUploader.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String MANIFEST_MIMETYPE = "application/xml";
+
+    private ContentStore contentStore;
+    private long chunkSize;
+    private int threadsPerItem;
+
+    /**
+     * @param contentStore   the store to which chunks are uploaded
+     * @param chunkSize      the size of each chunk; files no larger than a
+     *                       single chunk are not chunked
+     * @param threadsPerItem the maximum number of chunks of a single file
+     *                       uploaded concurrently
+     */
+    public ParallelChunkUploader(ContentStore contentStore, long chunkSize, int threadsPerItem) {
+        this.contentStore = contentStore;
+        this.chunkSize = chunkSize;
+        this.threadsPerItem = threadsPerItem;
+    }
+
+    /**
+     * @param file
+     * @return true if the file is uploaded in chunks
+     */
+    public boolean isChunked(File file) {
+        return file.length() > chunkSize;
+    }
+
+    /**
+     * Uploads the file as chunks followed by its chunk manifest. The manifest
+     * records the MD5 of the whole file: when it is not already known it is
+     * computed on a thread of its own while the chunks are uploaded, which
+     * reads the file a second time.
+     *
+     * @param spaceId    the space to which the file is uploaded
+     * @param contentId  the id of the stitched content
+     * @param file       the file to upload
+     * @param progress   records the chunks which have been uploaded
+     * @param properties the properties of the stitched content, which are set
+     *                   on the chunk manifest beneath its own mimetype,
+     *                   checksum and size, or null
+     * @param knownMd5   the verified MD5 of the file, or null if it is not
+     *                   known
+     * @throws IOException if any chunk or the manifest could not be uploaded
+     */
+    public void upload(String spaceId,
+                       String contentId,
+                       File file,
+                       ChunkProgress progress,
+                       Map<String, String> properties,
+                       String knownMd5) throws IOException {
+        final long size = file.length();
+        int chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+        String mimetype = properties == null ? null : properties.get(ContentStore.CONTENT_MIMETYPE);
+        ChunksManifest manifest =
+            new ChunksManifest(contentId, mimetype != null ? mimetype : new MimetypeUtil().getMimeType(file), size);
+
+        Map<Integer, String> completed = progress.getCompletedChunks(contentId);
+        if (completed.size() == chunkCount && getProperties(spaceId, manifest.getManifestId()) != null) {
+            // the manifest is only written once all of the chunks are in place
+            log.info("{} has already been uploaded", contentId);
+            return;
+        }
+        log.info("Uploading {} ({} bytes) as {} chunks with {} chunk(s) already uploaded",
+                 contentId, size, chunkCount, completed.size());
+
+        int threads = Math.max(1, Math.min(threadsPerItem, chunkCount));
+        ExecutorService executor = Executors.newFixedThreadPool(knownMd5 == null ? threads + 1 : threads);
+        String sourceMd5 = knownMd5;
+        List<String> chunkIds = new ArrayList<>(chunkCount);
+        List<String> chunkMd5s = new ArrayList<>(chunkCount);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Future<String> sourceDigest = knownMd5 == null ? executor.submit(() -> digest(channel, 0, size)) : null;
+
+            List<Future<String>> transfers = new ArrayList<>(chunkCount);
+            for (int i = 0; i < chunkCount; i++) {
+                final int index = i;
+                final String chunkId = manifest.nextChunkId();
+                final long position = i * chunkSize;
+                final long length = Math.min(chunkSize, size - position);
+                final String recordedChecksum = completed.get(i);
+                chunkIds.add(chunkId);
+                transfers.add(executor.submit(() -> {
+                    if (isChunkUploaded(spaceId, chunkId, recordedChecksum)) {
+                        return recordedChecksum;
+                    }
+
+                    String checksum = retry(() -> uploadChunk(spaceId, chunkId, channel, position, length));
+                    progress.chunkCompleted(contentId, index, checksum);
+                    return checksum;
+                }));
+            }
+
+            for (Future<String> transfer : transfers) {
+                chunkMd5s.add(transfer.get());
+            }
+            if (sourceDigest != null) {
+                sourceMd5 = sourceDigest.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while uploading chunks of " + contentId, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (int i = 0; i < chunkCount; i++) {
+            manifest.addEntry(chunkIds.get(i), chunkMd5s.get(i), Math.min(chunkSize, size - i * chunkSize));
+        }
+        manifest.setMD5OfSourceContent(sourceMd5);
+
+        final byte[] manifestBytes =
+            ManifestDocumentBinding.createDocumentFrom(manifest).getBytes(StandardCharsets.UTF_8);
+        final String manifestMd5 = new ChecksumUtil(ChecksumUtil.Algorithm.MD5)
+            .generateChecksum(new ByteArrayInputStream(manifestBytes));
+        final Map<String, String> manifestProperties =
+            getManifestProperties(properties, manifestMd5, manifestBytes.length);
+        retry(() -> contentStore.addContent(spaceId,
+                                            manifest.getManifestId(),
+                                            new ByteArrayInputStream(manifestBytes),
+                                            manifestBytes.length,
+                                            MANIFEST_MIMETYPE,
+                                            manifestMd5,
+                                            manifestProperties));
+
+        log.info("Uploaded {} chunks of {} ({} bytes): checksum={}", chunkCount, contentId, size, sourceMd5);
+    }
+
+    /**
+     * Lays the chunk manifest's own properties on top of the properties of
+     * the stitched content (as ContentPropertiesWriter does) so that the
+     * mimetype, checksum and size of the manifest are not those of the
+     * stitched content.
+     *
+     * @return the properties of the chunk manifest, or null if the stitched
+     * content has no properties
+     */
+    private Map<String, String> getManifestProperties(Map<String, String> properties,
+                                                      String manifestMd5,
+                                                      long manifestSize) {
+        if (properties == null) {
+            return null;
+        }
+
+        Map<String, String> manifestProperties = new HashMap<>(properties);
+        manifestProperties.put(ContentStore.CONTENT_MIMETYPE, MANIFEST_MIMETYPE);
+        manifestProperties.put(ContentStore.CONTENT_CHECKSUM, manifestMd5);
+        manifestProperties.put(ContentStore.CONTENT_SIZE, String.valueOf(manifestSize));
+        return manifestProperties;
+    }
+
+    /**
+     * A chunk recorded as uploaded by a previous attempt is only skipped if
+     * DuraCloud still holds it with the recorded checksum.
+     */
+    private boolean isChunkUploaded(String spaceId, String chunkId, String recordedChecksum) throws IOException {
+        if (recordedChecksum == null) {
+            return false;
+        }
+
+        Map<String, String> properties = getProperties(spaceId, chunkId);
+        boolean uploaded = properties != null &&
+                           recordedChecksum.equals(properties.get(ContentStore.CONTENT_CHECKSUM));
+        if (!uploaded) {
+            log.info("Chunk {} no longer matches its recorded checksum: uploading it again.", chunkId);
+        }
+        return uploaded;
+    }
+
+    /**
+     * @return the properties of the content or null if there is no such
+     * content
+     */
+    private Map<String, String> getProperties(String spaceId, String contentId) throws IOException {
+        return retry(() -> {
+            try {
+                return contentStore.getContentProperties(spaceId, contentId);
+            } catch (NotFoundException e) {
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Uploads the range of the file as a chunk.
+     *
+     * @return the MD5 of the chunk
+     */
+    private String uploadChunk(String spaceId, String chunkId, FileChannel channel, long position, long length)
+        throws Exception {
+        MessageDigest md5 = createDigest();
+        String checksum;
+        try (InputStream stream = new DigestInputStream(new RangeInputStream(channel, position, length), md5)) {
+            checksum = contentStore.addContent(spaceId,
+                                               chunkId,
+                                               stream,
+                                               length,
+                                               "application/octet-stream",
+                                               null,
+                                               null);
+        }
+
+        String chunkMd5 = ChecksumUtil.checksumBytesToString(md5.digest());
+        if (!chunkMd5.equals(checksum)) {
+            throw new IOException("Checksum of uploaded chunk " + chunkId + " (" + checksum +
+                                  ") does not match the checksum of the chunk (" + chunkMd5 + ")");
+        }
+
+        log.debug("Uploaded chunk {} from offset {}", chunkId, position);
+        return chunkMd5;
+    }
+
+    private String digest(FileChannel channel, long position, long length) throws IOException {
+        MessageDigest md5 = createDigest();
+        try (InputStream stream = new RangeInputStream(channel, position, length)) {
+            byte[] bytes = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = stream.read(bytes)) != -1) {
+                md5.update(bytes, 0, read);
+            }
+        }
+        return ChecksumUtil.checksumBytesToString(md5.digest());
+    }
+
+    /**
+     * Reads a range of a file channel with positional reads, so that any
+     * number of ranges of the same channel may be read concurrently.
+     */
+    private static class RangeInputStream extends InputStream {
+        private FileChannel channel;
+        private long position;
+        private long remaining;
+
+        RangeInputStream(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, remaining));
+            int read = channel.read(buffer, position);
+            if (read == -1) {
+                throw new IOException("Unexpected end of file with " + remaining + " bytes of the range unread");
+            }
+            position += read;
+            remaining -= read;
+            return read;
+        }
+    }
+
+    private <T> T retry(Retriable retriable) throws IOException {
+        try {
+            return new Retrier(5, 4000, 3).execute(retriable);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads items from a source on a dedicated producer thread into a bounded
+ * queue so that consumers are not held up by slow (ie remote) reads. Any
+ * number of threads may consume from the prefetcher. Once the source is
+ * exhausted every call to next() returns null; if the source fails, the
+ * failure is rethrown to every subsequent caller of next().
+ *
+ * @author Daniel Bernstein
+ */
+public class Prefetcher<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(Prefetcher.class);
+
+    /**
+     * The source of the prefetched items.
+     */
+    public interface Source<T> {
+        /**
+         * @return the next item or null if there are no more items
+         * @throws Exception
+         */
+        T next() throws Exception;
+    }
+
+    private static final Object END = new Object();
+
+    private static class Failure {
+        private Exception exception;
+
+        Failure(Exception exception) {
+            this.exception = exception;
+        }
+    }
+
+    private String name;
+    private Source<T> source;
+    private BlockingQueue<Object> queue;
+    private Thread producer;
+    private volatile boolean closed = false;
+
+    /**
+     * @param name   the name of the producer thread
+     * @param source the source of items
+     * @param depth  the maximum number of items read ahead of the consumers
+     */
+    public Prefetcher(String name, Source<T> source, int depth) {
+        this.name = name;
+        this.source = source;
+        this.queue = new ArrayBlockingQueue<>(depth);
+    }
+
+    /**
+     * Starts the producer if it has not already been started.
+     */
+    public synchronized void start() {
+        if (producer != null) {
+            return;
+        }
+
+        producer = new Thread(() -> produce(), name);
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    private void produce() {
+        try {
+            T item;
+            while (!closed && (item = source.next()) != null) {
+                queue.put(item);
+            }
+            queue.put(END);
+        } catch (InterruptedException e) {
+            log.debug("{} interrupted", name);
+        } catch (Exception e) {
+            log.error(name + " failed to read next item: " + e.getMessage(), e);
+            try {
+                queue.put(new Failure(e));
+            } catch (InterruptedException ie) {
+                log.debug("{} interrupted", name);
+            }
+        }
+    }
+
+    /**
+     * Blocks until the next item is available.
+     *
+     * @return the next item or null if there are no more items
+     * @throws Exception if the source failed
+     */
+    public T next() throws Exception {
+        start();
+
+        Object next = queue.take();
+        if (next == END) {
+            // leave the marker in place for the other consumers.
+            queue.put(END);
+            return null;
+        } else if (next instanceof Failure) {
+            queue.put(next);
+            throw ((Failure) next).exception;
+        }
+
+        @SuppressWarnings("unchecked")
+        T item = (T) next;
+        return item;
+    }
+
+    /**
+     * Stops the producer. Items which have not yet been consumed are discarded.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (producer != null) {
+            producer.interrupt();
+        }
+        queue.clear();
+    }
+}
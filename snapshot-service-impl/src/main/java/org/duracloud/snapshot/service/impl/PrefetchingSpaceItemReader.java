@@ -0,0 +1,76 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import org.duracloud.common.model.ContentItem;
+import org.duracloud.retrieval.source.RetrievalSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.item.ItemReader;
+import org.springframework.batch.item.NonTransientResourceException;
+import org.springframework.batch.item.ParseException;
+import org.springframework.batch.item.UnexpectedInputException;
+
+/**
+ * A SpaceItemReader which lists the space on a dedicated thread into a
+ * bounded queue, so that the threads of the step do not wait on (or
+ * serialize behind) the remote listing calls made by the retrieval source.
+ *
+ * @author Daniel Bernstein
+ */
+public class PrefetchingSpaceItemReader implements ItemReader<ContentItem>, StepExecutionListener {
+
+    private static final Logger LOGGER =
+        LoggerFactory.getLogger(PrefetchingSpaceItemReader.class);
+
+    private Prefetcher<ContentItem> prefetcher;
+
+    /**
+     * @param retrievalSource
+     * @param depth           the maximum number of content items listed
+     *                        ahead of the step
+     */
+    public PrefetchingSpaceItemReader(RetrievalSource retrievalSource, int depth) {
+        this.prefetcher = new Prefetcher<>("space-item-prefetcher",
+                                           () -> retrievalSource.getNextContentItem(),
+                                           depth);
+    }
+
+    @Override
+    public ContentItem read()
+        throws Exception, UnexpectedInputException, ParseException, NonTransientResourceException {
+
+        try {
+            ContentItem contentItem = prefetcher.next();
+            if (contentItem != null) {
+                LOGGER.debug("contentItem: {}", contentItem.getContentId());
+            } else {
+                LOGGER.debug("contentItem is null");
+            }
+            return contentItem;
+
+        } catch (Exception ex) {
+            LOGGER.error("item read failed:  " + ex.getMessage(), ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        prefetcher.start();
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        prefetcher.close();
+        return stepExecution.getExitStatus();
+    }
+}
@@ -10,6 +10,8 @@ package org.duracloud.snapshot.service.impl;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.type.TypeReference;
 
@@ -50,4 +52,38 @@ public class PropertiesSerializer {
 
     }
 
+    /**
+     * Reads a single property from serialized properties without
+     * deserializing the rest of them: parsing stops as soon as the property
+     * is found.
+     *
+     * @param src  the serialized properties
+     * @param name the name of the property
+     * @return the value of the property or null if it is not present
+     */
+    public static String readProperty(String src, String name) {
+        if (src == null) {
+            return null;
+        }
+
+        try (JsonParser parser = mapper.getJsonFactory().createJsonParser(src)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (name.equals(field)) {
+                    return value == JsonToken.VALUE_NULL ? null : parser.getText();
+                }
+                parser.skipChildren();
+            }
+            return null;
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException(e);
+        }
+    }
+
 }
@@ -16,8 +16,8 @@ import org.duracloud.snapshot.common.SnapshotServiceConstants;
 import org.duracloud.snapshot.db.ContentDirUtils;
 import org.duracloud.snapshot.db.model.DuracloudEndPointConfig;
 import org.duracloud.snapshot.db.model.Restoration;
-import org.duracloud.snapshot.db.model.SnapshotContentItem;
 import org.duracloud.snapshot.db.repo.SnapshotContentItemRepo;
+import org.duracloud.snapshot.service.BridgeConfiguration;
 import org.duracloud.snapshot.service.RestoreManager;
 import org.duracloud.snapshot.service.SnapshotJobManagerConfig;
 import org.duracloud.sync.endpoint.DuraStoreChunkSyncEndpoint;
@@ -47,6 +47,8 @@ import org.springframework.transaction.PlatformTransactionManager;
 public class RestoreJobBuilder extends AbstractJobBuilder implements BatchJobBuilder<Restoration> {
     private static Logger log = LoggerFactory.getLogger(RestoreJobBuilder.class);
 
+    private static final long RESTORE_CHUNK_SIZE = 1000 * 1000 * 1000; // 1GB chunk size
+
     private RestoreJobExecutionListener jobListener;
     private JobRepository jobRepository;
     private PlatformTransactionManager transactionManager;
@@ -101,15 +103,17 @@ public class RestoreJobBuilder extends AbstractJobBuilder implements BatchJobBui
             SimpleJobBuilder simpleJobBuilder =
                 jobBuilder.start(buildVerifyTransferUsingManifestStep(restoreId, jobManagerConfig))
                           .next(buildVerifyTransferUsingSnapshotRepoStep(restoreId, jobManagerConfig))
-                          .next(buildRestoreContentStep(restoreId, destinationSpaceId, contentStore, jobManagerConfig))
-                          .next(buildRestoreContentPropertiesStep(restoreId,
-                                                                  destinationSpaceId,
-                                                                  contentStore,
-                                                                  jobManagerConfig))
-                          .next(buildVerifyDuraCloudTransferStep(restoreId,
-                                                                 destinationSpaceId,
-                                                                 contentStore,
-                                                                 jobManagerConfig));
+                          .next(buildRestoreContentStep(restoreId, destinationSpaceId, contentStore, jobManagerConfig));
+            if (!BridgeConfiguration.isRestorePropertiesWithContent()) {
+                simpleJobBuilder = simpleJobBuilder.next(buildRestoreContentPropertiesStep(restoreId,
+                                                                                           destinationSpaceId,
+                                                                                           contentStore,
+                                                                                           jobManagerConfig));
+            }
+            simpleJobBuilder = simpleJobBuilder.next(buildVerifyDuraCloudTransferStep(restoreId,
+                                                                                      destinationSpaceId,
+                                                                                      contentStore,
+                                                                                      jobManagerConfig));
             simpleJobBuilder.listener(jobListener);
             job = simpleJobBuilder.build();
             log.debug("build job {}", job);
@@ -130,23 +134,29 @@ public class RestoreJobBuilder extends AbstractJobBuilder implements BatchJobBui
         throws Exception {
         File restoreDir = new File(ContentDirUtils.getSourcePath(restoreId, jobManagerConfig.getContentRootDir()));
         Restoration restore = this.restoreManager.get(restoreId);
-        SnapshotRepoManifestReader reader =
-            new SnapshotRepoManifestReader(this.snapshotContentItemRepo, restore.getSnapshot().getName());
+        int partitions = BridgeConfiguration.getRestoreRepoVerifyPartitions();
+        SnapshotRepoChecksumReader reader =
+            new SnapshotRepoChecksumReader(this.snapshotContentItemRepo,
+                                           restore.getSnapshot().getName(),
+                                           partitions,
+                                           BridgeConfiguration.getRestoreRepoVerifyPageSize());
 
+        File md5Manifest = getRestoreMd5Manifest(restoreDir);
         SnapshotContentItemVerifier writer =
             new SnapshotContentItemVerifier(restoreId,
-                                            getRestoreMd5Manifest(restoreDir),
+                                            md5Manifest,
+                                            ManifestIndex.getIndexFile(jobManagerConfig.getWorkDir(), md5Manifest),
                                             restore.getSnapshot().getName(),
                                             restoreManager);
-        SimpleStepFactoryBean<SnapshotContentItem, SnapshotContentItem> stepFactory = new SimpleStepFactoryBean<>();
+        SimpleStepFactoryBean<ManifestEntry, ManifestEntry> stepFactory = new SimpleStepFactoryBean<>();
 
         stepFactory.setJobRepository(jobRepository);
         stepFactory.setTransactionManager(transactionManager);
         stepFactory.setBeanName("verifyTransferUsingSnapshotRepo");
         stepFactory.setItemReader(reader);
         stepFactory.setItemWriter(writer);
-        stepFactory.setCommitInterval(50);
-        stepFactory.setThrottleLimit(1);
+        stepFactory.setCommitInterval(BridgeConfiguration.getRestoreVerifyCommitInterval());
+        stepFactory.setThrottleLimit(partitions);
         stepFactory.setTaskExecutor(taskExecutor);
         stepFactory.setListeners(new StepListener[] {writer});
         return stepFactory.getObject();
@@ -171,8 +181,12 @@ public class RestoreJobBuilder extends AbstractJobBuilder implements BatchJobBui
         SnapshotManifestReader reader = new SnapshotManifestReader(md5Manifest);
         SpaceManifestSnapshotManifestVerifier spaceManifestVerifier =
             new SpaceManifestSnapshotManifestVerifier(md5Manifest,
+                                                      ManifestIndex.getIndexFile(jobManagerConfig.getWorkDir(),
+                                                                                 md5Manifest),
                                                       new StitchedManifestGenerator(contentStore),
                                                       destinationSpaceId);
+        spaceManifestVerifier.setSortedMerge(BridgeConfiguration.isManifestVerificationSortedMerge());
+        spaceManifestVerifier.setContentStore(contentStore);
         SpaceVerifier writer = new SpaceVerifier(restoreId,
                                                  spaceManifestVerifier,
                                                  destinationSpaceId,
@@ -209,15 +223,18 @@ public class RestoreJobBuilder extends AbstractJobBuilder implements BatchJobBui
         File contentDir = getRestoreContentDir(restoreDir);
 
         ManifestVerifier writer = new ManifestVerifier(restoreId, contentDir, restoreManager);
+        writer.setThreads(BridgeConfiguration.getRestoreVerifyThreads());
 
+        // The verifier hashes each chunk on its own pool, so only a couple of
+        // chunks are needed in flight to keep that pool busy.
         SimpleStepFactoryBean<ManifestEntry, ManifestEntry> stepFactory = new SimpleStepFactoryBean<>();
         stepFactory.setJobRepository(jobRepository);
         stepFactory.setTransactionManager(transactionManager);
         stepFactory.setBeanName("verifyTransferUsingManifest");
         stepFactory.setItemReader(reader);
         stepFactory.setItemWriter(writer);
-        stepFactory.setCommitInterval(1);
-        stepFactory.setThrottleLimit(20);
+        stepFactory.setCommitInterval(BridgeConfiguration.getRestoreVerifyCommitInterval());
+        stepFactory.setThrottleLimit(2);
         stepFactory.setTaskExecutor(taskExecutor);
         stepFactory.setListeners(new StepListener[] {writer, reader});
         return stepFactory.getObject();
@@ -265,11 +282,12 @@ public class RestoreJobBuilder extends AbstractJobBuilder implements BatchJobBui
         return restoreDir;
     }
 
-    private Step buildRestoreContentPropertiesStep(String restorationId,
-                                                   String destinationSpaceId,
-                                                   ContentStore contentStore,
-                                                   SnapshotJobManagerConfig jobManagerConfig) throws Exception {
-
+    /**
+     * @param restorationId
+     * @param jobManagerConfig
+     * @return the content properties file of the restore
+     */
+    private File getRestoreContentPropertiesFile(String restorationId, SnapshotJobManagerConfig jobManagerConfig) {
         File contentPropertiesJsonFile =
             new File(ContentDirUtils.getSourcePath(restorationId, jobManagerConfig.getContentRootDir()),
                      SnapshotServiceConstants.CONTENT_PROPERTIES_JSON_FILENAME);
@@ -278,8 +296,20 @@ public class RestoreJobBuilder extends AbstractJobBuilder implements BatchJobBui
             throw new RuntimeException("The restored content properties file is missing : "
                                        + contentPropertiesJsonFile.getAbsolutePath());
         }
+        return contentPropertiesJsonFile;
+    }
 
-        ContentPropertiesFileReader reader = new ContentPropertiesFileReader(contentPropertiesJsonFile);
+    private Step buildRestoreContentPropertiesStep(String restorationId,
+                                                   String destinationSpaceId,
+                                                   ContentStore contentStore,
+                                                   SnapshotJobManagerConfig jobManagerConfig) throws Exception {
+
+        File contentPropertiesJsonFile = getRestoreContentPropertiesFile(restorationId, jobManagerConfig);
+
+        ContentPropertiesFileReader reader =
+            new ContentPropertiesFileReader(contentPropertiesJsonFile,
+                                            ContentPropertiesIndex.getIndexFile(jobManagerConfig.getWorkDir(),
+                                                                                contentPropertiesJsonFile));
 
         ContentPropertiesWriter writer = new ContentPropertiesWriter(contentStore, destinationSpaceId);
 
@@ -307,7 +337,7 @@ public class RestoreJobBuilder extends AbstractJobBuilder implements BatchJobBui
                                            destinationSpaceId,
                                            false,
                                            true,
-                                           1000 * 1000 * 1000); // 1GB chunk size
+                                           RESTORE_CHUNK_SIZE);
         endpoint.addEndPointListener(new EndPointLogger());
 
         File watchDir =
@@ -320,7 +350,8 @@ public class RestoreJobBuilder extends AbstractJobBuilder implements BatchJobBui
                                        watchDir.getAbsolutePath());
         }
 
-        FileSystemReader reader = new FileSystemReader(watchDir);
+        FileSystemReader reader =
+            new FileSystemReader(watchDir, FileSystemReader.getIndexFile(jobManagerConfig.getWorkDir(), watchDir));
 
         SyncWriter writer =
             new SyncWriter(restorationId,
@@ -329,6 +360,27 @@ public class RestoreJobBuilder extends AbstractJobBuilder implements BatchJobBui
                            contentStore,
                            destinationSpaceId,
                            restoreManager);
+        // chunked files are uploaded by the chunk uploader, which retries each
+        // chunk and records the chunks uploaded so that a restarted restore
+        // resumes where it left off. Unless parallel upload is enabled, the
+        // chunks of a file are uploaded one at a time.
+        int threadsPerChunkedFile =
+            BridgeConfiguration.isRestoreParallelUpload() ?
+            BridgeConfiguration.getRestoreThreadsPerChunkedFile() : 1;
+        writer.setChunkUploader(new ParallelChunkUploader(contentStore, RESTORE_CHUNK_SIZE, threadsPerChunkedFile),
+                                new File(jobManagerConfig.getWorkDir(), restorationId + "-chunks.db"));
+        // the restored files have been verified against the md5 manifest,
+        // so the checksums of chunked files are taken from it rather than
+        // computed by an extra read of each file
+        File md5Manifest = getRestoreMd5Manifest(getRestoreDir(restorationId, jobManagerConfig));
+        writer.setMd5Manifest(md5Manifest, ManifestIndex.getIndexFile(jobManagerConfig.getWorkDir(), md5Manifest));
+        if (BridgeConfiguration.isRestorePropertiesWithContent()) {
+            // the properties are uploaded with the content in place of the restoreContentProperties step
+            File contentPropertiesFile = getRestoreContentPropertiesFile(restorationId, jobManagerConfig);
+            writer.setContentProperties(contentPropertiesFile,
+                                        ContentPropertiesIndex.getIndexFile(jobManagerConfig.getWorkDir(),
+                                                                            contentPropertiesFile));
+        }
 
         SimpleStepFactoryBean<File, File> stepFactory = new SimpleStepFactoryBean<>();
         stepFactory.setJobRepository(jobRepository);
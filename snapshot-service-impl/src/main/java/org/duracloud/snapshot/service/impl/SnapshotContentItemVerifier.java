@@ -10,14 +10,11 @@ package org.duracloud.snapshot.service.impl;
 import java.io.File;
 import java.text.MessageFormat;
 import java.util.List;
-import java.util.Map;
 
-import org.duracloud.client.ContentStore;
-import org.duracloud.common.collection.WriteOnlyStringSet;
+import org.apache.commons.io.IOUtils;
 import org.duracloud.common.constant.Constants;
 import org.duracloud.common.retry.Retriable;
 import org.duracloud.common.retry.Retrier;
-import org.duracloud.snapshot.db.model.SnapshotContentItem;
 import org.duracloud.snapshot.dto.RestoreStatus;
 import org.duracloud.snapshot.service.RestoreManager;
 import org.slf4j.Logger;
@@ -28,31 +25,41 @@ import org.springframework.batch.core.StepExecution;
 import org.springframework.batch.item.ItemWriter;
 
 /**
+ * Verifies that each content item of a snapshot (as a content id and
+ * checksum read from the snapshot repository) is listed in the manifest.
+ * The verifier is thread safe.
+ *
  * @author Daniel Bernstein Date: Jul 29, 2015
  */
 public class SnapshotContentItemVerifier extends StepExecutionSupport
-    implements ItemWriter<SnapshotContentItem>, ItemWriteListener<SnapshotContentItem> {
+    implements ItemWriter<ManifestEntry>, ItemWriteListener<ManifestEntry> {
 
     /**
      *
      */
     private Logger log = LoggerFactory.getLogger(SpaceVerifier.class);
     private File manifestFile;
+    private File manifestIndexFile;
     private String restoreId;
     private String snapshotName;
     private RestoreManager restoreManager;
-    private WriteOnlyStringSet manifestSet;
+    private ManifestIndex manifestSet;
 
     /**
      * @param restoreId
      * @param manifestFile
+     * @param manifestIndexFile the file in which the index of the manifest is kept
      * @param snapshotName
      * @param restoreManager
      */
-    public SnapshotContentItemVerifier(
-        String restoreId, File manifestFile, String snapshotName, RestoreManager restoreManager) {
+    public SnapshotContentItemVerifier(String restoreId,
+                                       File manifestFile,
+                                       File manifestIndexFile,
+                                       String snapshotName,
+                                       RestoreManager restoreManager) {
         this.restoreId = restoreId;
         this.manifestFile = manifestFile;
+        this.manifestIndexFile = manifestIndexFile;
         this.snapshotName = snapshotName;
         this.restoreManager = restoreManager;
     }
@@ -65,7 +72,7 @@ public class SnapshotContentItemVerifier extends StepExecutionSupport
      * List)
      */
     @Override
-    public void beforeWrite(List<? extends SnapshotContentItem> items) {
+    public void beforeWrite(List<? extends ManifestEntry> items) {
 
     }
 
@@ -77,10 +84,10 @@ public class SnapshotContentItemVerifier extends StepExecutionSupport
      * List)
      */
     @Override
-    public void afterWrite(List<? extends SnapshotContentItem> items) {
+    public void afterWrite(List<? extends ManifestEntry> items) {
         //be sure not to count snapshot prop file.
         int size = items.size();
-        for (SnapshotContentItem item : items) {
+        for (ManifestEntry item : items) {
             if (item.getContentId().equals(Constants.SNAPSHOT_PROPS_FILENAME)) {
                 size -= 1;
             }
@@ -96,7 +103,7 @@ public class SnapshotContentItemVerifier extends StepExecutionSupport
      * Exception, java.util.List)
      */
     @Override
-    public void onWriteError(Exception exception, List<? extends SnapshotContentItem> items) {
+    public void onWriteError(Exception exception, List<? extends ManifestEntry> items) {
         addError(exception.getMessage());
     }
 
@@ -112,7 +119,7 @@ public class SnapshotContentItemVerifier extends StepExecutionSupport
         resetContextState();
         try {
 
-            this.manifestSet = ManifestFileHelper.loadManifestSetFromFile(this.manifestFile);
+            this.manifestSet = ManifestIndex.open(this.manifestFile, this.manifestIndexFile);
 
             new Retrier().execute(new Retriable() {
                 /*
@@ -147,7 +154,9 @@ public class SnapshotContentItemVerifier extends StepExecutionSupport
         // on the snapshot repo side since it does not get written to the
         // manifest.
         long snapshotItemCount = getItemsRead();
-        if (snapshotItemCount == this.manifestSet.size()) {
+        long manifestCount = this.manifestSet.size();
+        IOUtils.closeQuietly(this.manifestSet);
+        if (snapshotItemCount == manifestCount) {
             log.debug("snapshot repo count matches manifest count: "
                       + "step_execution_id={} job_execution_id={} snapshot_name={}",
                       stepExecution.getId(),
@@ -156,7 +165,7 @@ public class SnapshotContentItemVerifier extends StepExecutionSupport
         } else {
             addError("snapshot ("
                      + snapshotName + ") content item count (" + snapshotItemCount
-                     + ") does not match manifest count (" + manifestSet.size() + ")");
+                     + ") does not match manifest count (" + manifestCount + ")");
         }
 
         ExitStatus status = stepExecution.getExitStatus();
@@ -182,6 +191,8 @@ public class SnapshotContentItemVerifier extends StepExecutionSupport
 
         } else {
             status = status.and(ExitStatus.COMPLETED);
+            // the index is only needed to resume the step
+            manifestIndexFile.delete();
         }
 
         return status;
@@ -193,16 +204,15 @@ public class SnapshotContentItemVerifier extends StepExecutionSupport
      * @see org.springframework.batch.item.ItemWriter#write(java.util.List)
      */
     @Override
-    public void write(List<? extends SnapshotContentItem> items) throws Exception {
-        for (SnapshotContentItem item : items) {
-            Map<String, String> props = PropertiesSerializer.deserialize(item.getMetadata());
+    public void write(List<? extends ManifestEntry> items) throws Exception {
+        for (ManifestEntry item : items) {
             String contentId = item.getContentId();
-            String checksum = props.get(ContentStore.CONTENT_CHECKSUM);
+            String checksum = item.getChecksum();
 
             // verify that manifest contains every item from the database except
             // SNAPSHOT_PROPS_FILENAME
             if (!contentId.equals(Constants.SNAPSHOT_PROPS_FILENAME)) {
-                if (!this.manifestSet.contains(ManifestFileHelper.formatManifestSetString(contentId, checksum))) {
+                if (checksum == null || !this.manifestSet.contains(contentId, checksum)) {
                     addError(MessageFormat.format("Content item {0} with checksum {1} not found in manifest "
                                                   + "for snapshot {2}", contentId, checksum, this.snapshotName));
                 }
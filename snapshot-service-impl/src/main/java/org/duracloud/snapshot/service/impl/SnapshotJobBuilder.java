@@ -23,6 +23,7 @@ import org.duracloud.snapshot.common.SnapshotServiceConstants;
 import org.duracloud.snapshot.db.ContentDirUtils;
 import org.duracloud.snapshot.db.model.DuracloudEndPointConfig;
 import org.duracloud.snapshot.db.model.Snapshot;
+import org.duracloud.snapshot.service.BridgeConfiguration;
 import org.duracloud.snapshot.service.SnapshotJobManagerConfig;
 import org.duracloud.snapshot.service.SnapshotManager;
 import org.slf4j.Logger;
@@ -37,7 +38,6 @@ import org.springframework.batch.core.job.builder.SimpleJobBuilder;
 import org.springframework.batch.core.repository.JobRepository;
 import org.springframework.batch.core.step.factory.SimpleStepFactoryBean;
 import org.springframework.batch.item.ItemReader;
-import org.springframework.batch.item.ItemWriter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.core.task.TaskExecutor;
@@ -104,7 +104,8 @@ public class SnapshotJobBuilder extends AbstractJobBuilder implements BatchJobBu
                                                       false);
 
             ItemReader<ContentItem> itemReader =
-                new SpaceItemReader(retrievalSource);
+                new PrefetchingSpaceItemReader(retrievalSource,
+                                               BridgeConfiguration.getSnapshotPrefetchDepth());
 
             File contentDir =
                 new File(ContentDirUtils.getDestinationPath(snapshot.getName(),
@@ -117,11 +118,15 @@ public class SnapshotJobBuilder extends AbstractJobBuilder implements BatchJobBu
             File md5File = new File(contentDir, MANIFEST_MD5_TXT_FILE_NAME);
             File sha256File = new File(contentDir, MANIFEST_SHA256_TXT_FILE_NAME);
 
+            StitchedManifestGenerator manifestGenerator = new StitchedManifestGenerator(contentStore);
             SpaceManifestSnapshotManifestVerifier verifier =
                 new SpaceManifestSnapshotManifestVerifier(md5File,
-                                                          new StitchedManifestGenerator(contentStore),
+                                                          ManifestIndex.getIndexFile(config.getWorkDir(), md5File),
+                                                          manifestGenerator,
                                                           source.getSpaceId());
-            ItemWriter itemWriter =
+            verifier.setSortedMerge(BridgeConfiguration.isManifestVerificationSortedMerge());
+            verifier.setContentStore(contentStore);
+            SpaceItemWriter itemWriter =
                 new SpaceItemWriter(snapshot,
                                     retrievalSource,
                                     contentDir,
@@ -131,6 +136,16 @@ public class SnapshotJobBuilder extends AbstractJobBuilder implements BatchJobBu
                                     sha256File,
                                     snapshotManager,
                                     verifier);
+            itemWriter.setChunkRetriever(
+                new ParallelChunkRetriever(contentStore,
+                                           BridgeConfiguration.getSnapshotThreadsPerChunkedItem()));
+            if (BridgeConfiguration.isSnapshotIncremental()) {
+                Snapshot previousSnapshot = snapshotManager.getPreviousCompleteSnapshot(snapshot);
+                log.info("Snapshot {} is incremental: unchanged content will be taken from snapshot {}",
+                         snapshot.getName(), previousSnapshot == null ? "(none)" : previousSnapshot.getName());
+                File storeDir = new File(config.getWorkDir(), ContentAddressedStore.DIRECTORY_NAME);
+                itemWriter.setIncremental(new ContentAddressedStore(storeDir), previousSnapshot, manifestGenerator);
+            }
 
             SimpleStepFactoryBean<ContentItem, File> stepFactory =
                 new SimpleStepFactoryBean<>();
@@ -139,7 +154,9 @@ public class SnapshotJobBuilder extends AbstractJobBuilder implements BatchJobBu
             stepFactory.setBeanName("step1");
             stepFactory.setItemReader(itemReader);
             stepFactory.setItemWriter(itemWriter);
-            stepFactory.setCommitInterval(1);
+            int commitInterval = BridgeConfiguration.getSnapshotCommitInterval();
+            log.info("Setting snapshot commit interval = {}", commitInterval);
+            stepFactory.setCommitInterval(commitInterval);
             setThrottleLimitForContentTransfers(stepFactory);
             stepFactory.setTaskExecutor(taskExecutor);
             Step step = (Step) stepFactory.getObject();
@@ -7,21 +7,32 @@
  */
 package org.duracloud.snapshot.service.impl;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.sql.Timestamp;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.ZipOutputStream;
+import javax.sql.DataSource;
 
 import org.apache.commons.io.FileUtils;
 import org.duracloud.client.ContentStore;
@@ -56,6 +67,8 @@ import org.duracloud.snapshot.service.SnapshotManagerException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -68,6 +81,20 @@ public class SnapshotManagerImpl implements SnapshotManager {
 
     private static Logger log = LoggerFactory.getLogger(SnapshotManagerImpl.class);
 
+    /*
+     * Relies on the (snapshot_id, content_id_hash) unique key to make the insert
+     * idempotent: rows that were added by a previous attempt are left untouched.
+     */
+    private static final String INSERT_CONTENT_ITEM_SQL =
+        "insert into snapshot_content_item " +
+        "(modified, content_id, content_id_hash, metadata, md5, sha256, size_bytes, snapshot_id) " +
+        "values (?, ?, ?, ?, ?, ?, ?, ?) on duplicate key update id = id";
+
+    private static final int METADATA_PIPE_SIZE = 1024 * 1024;
+    private static final int PRUNE_PAGE_SIZE = 1000;
+    private static final SnapshotStatus[] IN_PROGRESS_STATUSES =
+        {SnapshotStatus.INITIALIZED, SnapshotStatus.TRANSFERRING_FROM_DURACLOUD};
+
     protected static String[] METADATA_FILENAMES = {Constants.SNAPSHOT_PROPS_FILENAME,
                                                     SnapshotServiceConstants.CONTENT_PROPERTIES_JSON_FILENAME,
                                                     SnapshotServiceConstants.MANIFEST_MD5_TXT_FILE_NAME,
@@ -78,6 +105,8 @@ public class SnapshotManagerImpl implements SnapshotManager {
     //by default 1 day
     private long secondsBetweenCleanupFailureNotifications = 86400;
 
+    private AtomicBoolean pruning = new AtomicBoolean(false);
+
     //NOTE: auto wiring at the field level rather than in the constructor seems to be necessary
     //      when annotating methods with @Transactional.
     @Autowired
@@ -101,6 +130,9 @@ public class SnapshotManagerImpl implements SnapshotManager {
     @Autowired
     private EventLog eventLog;
 
+    @Autowired
+    private DataSource dataSource;
+
     public SnapshotManagerImpl() {
     }
 
@@ -139,6 +171,13 @@ public class SnapshotManagerImpl implements SnapshotManager {
         this.bridgeConfig = bridgeConfig;
     }
 
+    /**
+     * @param dataSource the dataSource to set
+     */
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -164,12 +203,107 @@ public class SnapshotManagerImpl implements SnapshotManager {
             item.setContentIdHash(contentIdHash);
             String propString = PropertiesSerializer.serialize(props);
             item.setMetadata(propString);
+            item.setMd5(props.get(ContentStore.CONTENT_CHECKSUM));
+            item.setSizeBytes(parseSize(props.get(ContentStore.CONTENT_SIZE)));
             this.snapshotContentItemRepo.save(item);
         } catch (Exception ex) {
             throw new SnapshotException("failed to add content item: " + ex.getMessage(), ex);
         }
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.duracloud.snapshot.service.SnapshotManager#addContentItems(
+     *  org.duracloud.snapshot.db.model.Snapshot, java.util.Collection)
+     */
+    @Override
+    @Transactional
+    public void addContentItems(Snapshot snapshot,
+                                Collection<SnapshotContentItem> items)
+        throws SnapshotException {
+        if (items.isEmpty()) {
+            return;
+        }
+
+        ChecksumUtil checksumGenerator = createChecksumGenerator();
+        Timestamp modified = new Timestamp(System.currentTimeMillis());
+        List<Object[]> batchArgs = new ArrayList<>(items.size());
+        for (SnapshotContentItem item : items) {
+            String contentId = item.getContentId();
+            String md5 = item.getMd5();
+            if (md5 == null) {
+                md5 = PropertiesSerializer.readProperty(item.getMetadata(), ContentStore.CONTENT_CHECKSUM);
+            }
+            Long sizeBytes = item.getSizeBytes();
+            if (sizeBytes == null) {
+                sizeBytes = parseSize(PropertiesSerializer.readProperty(item.getMetadata(),
+                                                                        ContentStore.CONTENT_SIZE));
+            }
+            batchArgs.add(new Object[] {modified,
+                                        contentId,
+                                        checksumGenerator.generateChecksum(contentId),
+                                        item.getMetadata(),
+                                        md5,
+                                        item.getSha256(),
+                                        sizeBytes,
+                                        snapshot.getId()});
+        }
+
+        try {
+            new JdbcTemplate(this.dataSource).batchUpdate(INSERT_CONTENT_ITEM_SQL, batchArgs);
+        } catch (Exception ex) {
+            throw new SnapshotException("failed to add " + items.size() +
+                                        " content items: " + ex.getMessage(), ex);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.duracloud.snapshot.service.SnapshotManager#getPreviousCompleteSnapshot(
+     *  org.duracloud.snapshot.db.model.Snapshot)
+     */
+    @Override
+    public Snapshot getPreviousCompleteSnapshot(Snapshot snapshot) {
+        DuracloudEndPointConfig source = snapshot.getSource();
+        return this.snapshotRepo
+            .findFirstBySourceHostAndSourceStoreIdAndSourceSpaceIdAndStatusOrderBySnapshotDateDesc(
+                source.getHost(),
+                source.getStoreId(),
+                source.getSpaceId(),
+                SnapshotStatus.SNAPSHOT_COMPLETE);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.duracloud.snapshot.service.SnapshotManager#getContentItems(
+     *  org.duracloud.snapshot.db.model.Snapshot, long, int)
+     */
+    @Override
+    public List<SnapshotContentItem> getContentItems(Snapshot snapshot, long afterId, int count) {
+        return this.snapshotContentItemRepo.findBySnapshotNameAndIdGreaterThanOrderByIdAsc(snapshot.getName(),
+                                                                                           afterId,
+                                                                                           new PageRequest(0, count));
+    }
+
+    /**
+     * @param size the content-size property of a content item
+     * @return the size or null if it is missing or not a number
+     */
+    private Long parseSize(String size) {
+        if (size == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(size);
+        } catch (NumberFormatException ex) {
+            log.warn("content size \"{}\" is not a number", size);
+            return null;
+        }
+    }
+
     @Override
     @Transactional
     public Snapshot addAlternateSnapshotIds(Snapshot snapshot, List<String> alternateIds)
@@ -202,37 +336,13 @@ public class SnapshotManagerImpl implements SnapshotManager {
                 ContentDirUtils.getDestinationPath(snapshot.getName(),
                                                    BridgeConfiguration.getContentRootDir()));
 
-            File zipFile = zipMetadata(snapshotId, snapshotDir);
-
             DuracloudEndPointConfig source = snapshot.getSource();
 
             ContentStore store = getContentStore(source);
 
             ensureMetadataSpaceExists(store);
 
-            String zipChecksum = createChecksumGenerator().generateChecksum(zipFile);
-
-            try {
-                new Retrier(4, 1000, 2).execute(new Retriable() {
-                    public Object retry() throws Exception {
-                        try (FileInputStream zipStream = new FileInputStream(zipFile)) {
-                            return store.addContent(Constants.SNAPSHOT_METADATA_SPACE,
-                                                    zipFile.getName(),
-                                                    zipStream,
-                                                    zipFile.length(),
-                                                    "application/zip",
-                                                    zipChecksum,
-                                                    null);
-                        }
-                    }
-                });
-            } catch (Exception ex) {
-                log.error("failed to upload snapshot zip ("
-                          + zipFile.getAbsolutePath() + ") to duracloud: " + ex.getMessage(), ex);
-                throw new Exception(ex);
-            } finally {
-                zipFile.delete();
-            }
+            uploadMetadata(store, snapshotId, snapshotDir);
 
             FileUtils.deleteDirectory(snapshotDir);
 
@@ -306,6 +416,108 @@ public class SnapshotManagerImpl implements SnapshotManager {
         }
     }
 
+    /**
+     * Uploads the metadata files of the snapshot as a zip. The zip is first
+     * streamed to DuraCloud as it is written, with its checksum computed on the
+     * way, so the metadata is read only once. Should that fail, the zip is
+     * written to disk so that its length and checksum are known up front and
+     * it can be uploaded again as many times as it takes.
+     *
+     * @param store
+     * @param snapshotId
+     * @param snapshotDir
+     * @throws Exception
+     */
+    private void uploadMetadata(ContentStore store, String snapshotId, File snapshotDir) throws Exception {
+        try {
+            streamMetadata(store, snapshotId, snapshotDir);
+            return;
+        } catch (Exception ex) {
+            log.warn("failed to stream snapshot metadata of " + snapshotId +
+                     " to duracloud, uploading it from disk instead: " + ex.getMessage(), ex);
+        }
+
+        final File zipFile = zipMetadata(snapshotId, snapshotDir);
+        final String zipChecksum = createChecksumGenerator().generateChecksum(zipFile);
+
+        try {
+            new Retrier(4, 1000, 2).execute(new Retriable() {
+                public Object retry() throws Exception {
+                    try (FileInputStream zipStream = new FileInputStream(zipFile)) {
+                        return store.addContent(Constants.SNAPSHOT_METADATA_SPACE,
+                                                zipFile.getName(),
+                                                zipStream,
+                                                zipFile.length(),
+                                                "application/zip",
+                                                zipChecksum,
+                                                null);
+                    }
+                }
+            });
+        } catch (Exception ex) {
+            log.error("failed to upload snapshot zip ("
+                      + zipFile.getAbsolutePath() + ") to duracloud: " + ex.getMessage(), ex);
+            throw new Exception(ex);
+        } finally {
+            zipFile.delete();
+        }
+    }
+
+    /**
+     * Zips the metadata files of the snapshot on a separate thread straight
+     * into the upload, without writing the zip to disk. As neither the length
+     * nor the checksum of the zip is known until it has been written, DuraCloud
+     * computes the checksum of what it received, which is then compared with
+     * the checksum of what was sent.
+     *
+     * @param store
+     * @param snapshotId
+     * @param snapshotDir
+     * @throws Exception
+     */
+    private void streamMetadata(ContentStore store, String snapshotId, final File snapshotDir) throws Exception {
+        final MessageDigest md5 = MessageDigest.getInstance("MD5");
+        final PipedOutputStream pipe = new PipedOutputStream();
+        FutureTask<Void> zipper = new FutureTask<>(() -> {
+            try (ZipOutputStream zipOs =
+                     new ZipOutputStream(new DigestOutputStream(new BufferedOutputStream(pipe), md5))) {
+                for (String file : METADATA_FILENAMES) {
+                    IOUtil.addFileToZipOutputStream(new File(snapshotDir, file), zipOs);
+                }
+            }
+            return null;
+        });
+
+        String checksum;
+        try (PipedInputStream zipStream = new PipedInputStream(pipe, METADATA_PIPE_SIZE)) {
+            Thread zipThread = new Thread(zipper, "metadata-zip-" + snapshotId);
+            zipThread.setDaemon(true);
+            zipThread.start();
+
+            // should the upload stop reading, closing the stream fails the zipper
+            checksum = store.addContent(Constants.SNAPSHOT_METADATA_SPACE,
+                                        snapshotId + ".zip",
+                                        zipStream,
+                                        -1,
+                                        "application/zip",
+                                        null,
+                                        null);
+        }
+
+        try {
+            zipper.get();
+        } catch (ExecutionException ex) {
+            throw new IOException("failed to zip snapshot metadata: " + ex.getCause().getMessage(), ex.getCause());
+        }
+
+        String zipChecksum = ChecksumUtil.checksumBytesToString(md5.digest());
+        if (!zipChecksum.equals(checksum)) {
+            throw new IOException("checksum of the uploaded snapshot metadata (" + checksum +
+                                  ") does not match the checksum of the zip (" + zipChecksum + ")");
+        }
+        log.info("streamed snapshot metadata of {} to duracloud: checksum={}", snapshotId, zipChecksum);
+    }
+
     /**
      * @param snapshotId
      * @param snapshotDir
@@ -371,6 +583,9 @@ public class SnapshotManagerImpl implements SnapshotManager {
         throws SnapshotException {
         snapshot.setEndDate(new Date());
         snapshot = changeSnapshotStatus(snapshot, SnapshotStatus.SNAPSHOT_COMPLETE, "");
+        if (BridgeConfiguration.isSnapshotIncremental()) {
+            startContentStorePrune(snapshot);
+        }
         String snapshotId = snapshot.getName();
         String message = "Snapshot complete: " + snapshotId;
         List<String> recipients =
@@ -390,6 +605,115 @@ public class SnapshotManagerImpl implements SnapshotManager {
         return snapshot;
     }
 
+    /**
+     * Prunes the content store on a thread of its own, so that completing a
+     * snapshot does not wait on reading every item of the latest snapshot of
+     * every space. If a prune is already running, no other is started: the
+     * content it leaves is pruned on the next completion.
+     *
+     * @param completed the snapshot which has just completed
+     */
+    private void startContentStorePrune(final Snapshot completed) {
+        if (!this.pruning.compareAndSet(false, true)) {
+            log.info("The content store is already being pruned");
+            return;
+        }
+
+        Thread pruneThread = new Thread(() -> {
+            try {
+                pruneContentStore(BridgeConfiguration.getBridgeWorkDir(), completed);
+            } finally {
+                this.pruning.set(false);
+            }
+        }, "content-store-prune");
+        pruneThread.setDaemon(true);
+        pruneThread.start();
+    }
+
+    /**
+     * Deletes the content of the content store (see ContentAddressedStore)
+     * which is not referenced by the latest complete snapshot of any space:
+     * only the content of that snapshot is reused by the next snapshot of
+     * the space. The store is not pruned while any snapshot is in progress,
+     * as the content an incremental snapshot adds to the store is not yet
+     * referenced by a complete snapshot. Failures are logged rather than
+     * thrown, as they leave no more than unneeded content in the store.
+     *
+     * @param workDir   the bridge work directory, which holds the store
+     * @param completed the snapshot which has just completed, which is the
+     *                  latest of its space even if its completion has not
+     *                  yet been committed
+     */
+    protected void pruneContentStore(File workDir, Snapshot completed) {
+        for (SnapshotStatus status : IN_PROGRESS_STATUSES) {
+            if (!this.snapshotRepo.findByStatusOrderBySnapshotDateAsc(status).isEmpty()) {
+                log.info("Not pruning the content store while a snapshot is {}", status);
+                return;
+            }
+        }
+
+        GroupCommitCache cache = null;
+        try {
+            // each prune has a file of its own
+            File dbFile = File.createTempFile("content-store-prune-", ".db", workDir);
+            dbFile.delete();
+            cache = new GroupCommitCache(dbFile);
+            cache.open();
+
+            // the snapshots are in date order, so the last of each space wins
+            Map<String, Snapshot> latestBySpace = new HashMap<>();
+            for (Snapshot snapshot : this.snapshotRepo.findByStatusOrderBySnapshotDateAsc(
+                SnapshotStatus.SNAPSHOT_COMPLETE)) {
+                latestBySpace.put(getSpaceKey(snapshot), snapshot);
+            }
+            latestBySpace.put(getSpaceKey(completed), completed);
+
+            Map<String, String> referenced = cache.getMap("referenced");
+            for (Snapshot snapshot : latestBySpace.values()) {
+                String snapshotName = snapshot.getName();
+                Long minId = this.snapshotContentItemRepo.findMinIdBySnapshotName(snapshotName);
+                Long maxId = this.snapshotContentItemRepo.findMaxIdBySnapshotName(snapshotName);
+                if (minId == null) {
+                    continue;
+                }
+
+                long afterId = minId - 1;
+                List<Object[]> rows;
+                while (!(rows = this.snapshotContentItemRepo
+                    .findContentIdAndMd5BySnapshotName(snapshotName,
+                                                       afterId,
+                                                       maxId,
+                                                       new PageRequest(0, PRUNE_PAGE_SIZE))).isEmpty()) {
+                    for (Object[] row : rows) {
+                        afterId = (Long) row[0];
+                        String md5 = (String) row[2];
+                        if (md5 == null) {
+                            md5 = PropertiesSerializer.readProperty((String) row[3], ContentStore.CONTENT_CHECKSUM);
+                        }
+                        if (md5 != null) {
+                            cache.put(referenced, md5.toLowerCase(), "");
+                        }
+                    }
+                }
+            }
+            cache.sync();
+
+            new ContentAddressedStore(new File(workDir, ContentAddressedStore.DIRECTORY_NAME))
+                .prune(referenced.keySet());
+        } catch (Exception ex) {
+            log.error("failed to prune the content store: " + ex.getMessage(), ex);
+        } finally {
+            if (cache != null) {
+                cache.delete();
+            }
+        }
+    }
+
+    private String getSpaceKey(Snapshot snapshot) {
+        DuracloudEndPointConfig source = snapshot.getSource();
+        return source.getHost() + "/" + source.getStoreId() + "/" + source.getSpaceId();
+    }
+
     /* (non-Javadoc)
      * @see org.duracloud.snapshot.service.SnapshotManager#finalizeSnapshots()
      */
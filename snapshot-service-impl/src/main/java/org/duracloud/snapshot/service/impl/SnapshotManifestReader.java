@@ -7,10 +7,10 @@
  */
 package org.duracloud.snapshot.service.impl;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 
+import org.apache.commons.io.IOUtils;
+import org.springframework.batch.core.ExitStatus;
 import org.springframework.batch.core.StepExecution;
 import org.springframework.batch.item.ItemReader;
 import org.springframework.batch.item.NonTransientResourceException;
@@ -26,7 +26,7 @@ import org.springframework.batch.item.UnexpectedInputException;
 public class SnapshotManifestReader extends StepExecutionSupport implements ItemReader<ManifestEntry> {
 
     private File manifestFile;
-    private BufferedReader reader;
+    private ManifestScanner scanner;
 
     /**
      * @param manifestFile an md5 manifest file.
@@ -42,20 +42,17 @@ public class SnapshotManifestReader extends StepExecutionSupport implements Item
     public synchronized ManifestEntry read()
         throws Exception, UnexpectedInputException, ParseException, NonTransientResourceException {
 
-        if (this.reader == null) {
-            this.reader = new BufferedReader(new FileReader(manifestFile));
+        if (this.scanner == null) {
+            this.scanner = new ManifestScanner(manifestFile);
             long linesRead = getItemsRead();
 
-            if (linesRead > 0) {
-                for (long i = 0; i < linesRead; i++) {
-                    this.reader.readLine();
-                }
+            for (long i = 0; i < linesRead && this.scanner.skip(); i++) {
+                // skip the lines already read
             }
         }
 
-        String line = this.reader.readLine();
-        if (line != null) {
-            return ManifestFileHelper.parseManifestEntry(line);
+        if (this.scanner.next()) {
+            return this.scanner.getEntry();
         } else {
             return null;
         }
@@ -71,4 +68,15 @@ public class SnapshotManifestReader extends StepExecutionSupport implements Item
         super.beforeStep(stepExecution);
     }
 
+    /* (non-Javadoc)
+     * @see org.springframework.batch.core.StepExecutionListener#afterStep(
+     * org.springframework.batch.core.StepExecution)
+     */
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        IOUtils.closeQuietly(this.scanner);
+        this.scanner = null;
+        return super.afterStep(stepExecution);
+    }
+
 }
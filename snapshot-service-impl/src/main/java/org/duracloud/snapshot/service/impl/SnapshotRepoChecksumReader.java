@@ -0,0 +1,176 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.duracloud.client.ContentStore;
+import org.duracloud.snapshot.db.repo.SnapshotContentItemRepo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.item.ItemReader;
+import org.springframework.data.domain.PageRequest;
+
+/**
+ * Reads the content id and checksum of each content item of a snapshot from
+ * the snapshot repository. Rather than loading whole content items page by
+ * page, the items are split into ranges of ids which are read concurrently,
+ * each with a keyset paged projection query (ie "where id > :lastId order by
+ * id") of just the content id and md5 of each item. Items are returned in no
+ * particular order.
+ *
+ * @author Daniel Bernstein
+ */
+public class SnapshotRepoChecksumReader extends StepExecutionSupport implements ItemReader<ManifestEntry> {
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotRepoChecksumReader.class);
+
+    private SnapshotContentItemRepo repo;
+    private String snapshotName;
+    private int partitions;
+    private int pageSize;
+
+    private LinkedList<Prefetcher<List<ManifestEntry>>> prefetchers;
+    private List<Prefetcher<List<ManifestEntry>>> started = new ArrayList<>();
+    private Iterator<ManifestEntry> page = Collections.emptyIterator();
+
+    /**
+     * @param repo         the snapshot repository
+     * @param snapshotName the snapshot whose content items are read
+     * @param partitions   the number of id ranges read concurrently
+     * @param pageSize     the number of items fetched by each query
+     */
+    public SnapshotRepoChecksumReader(SnapshotContentItemRepo repo,
+                                      String snapshotName,
+                                      int partitions,
+                                      int pageSize) {
+        this.repo = repo;
+        this.snapshotName = snapshotName;
+        this.partitions = partitions;
+        this.pageSize = pageSize;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.springframework.batch.item.ItemReader#read()
+     */
+    @Override
+    public synchronized ManifestEntry read() throws Exception {
+        if (this.prefetchers == null) {
+            this.prefetchers = createPrefetchers();
+        }
+
+        while (!page.hasNext()) {
+            Prefetcher<List<ManifestEntry>> prefetcher = prefetchers.poll();
+            if (prefetcher == null) {
+                return null;
+            }
+
+            List<ManifestEntry> next = prefetcher.next();
+            if (next != null) {
+                // take pages from each partition in turn so that none of
+                // them is left waiting on a full queue.
+                page = next.iterator();
+                prefetchers.add(prefetcher);
+            }
+        }
+
+        return page.next();
+    }
+
+    private LinkedList<Prefetcher<List<ManifestEntry>>> createPrefetchers() {
+        LinkedList<Prefetcher<List<ManifestEntry>>> result = new LinkedList<>();
+        Long minId = repo.findMinIdBySnapshotName(snapshotName);
+        Long maxId = repo.findMaxIdBySnapshotName(snapshotName);
+        if (minId == null || maxId == null) {
+            return result;
+        }
+
+        long rangeSize = Math.max(1, (maxId - minId + partitions) / partitions);
+        long afterId = minId - 1;
+        for (int i = 0; i < partitions && afterId < maxId; i++) {
+            long toId = Math.min(maxId, afterId + rangeSize);
+            Prefetcher<List<ManifestEntry>> prefetcher =
+                new Prefetcher<>("snapshot-repo-reader-" + snapshotName + "-" + i,
+                                 new PartitionSource(afterId, toId),
+                                 2);
+            prefetcher.start();
+            started.add(prefetcher);
+            result.add(prefetcher);
+            afterId = toId;
+        }
+
+        log.info("reading content items of snapshot {} (ids {} to {}) in {} partitions",
+                 snapshotName, minId, maxId, result.size());
+        return result;
+    }
+
+    /**
+     * Pages through the content items of a range of ids.
+     */
+    private class PartitionSource implements Prefetcher.Source<List<ManifestEntry>> {
+        private long lastId;
+        private long toId;
+
+        PartitionSource(long afterId, long toId) {
+            this.lastId = afterId;
+            this.toId = toId;
+        }
+
+        @Override
+        public List<ManifestEntry> next() throws Exception {
+            if (lastId >= toId) {
+                return null;
+            }
+
+            List<Object[]> rows =
+                repo.findContentIdAndMd5BySnapshotName(snapshotName, lastId, toId, new PageRequest(0, pageSize));
+            if (rows.isEmpty()) {
+                return null;
+            }
+
+            List<ManifestEntry> entries = new ArrayList<>(rows.size());
+            for (Object[] row : rows) {
+                String checksum = (String) row[2];
+                if (checksum == null) {
+                    // not yet backfilled: fall back on the checksum in the properties
+                    checksum = PropertiesSerializer.readProperty((String) row[3], ContentStore.CONTENT_CHECKSUM);
+                }
+                entries.add(new ManifestEntry(checksum, (String) row[1]));
+            }
+
+            lastId = ((Number) rows.get(rows.size() - 1)[0]).longValue();
+            if (rows.size() < pageSize) {
+                lastId = toId;
+            }
+            return entries;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.springframework.batch.core.StepExecutionListener#afterStep(org.
+     * springframework.batch.core.StepExecution)
+     */
+    @Override
+    public synchronized ExitStatus afterStep(StepExecution stepExecution) {
+        for (Prefetcher<List<ManifestEntry>> prefetcher : started) {
+            prefetcher.close();
+        }
+        return super.afterStep(stepExecution);
+    }
+
+}
@@ -7,16 +7,18 @@
  */
 package org.duracloud.snapshot.service.impl;
 
+import java.util.Collection;
+import java.util.List;
+
+import org.duracloud.common.collection.IteratorSource;
 import org.duracloud.common.collection.StreamingIterator;
-import org.duracloud.common.collection.jpa.JpaIteratorSource;
 import org.duracloud.snapshot.db.model.SnapshotContentItem;
 import org.duracloud.snapshot.db.repo.SnapshotContentItemRepo;
 import org.springframework.batch.item.ItemReader;
 import org.springframework.batch.item.NonTransientResourceException;
 import org.springframework.batch.item.ParseException;
 import org.springframework.batch.item.UnexpectedInputException;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.PageRequest;
 
 /**
  * @author Daniel Bernstein
@@ -24,6 +26,14 @@ import org.springframework.data.domain.Pageable;
  */
 public class SnapshotRepoManifestReader extends StepExecutionSupport implements ItemReader<SnapshotContentItem> {
 
+    private static final int PAGE_SIZE = 1000;
+
+    /**
+     * The execution context key of the id of the last item read, from which a
+     * restarted step resumes.
+     */
+    public static final String LAST_ID_READ_KEY = "last.id.read";
+
     private SnapshotContentItemRepo repo;
     private StreamingIterator<SnapshotContentItem> items;
     private String snapshotName;
@@ -41,16 +51,34 @@ public class SnapshotRepoManifestReader extends StepExecutionSupport implements
         throws Exception, UnexpectedInputException, ParseException, NonTransientResourceException {
 
         if (this.items == null) {
-            this.items =
-                new StreamingIterator<>(new JpaIteratorSource<SnapshotContentItemRepo, SnapshotContentItem>(repo) {
-                    @Override
-                    protected Page<SnapshotContentItem> getNextPage(Pageable pageable, SnapshotContentItemRepo repo) {
-                        return repo.findBySnapshotName(snapshotName, pageable);
+            this.items = new StreamingIterator<>(new IteratorSource<SnapshotContentItem>() {
+                // pages are read by seeking past the id of the last item read
+                // rather than by offset, so each page costs the same to read.
+                // a restarted step seeks past the last item read before it
+                // stopped rather than reading and discarding those items.
+                private long lastId = getLongValue(LAST_ID_READ_KEY);
+
+                @Override
+                public Collection<SnapshotContentItem> getNext() {
+                    List<SnapshotContentItem> page =
+                        repo.findBySnapshotNameAndIdGreaterThanOrderByIdAsc(snapshotName,
+                                                                            lastId,
+                                                                            new PageRequest(0, PAGE_SIZE));
+                    if (page.isEmpty()) {
+                        return null;
                     }
-                });
-            skipLinesAlreadyRead(this.items);
+                    lastId = page.get(page.size() - 1).getId();
+                    return page;
+                }
+            });
+        }
+
+        if (!this.items.hasNext()) {
+            return null;
         }
-        return this.items.hasNext() ? this.items.next() : null;
+        SnapshotContentItem item = this.items.next();
+        getExecutionContext().putLong(LAST_ID_READ_KEY, item.getId());
+        return item;
     }
 
 }
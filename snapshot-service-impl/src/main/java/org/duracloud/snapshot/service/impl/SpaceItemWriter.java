@@ -8,41 +8,45 @@
 package org.duracloud.snapshot.service.impl;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.function.Function;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.time.StopWatch;
+import org.duracloud.chunk.manifest.ChunksManifest;
 import org.duracloud.chunk.util.ChunkUtil;
 import org.duracloud.client.ContentStore;
 import org.duracloud.common.constant.Constants;
+import org.duracloud.common.constant.ManifestFormat;
 import org.duracloud.common.error.DuraCloudRuntimeException;
 import org.duracloud.common.model.ContentItem;
 import org.duracloud.common.retry.Retriable;
 import org.duracloud.common.retry.Retrier;
 import org.duracloud.common.util.ChecksumUtil;
+import org.duracloud.manifest.ManifestFormatter;
+import org.duracloud.manifest.impl.TsvManifestFormatter;
+import org.duracloud.manifeststitch.StitchedManifestGenerator;
+import org.duracloud.mill.db.model.ManifestItem;
 import org.duracloud.retrieval.mgmt.OutputWriter;
 import org.duracloud.retrieval.mgmt.RetrievalListener;
-import org.duracloud.retrieval.mgmt.RetrievalWorker;
 import org.duracloud.retrieval.source.RetrievalSource;
 import org.duracloud.snapshot.db.model.Snapshot;
+import org.duracloud.snapshot.db.model.SnapshotContentItem;
+import org.duracloud.snapshot.service.BridgeConfiguration;
 import org.duracloud.snapshot.service.SnapshotManager;
-import org.mapdb.DB;
-import org.mapdb.DBMaker;
-import org.mapdb.Serializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.batch.core.BatchStatus;
@@ -65,16 +69,17 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
     private static final Logger log =
         LoggerFactory.getLogger(SpaceItemWriter.class);
 
+    private static final int PAGE_SIZE = 1000;
+
     private RetrievalSource retrievalSource;
     private File contentDir;
     private OutputWriter outputWriter;
-    private BufferedWriter propsWriter;
-    private BufferedWriter md5Writer;
-    private BufferedWriter sha256Writer;
+    private ContentPropertiesJsonWriter propsWriter;
+    private ManifestAppender manifestAppender;
     private ContentItem snapshotPropsContentItem;
     private SnapshotManager snapshotManager;
     private Snapshot snapshot;
-    private List<String> errors = new LinkedList<String>();
+    private List<String> errors = Collections.synchronizedList(new LinkedList<String>());
     private SpaceManifestSnapshotManifestVerifier spaceManifestSnapshotManifestVerifier;
     private ChunkUtil chunkUtil = new ChunkUtil();
     private Map<String, String> md5Cache = new HashMap<>();
@@ -83,9 +88,22 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
     private File md5ManifestFile;
     private File sha256ManifestFile;
     private File propsFile;
-    private DB db;
+    private GroupCommitCache cache;
     private File dbFile;
-    private int totalChecksumsPerformed = 0;
+    private AtomicInteger totalChecksumsPerformed = new AtomicInteger(0);
+    private int smallItemThreads = BridgeConfiguration.getBridgeThreadsPerJob();
+    private int largeItemThreads = BridgeConfiguration.getSnapshotLargeItemThreads();
+    private ExecutorService smallItemExecutor;
+    private ExecutorService largeItemExecutor;
+    private ParallelChunkRetriever chunkRetriever;
+    private ParallelChunkRetriever.ChunkProgress chunkProgress;
+    private GroupCommitCache chunkCache;
+    private File chunkDbFile;
+    private ContentAddressedStore contentAddressedStore;
+    private Snapshot previousSnapshot;
+    private StitchedManifestGenerator manifestGenerator;
+    private Map<String, String> unchangedContent = new HashMap<>();
+    private AtomicInteger totalItemsReused = new AtomicInteger(0);
 
     /**
      * @param snapshot
@@ -116,64 +134,181 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
         this.sha256ManifestFile = sha256ManifestFile;
         this.snapshotManager = snapshotManager;
         this.spaceManifestSnapshotManifestVerifier = spaceManifestSnapshotManifestVerifier;
-        this.dbFile = new File(contentDir, snapshot.getName() + ".db");
+        String snapshotName = snapshot.getName();
+        this.dbFile = new File(contentDir, snapshotName + ".db");
+        this.chunkDbFile = new File(contentDir, snapshotName + "-chunks.db");
         this.propsFile = propsFile;
     }
 
-    private DB makeDatabase() {
-        return DBMaker.fileDB(this.dbFile).transactionEnable().closeOnJvmShutdown().make();
+    private GroupCommitCache makeDatabase() {
+        GroupCommitCache groupCommitCache = new GroupCommitCache(this.dbFile);
+        groupCommitCache.open();
+        return groupCommitCache;
     }
 
     protected void closeDatabase() {
-        if (this.db != null) {
-            this.db.close();
+        if (this.cache != null) {
+            this.cache.close();
+        }
+
+        if (this.chunkCache != null) {
+            this.chunkCache.close();
         }
     }
 
+    /**
+     * @param smallItemThreads the number of small items which may be
+     *                         transferred concurrently across all chunks
+     *                         of the step.
+     */
+    public void setSmallItemThreads(int smallItemThreads) {
+        this.smallItemThreads = smallItemThreads;
+    }
+
+    /**
+     * @param largeItemThreads the number of large items which may be
+     *                         transferred concurrently across all chunks
+     *                         of the step.
+     */
+    public void setLargeItemThreads(int largeItemThreads) {
+        this.largeItemThreads = largeItemThreads;
+    }
+
+    /**
+     * @param chunkRetriever used to retrieve chunked items by fetching their
+     *                       chunks in parallel. When not set, chunked items
+     *                       are retrieved as a single stitched stream.
+     */
+    public void setChunkRetriever(ParallelChunkRetriever chunkRetriever) {
+        this.chunkRetriever = chunkRetriever;
+    }
+
+    /**
+     * Makes the snapshot incremental: content which is unchanged since the
+     * previous snapshot of the space (ie which has the same content id and
+     * MD5 in the space manifest as an item of that snapshot) is taken from
+     * the content store rather than retrieved again, and all other content is
+     * added to the store once it has been retrieved and verified. Unchanged
+     * items are found when the step starts, by comparing the space manifest
+     * with the previous snapshot, so they cost no calls to DuraCloud. Their
+     * properties are those recorded by the previous snapshot.
+     *
+     * @param contentAddressedStore the local store of snapshot content
+     * @param previousSnapshot      the previous complete snapshot of the
+     *                              space, or null if there is none
+     * @param manifestGenerator     the source of the space manifest
+     */
+    public void setIncremental(ContentAddressedStore contentAddressedStore,
+                               Snapshot previousSnapshot,
+                               StitchedManifestGenerator manifestGenerator) {
+        this.contentAddressedStore = contentAddressedStore;
+        this.previousSnapshot = previousSnapshot;
+        this.manifestGenerator = manifestGenerator;
+    }
+
     protected void deleteDatabase() {
         closeDatabase();
         this.dbFile.delete();
+        this.chunkDbFile.delete();
     }
 
-    private BufferedWriter createWriter(File file) throws IOException {
-        BufferedWriter writer =
-            Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
-        return writer;
-    }
-
+    /**
+     * Transfers the items of a chunk in parallel, then adds them to the
+     * snapshot repo in a single batch. If any transfer fails the chunk fails
+     * once the remaining transfers have finished: completed transfers are
+     * cached so they are not repeated when the chunk is retried.
+     *
+     * Large items are transferred on a separate lane with its own concurrency
+     * limit, so a few large items cannot take up every thread available to
+     * small items (or the other way around). The chunk waits for the items on
+     * both lanes, so no item is added to the snapshot repo before its content
+     * is on disk.
+     */
     @Override
     public void write(List<? extends ContentItem> items) throws IOException {
-        for (ContentItem contentItem : items) {
+        final File dataDir = getDataDir();
+        List<Future<SnapshotContentItem>> transfers = new ArrayList<>(items.size());
+        for (final ContentItem contentItem : items) {
             String contentId = contentItem.getContentId();
             log.debug("writing: {}", contentId);
 
-            if (!contentId.equals(Constants.SNAPSHOT_PROPS_FILENAME)) {
-                File dataDir = getDataDir();
-                retrieveFile(contentItem, dataDir);
-            } else {
+            if (contentId.equals(Constants.SNAPSHOT_PROPS_FILENAME)) {
                 // Cache the snapshot properties ContentItem so we can
                 // retrieve it last in the 'afterStep' method.
                 snapshotPropsContentItem = contentItem;
+            } else if (isLargeItem(contentItem)) {
+                transfers.add(largeItemExecutor.submit(() -> retrieveFile(contentItem, dataDir)));
+            } else {
+                transfers.add(smallItemExecutor.submit(() -> retrieveFile(contentItem, dataDir)));
+            }
+        }
+
+        List<SnapshotContentItem> snapshotContentItems = new ArrayList<>(transfers.size());
+        IOException transferError = null;
+        for (Future<SnapshotContentItem> transfer : transfers) {
+            try {
+                snapshotContentItems.add(transfer.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                transferError = new IOException("Interrupted while transferring chunk", e);
+                break;
+            } catch (ExecutionException e) {
+                if (transferError == null) {
+                    Throwable cause = e.getCause();
+                    transferError = cause instanceof IOException ?
+                                    (IOException) cause : new IOException(cause);
+                }
             }
         }
+
+        if (transferError != null) {
+            cache.sync();
+            throw transferError;
+        }
+
+        writeToSnapshotManager(snapshotContentItems);
+
+        // make sure everything cached and written while processing these
+        // items is committed before the items are acknowledged to the step.
+        syncAll();
+    }
+
+    private void syncAll() throws IOException {
+        manifestAppender.sync();
+        propsWriter.sync();
+        cache.sync();
+    }
+
+    /**
+     * Items stored in chunks are (by definition) larger than the chunk size,
+     * which makes the chunk manifest suffix the one indication of size
+     * available from the space listing without a further call per item. So
+     * "large" here means chunked: unchunked items of any size are small.
+     */
+    private boolean isLargeItem(ContentItem contentItem) {
+        return contentItem.getContentId().endsWith(ChunksManifest.manifestSuffix);
     }
 
     private File getDataDir() {
         return new File(contentDir, "data");
     }
 
-    protected void retrieveFile(ContentItem contentItem, File directory)
+    protected SnapshotContentItem retrieveFile(ContentItem contentItem, File directory)
         throws IOException {
-        retrieveFile(contentItem, directory, true, false);
+        return retrieveFile(contentItem, directory, true);
     }
 
-    private void cacheValue(Map<String, String> cache, String key, String value) {
-        cache.put(key, value);
-        db.commit();
+    private void cacheValue(Map<String, String> map, String key, String value) {
+        cache.put(map, key, value);
     }
 
-    protected void retrieveFile(ContentItem contentItem, File directory,
-                                boolean writeChecksums, boolean lastItem)
+    /**
+     * Retrieves the content item and writes its manifest and properties entries.
+     *
+     * @return the snapshot content item to be added to the snapshot repo
+     */
+    protected SnapshotContentItem retrieveFile(ContentItem contentItem, File directory,
+                                               boolean writeChecksums)
         throws IOException {
 
         String contentId = chunkUtil.preChunkedContentId(contentItem.getContentId());
@@ -184,9 +319,9 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
 
         Map<String, String> props = null;
 
-        RetrievalWorker retrievalWorker =
-            new RetrievalWorker(contentItem, retrievalSource, directory,
-                                true, outputWriter, false, true);
+        DigestingRetrievalWorker retrievalWorker =
+            new DigestingRetrievalWorker(contentItem, retrievalSource, directory,
+                                         true, outputWriter, false, true);
 
         File localFile = retrievalWorker.getLocalFile();
 
@@ -194,14 +329,29 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
             StopWatch sw = new StopWatch();
             sw.start();
 
-            props = retrievalWorker.retrieveFile(new RetrievalListener() {
-                @Override
-                public void chunkRetrieved(String chunk) {
-                    getStepExecution().getExecutionContext().put("last-chunk-retrieved-" +
-                                                                 Thread.currentThread().getName(),
-                                                                 chunk);
-                }
-            });
+            String transferSha256 = null;
+            String[] unchanged = reuseUnchangedContent(contentId, localFile);
+            if (unchanged != null) {
+                totalItemsReused.incrementAndGet();
+                props = PropertiesSerializer.deserialize(unchanged[2]);
+                transferSha256 = unchanged[1].isEmpty() ? null : unchanged[1];
+            } else if (chunkRetriever != null && chunkRetriever.isChunked(contentItem)) {
+                ParallelChunkRetriever.Result result =
+                    chunkRetriever.retrieve(contentItem, retrievalSource, localFile, chunkProgress);
+                props = result.getProperties();
+                transferSha256 = result.getSha256Checksum();
+                retrievalWorker.applyTimestamps(props);
+            } else {
+                props = retrievalWorker.retrieveFile(new RetrievalListener() {
+                    @Override
+                    public void chunkRetrieved(String chunk) {
+                        getStepExecution().getExecutionContext().put("last-chunk-retrieved-" +
+                                                                     Thread.currentThread().getName(),
+                                                                     chunk);
+                    }
+                });
+                transferSha256 = retrievalWorker.getSha256Checksum();
+            }
 
             sw.stop();
 
@@ -225,10 +375,23 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
             md5Checksum = props.get(ContentStore.CONTENT_CHECKSUM);
             cacheValue(md5Cache, contentId, md5Checksum);
 
+            if (contentAddressedStore != null) {
+                contentAddressedStore.add(md5Checksum, localFile);
+            }
+
             log.info("Retrieved item {} from space {} with MD5 checksum {}",
                      contentItem.getContentId(),
                      contentItem.getSpaceId(),
                      md5Checksum);
+
+            // the sha256 is computed as the bytes are written to disk, so
+            // there is no need to read the file a second time unless the
+            // worker found a matching local file and skipped the transfer.
+            if (writeChecksums && sha256 == null && transferSha256 != null) {
+                sha256 = transferSha256;
+                totalChecksumsPerformed.incrementAndGet();
+                cacheValue(sha256Cache, contentId, sha256);
+            }
         } else {
             log.info("MD5 for contentId {} is already cached." +
                      " No need to download and reverify.",
@@ -262,7 +425,7 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
 
                         sw.start();
                         sha256 = sha256ChecksumUtil.generateChecksum(localFile);
-                        totalChecksumsPerformed++;
+                        totalChecksumsPerformed.incrementAndGet();
                         sw.stop();
 
                         log.info("Finished sha256 checksum generation for contentId={};" +
@@ -282,8 +445,15 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
                     writeSHA256Checksum(contentId, sha256);
                 }
 
-                writeToSnapshotManager(contentId, props);
-                writeContentProperties(contentId, props, lastItem);
+                writeContentProperties(contentId, props);
+
+                SnapshotContentItem snapshotContentItem = new SnapshotContentItem();
+                snapshotContentItem.setContentId(contentId);
+                snapshotContentItem.setMetadata(PropertiesSerializer.serialize(props));
+                snapshotContentItem.setMd5(md5Checksum);
+                snapshotContentItem.setSha256(sha256);
+                snapshotContentItem.setSizeBytes(localFile.length());
+                return snapshotContentItem;
             } catch (IOException ioe) {
                 log.error("Error writing snapshot details: " + ioe.getMessage());
                 throw ioe;
@@ -306,75 +476,148 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
         }
     }
 
+    /**
+     * If the content item is unchanged since the previous snapshot and its
+     * content is in the content store, places the content at the local file.
+     *
+     * @return the md5, sha256 (empty if not known) and serialized properties
+     * of the content item in the previous snapshot if its content was taken
+     * from the store, otherwise null
+     */
+    private String[] reuseUnchangedContent(String contentId, File localFile) throws IOException {
+        if (contentAddressedStore == null) {
+            return null;
+        }
+
+        // the local file may be linked to stored content (by an earlier
+        // attempt), which must not be overwritten if the item is retrieved.
+        contentAddressedStore.detach(localFile);
+        String unchanged = unchangedContent.get(contentId);
+        if (unchanged == null) {
+            return null;
+        }
+
+        String[] fields = unchanged.split("\t", 3);
+        if (!contentAddressedStore.retrieve(fields[0], localFile)) {
+            return null;
+        }
+
+        log.info("Content {} is unchanged since snapshot {}: taken from the content store",
+                 contentId, previousSnapshot.getName());
+        return fields;
+    }
+
+    /**
+     * Finds the items of the space which are unchanged since the previous
+     * snapshot and whose content is in the content store, by comparing the
+     * MD5 checksums of the space manifest with those of the previous
+     * snapshot. Each is recorded, by content id, with its md5, sha256 and
+     * properties in the previous snapshot.
+     */
+    private void findUnchangedContent() throws Exception {
+        unchangedContent = cache.getMap("unchangedContent");
+        unchangedContent.clear();
+        if (contentAddressedStore == null || previousSnapshot == null) {
+            return;
+        }
+
+        Map<String, String> spaceChecksums = cache.getMap("spaceChecksums");
+        spaceChecksums.clear();
+        String spaceId = snapshot.getSource().getSpaceId();
+        try (BufferedReader reader = new BufferedReader(
+            new InputStreamReader(manifestGenerator.generate(spaceId, ManifestFormat.TSV)))) {
+            ManifestFormatter formatter = new TsvManifestFormatter();
+            // skip header
+            if (formatter.getHeader() != null) {
+                reader.readLine();
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                ManifestItem item = formatter.parseLine(line);
+                cacheValue(spaceChecksums, item.getContentId(), item.getContentChecksum());
+            }
+        }
+
+        long lastId = 0;
+        List<SnapshotContentItem> items;
+        while (!(items = snapshotManager.getContentItems(previousSnapshot, lastId, PAGE_SIZE)).isEmpty()) {
+            for (SnapshotContentItem item : items) {
+                lastId = item.getId();
+                String md5 = item.getMd5();
+                if (md5 == null) {
+                    md5 = PropertiesSerializer.readProperty(item.getMetadata(), ContentStore.CONTENT_CHECKSUM);
+                }
+
+                if (md5 != null && item.getMetadata() != null &&
+                    md5.equals(spaceChecksums.get(item.getContentId())) &&
+                    contentAddressedStore.contains(md5)) {
+                    String sha256 = item.getSha256() == null ? "" : item.getSha256();
+                    cacheValue(unchangedContent, item.getContentId(),
+                               md5 + "\t" + sha256 + "\t" + item.getMetadata());
+                }
+            }
+        }
+
+        spaceChecksums.clear();
+        cache.sync();
+        log.info("{} items of space {} are unchanged since snapshot {} and in the content store",
+                 unchangedContent.size(), spaceId, previousSnapshot.getName());
+    }
+
     protected int getTotalChecksumsPerformed() {
-        return totalChecksumsPerformed;
+        return totalChecksumsPerformed.get();
     }
 
     /**
-     * @param contentId
-     * @param props
+     * Adds the items to the snapshot repo in a single batch.
+     *
+     * @param snapshotContentItems
      */
-    private void writeToSnapshotManager(final String contentId,
-                                        final Map<String, String> props) throws IOException {
+    private void writeToSnapshotManager(final List<SnapshotContentItem> snapshotContentItems)
+        throws IOException {
+        if (snapshotContentItems.isEmpty()) {
+            return;
+        }
+
         try {
             new Retrier().execute(new Retriable() {
                 @Override
                 public Object retry() throws Exception {
-                    snapshotManager.addContentItem(snapshot, contentId, props);
+                    snapshotManager.addContentItems(snapshot, snapshotContentItems);
                     return null;
                 }
 
             });
         } catch (Exception e) {
-            log.error("Failed to add snapshot content item: " + contentId +
-                      " to snapshot " + snapshot + ": " + e.getMessage(), e);
+            log.error("Failed to add " + snapshotContentItems.size() + " snapshot content items " +
+                      "to snapshot " + snapshot + ": " + e.getMessage(), e);
             throw new IOException(e);
         }
     }
 
     protected void writeMD5Checksum(String contentId,
                                     String md5Checksum) throws IOException {
-        synchronized (md5Writer) {
-            ManifestFileHelper.writeManifestEntry(md5Writer, contentId, md5Checksum);
-        }
+        manifestAppender.appendMd5(contentId, md5Checksum);
     }
 
     protected void writeSHA256Checksum(String contentId,
                                        String sha256Checksum) throws IOException {
-
-        synchronized (sha256Writer) {
-            ManifestFileHelper.writeManifestEntry(sha256Writer, contentId, sha256Checksum);
-        }
+        manifestAppender.appendSha256(contentId, sha256Checksum);
     }
 
     protected void writeContentProperties(String contentId,
-                                          Map<String, String> props,
-                                          boolean lastItem)
+                                          Map<String, String> props)
         throws IOException {
-        Set<String> propKeys = props.keySet();
-        StringBuffer sb = new StringBuffer(100);
-        sb.append("{\n  \"" + contentId + "\": {\n");
-        for (String propKey : propKeys) {
-            sb.append("    \"" + propKey + "\": \"" + props.get(propKey) + "\",\n");
-        }
-        sb.deleteCharAt(sb.length() - 2); // delete comma after last key/value pair
-
-        sb.append("  }\n}");
-        if (!lastItem) {
-            sb.append(",");
-        }
-        sb.append("\n");
-
-        synchronized (propsWriter) {
-            propsWriter.write(sb.toString());
-            propsWriter.flush();
-        }
+        propsWriter.write(contentId, props);
     }
 
     protected void retrieveSnapshotProperties() {
         if (snapshotPropsContentItem != null) {
             try {
-                retrieveFile(snapshotPropsContentItem, contentDir, false, true);
+                SnapshotContentItem item =
+                    retrieveFile(snapshotPropsContentItem, contentDir, false);
+                writeToSnapshotManager(Collections.singletonList(item));
                 log.info("Snapshot properties retrieved");
             } catch (IOException ioe) {
                 log.error("Error retrieving the snapshot properties file: " +
@@ -392,8 +635,11 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
     public ExitStatus afterStep(StepExecution stepExecution) {
         ExitStatus status = super.afterStep(stepExecution);
         log.info("Step complete with status: {}", stepExecution.getExitStatus());
-        close("md5 writer", md5Writer);
-        close("sh256 writer", sha256Writer);
+        if (contentAddressedStore != null) {
+            log.info("{} items of snapshot {} were unchanged since the previous snapshot",
+                     totalItemsReused.get(), snapshot.getName());
+        }
+        close("manifest appender", manifestAppender);
         close("output writer", outputWriter);
 
         retrieveSnapshotProperties();
@@ -416,24 +662,51 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
                       status.getExitDescription());
         }
 
-        deleteDatabase();
+        shutdownExecutors();
+        if (this.chunkRetriever != null) {
+            this.chunkRetriever.close();
+        }
+        spaceManifestSnapshotManifestVerifier.close(errors.isEmpty());
+        if (errors.isEmpty()) {
+            deleteDatabase();
+        } else {
+            // keep the chunk progress of partially retrieved items so
+            // they can be resumed when the step is restarted.
+            closeDatabase();
+            this.dbFile.delete();
+        }
         return status;
     }
 
+    private void shutdownExecutors() {
+        if (this.smallItemExecutor != null) {
+            this.smallItemExecutor.shutdownNow();
+            this.smallItemExecutor = null;
+        }
+
+        if (this.largeItemExecutor != null) {
+            this.largeItemExecutor.shutdownNow();
+            this.largeItemExecutor = null;
+        }
+    }
+
+    private ExecutorService createExecutor(int threads, final String name) {
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
     private void closePropsWriter() {
         try {
-            synchronized (propsWriter) {
-                propsWriter.write("]\n");
-                propsWriter.flush();
-            }
-
+            propsWriter.close();
             log.debug("Closed props writer");
         } catch (IOException ioe) {
-            String message = "Error writing end of content property manifest: " + ioe.getMessage();
+            String message = "Error writing content property manifest: " + ioe.getMessage();
             errors.add(message);
             log.error(message, ioe);
-        } finally {
-            IOUtils.closeQuietly(propsWriter);
         }
     }
 
@@ -450,7 +723,7 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
             }
             log.info("closed {}", writerName);
         } catch (IOException ioe) {
-            String message = "Error closing " + writerName + " BufferedWriter: " + ioe.getMessage();
+            String message = "Error closing " + writerName + ": " + ioe.getMessage();
             errors.add(message);
             log.error(message, ioe);
         }
@@ -458,26 +731,26 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
 
     private void loadCacheFromFile(Map<String, String> cache,
                                    File file,
-                                   Function<String, Boolean> isValidChecksum) throws IOException {
+                                   int checksumLength) throws IOException {
         //if the cache is empty check if there is are md5 and sha256 manifests
         //that can be used to prepopulate the cache.
         if (cache.isEmpty() && file.exists()) {
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)))) {
-                String line = null;
-                while ((line = reader.readLine()) != null) {
+            try (ManifestScanner scanner = new ManifestScanner(file)) {
+                while (true) {
                     try {
-                        ManifestEntry entry = ManifestFileHelper.parseManifestEntry(line);
-                        String contentId = entry.getContentId();
-                        String checksum = entry.getChecksum();
-                        if (isValidChecksum.apply(checksum)) {
-                            cacheValue(cache, contentId, checksum);
+                        if (!scanner.next()) {
+                            break;
+                        }
+
+                        if (scanner.isHexChecksum(checksumLength)) {
+                            cacheValue(cache, scanner.getContentId(), scanner.getChecksum());
                         } else {
                             log.info("Checksum {} in manifest file {} was not a valid checksum: skipping.",
-                                     checksum, file.getAbsolutePath());
+                                     scanner.getChecksum(), file.getAbsolutePath());
                         }
                     } catch (ParseException ex) {
-                        log.info("Unable to parse line in manifest file {}. message={}. skipping: line={}",
-                                 file.getAbsolutePath(), ex.getMessage(), line);
+                        log.info("Unable to parse line {} in manifest file {}. message={}. skipping.",
+                                 scanner.getLinesRead(), file.getAbsolutePath(), ex.getMessage());
                     }
                 }
             }
@@ -489,42 +762,47 @@ public class SpaceItemWriter extends StepExecutionSupport implements ItemWriter<
         super.beforeStep(stepExecution);
         log.info("Starting step {}", stepExecution);
         try {
-            this.db = makeDatabase();
+            shutdownExecutors();
+            this.smallItemExecutor = createExecutor(smallItemThreads, "snapshot-small-item-transfer");
+            this.largeItemExecutor = createExecutor(largeItemThreads, "snapshot-large-item-transfer");
+
+            this.cache = makeDatabase();
+            this.chunkCache = new GroupCommitCache(this.chunkDbFile);
+            this.chunkCache.open();
+            this.chunkProgress = new CachedChunkProgress(chunkCache, "chunks");
 
-            md5Cache = db.treeMap("md5Cache", Serializer.STRING, Serializer.STRING)
-                         .createOrOpen();
-            sha256Cache = db.treeMap("sha256Cache", Serializer.STRING, Serializer.STRING)
-                            .createOrOpen();
-            propsCache = db.treeMap("propsCache", Serializer.STRING, Serializer.STRING)
-                           .createOrOpen();
+            md5Cache = cache.getMap("md5Cache");
+            sha256Cache = cache.getMap("sha256Cache");
+            propsCache = cache.getMap("propsCache");
 
             //load caches from files left from previously unsuccessful run.
-            loadCacheFromFile(
-                this.md5Cache,
-                this.md5ManifestFile,
-                x -> x != null && x.matches("[a-fA-F0-9]{32}"));
-            loadCacheFromFile(
-                this.sha256Cache,
-                this.sha256ManifestFile,
-                x -> x != null && x.matches("[a-fA-F0-9]{64}"));
+            loadCacheFromFile(this.md5Cache, this.md5ManifestFile, 32);
+            loadCacheFromFile(this.sha256Cache, this.sha256ManifestFile, 64);
+            cache.sync();
+
+            try {
+                findUnchangedContent();
+            } catch (Exception ex) {
+                // all of the content is retrieved instead
+                log.error("Unable to find the unchanged content of snapshot {}: {}",
+                          snapshot.getName(), ex.getMessage(), ex);
+                unchangedContent = new HashMap<>();
+            }
 
             //initialize writers after loading cache from files.
             try {
-                this.propsWriter = createWriter(propsFile);
-                this.md5Writer = createWriter(this.md5ManifestFile);
-                this.sha256Writer = createWriter(this.sha256ManifestFile);
+                this.propsWriter = new ContentPropertiesJsonWriter(propsFile);
+                this.propsWriter.open();
+                this.manifestAppender = new ManifestAppender(this.md5ManifestFile, this.sha256ManifestFile);
+                this.manifestAppender.open();
             } catch (IOException ex) {
                 throw new RuntimeException(ex);
             }
 
             errors.clear();
-            synchronized (propsWriter) {
-                propsWriter.write("[\n");
-                propsWriter.flush();
-            }
         } catch (IOException ioe) {
-            log.error("Error writing start of content property " +
-                      "manifest: ", ioe);
+            log.error("Error initializing caches and writers for " +
+                      "snapshot step: ", ioe);
         }
     }
 
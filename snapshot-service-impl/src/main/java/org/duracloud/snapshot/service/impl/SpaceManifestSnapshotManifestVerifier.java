@@ -9,13 +9,27 @@ package org.duracloud.snapshot.service.impl;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
-import org.duracloud.common.collection.WriteOnlyStringSet;
+import org.apache.commons.io.IOUtils;
+import org.duracloud.chunk.manifest.ChunksManifest;
+import org.duracloud.chunk.manifest.xml.ManifestDocumentBinding;
+import org.duracloud.client.ContentStore;
 import org.duracloud.common.constant.Constants;
 import org.duracloud.common.constant.ManifestFormat;
+import org.duracloud.domain.Content;
+import org.duracloud.error.NotFoundException;
 import org.duracloud.manifest.ManifestFormatter;
 import org.duracloud.manifest.impl.TsvManifestFormatter;
 import org.duracloud.manifeststitch.StitchedManifestGenerator;
@@ -36,13 +50,75 @@ public class SpaceManifestSnapshotManifestVerifier {
 
     private static final Logger log = LoggerFactory.getLogger(SpaceManifestSnapshotManifestVerifier.class);
 
+    /**
+     * The number of differences between the manifests which are reported in
+     * the errors when verifying by sorted merge (all of them are logged).
+     */
+    public static final int MAX_REPORTED_DIFFERENCES = 1000;
+
+    /**
+     * The number of differences beyond which a subsequent verification
+     * rescans both manifests rather than re-checking each difference.
+     */
+    public static final int MAX_INCREMENTAL_DIFFERENCES = 10000;
+
+    /**
+     * Orders "content-id TAB checksum" lines by content id, then checksum.
+     */
+    private static final Comparator<String> ENTRY_ORDER = (a, b) -> {
+        int result = compareContentIds(a, b);
+        return result != 0 ? result : a.compareTo(b);
+    };
+
     private File md5Manifest;
+    private File manifestIndexFile;
     private StitchedManifestGenerator generator;
     private String spaceId;
     private List<String> errors;
+    private boolean sortedMerge = false;
+    private ContentStore contentStore;
+    private List<Difference> differences;
+    private ManifestIndex snapshotIndex;
+    private File spaceManifest;
+    private long snapshotCount;
+    private long spaceCount;
+    private long missing;
+    private long extra;
+    private long mismatched;
 
-    public SpaceManifestSnapshotManifestVerifier(File md5Manifest, StitchedManifestGenerator generator, String spaceId) {
+    /**
+     * An entry which is missing from either manifest (in which case its
+     * checksum on that side is null) or whose checksums differ. When the
+     * difference was found through the index of the snapshot manifest the
+     * snapshot checksum of a content id in the snapshot is not known.
+     */
+    private static class Difference {
+        private String contentId;
+        private boolean inSnapshot;
+        private String snapshotChecksum;
+        private String spaceChecksum;
+
+        Difference(String contentId, boolean inSnapshot, String snapshotChecksum, String spaceChecksum) {
+            this.contentId = contentId;
+            this.inSnapshot = inSnapshot;
+            this.snapshotChecksum = snapshotChecksum;
+            this.spaceChecksum = spaceChecksum;
+        }
+    }
+
+    /**
+     * @param md5Manifest       the snapshot manifest
+     * @param manifestIndexFile the file in which the index of the snapshot
+     *                          manifest is kept between verifications
+     * @param generator
+     * @param spaceId
+     */
+    public SpaceManifestSnapshotManifestVerifier(File md5Manifest,
+                                                 File manifestIndexFile,
+                                                 StitchedManifestGenerator generator,
+                                                 String spaceId) {
         this.md5Manifest = md5Manifest;
+        this.manifestIndexFile = manifestIndexFile;
         this.generator = generator;
         this.spaceId = spaceId;
     }
@@ -51,64 +127,391 @@ public class SpaceManifestSnapshotManifestVerifier {
         return this.spaceId;
     }
 
+    /**
+     * @param sortedMerge true to verify by sorting both manifests on disk and
+     *                    diffing them in a single pass, which reports every
+     *                    missing, extra and mismatched entry; false to probe
+     *                    the index of the snapshot manifest for each line of
+     *                    the space manifest.
+     */
+    public void setSortedMerge(boolean sortedMerge) {
+        this.sortedMerge = sortedMerge;
+    }
+
+    /**
+     * Enables incremental verification: once a verification has failed,
+     * subsequent calls to verify() (ie retries) look up only the differing
+     * content items in the space through the content store.
+     *
+     * @param contentStore the content store of the space
+     */
+    public void setContentStore(ContentStore contentStore) {
+        this.contentStore = contentStore;
+    }
+
     /**
      * Performs the verification.
      *
+     * The space manifest is fetched once and kept until a verification has
+     * compared it in full, so an attempt which fails part way through does
+     * not fetch it again. Once a comparison has found differences, later
+     * attempts re-check only those differences (see setContentStore()), and
+     * the index of the snapshot manifest is kept open between attempts until
+     * close() is called.
+     *
      * @return true if verification was a success. Otherwise false. Errors can
      * be obtained by calling getErrors() after execution completes.
      */
     public boolean verify() {
+        resetResult();
+        try {
+            if (differences != null) {
+                verifyIncrementally();
+            } else {
+                if (sortedMerge) {
+                    verifyBySortedMerge();
+                } else {
+                    verifyByIndex();
+                }
+                // a complete comparison has been made: any later full
+                // comparison must see the current state of the space.
+                deleteSpaceManifest();
+            }
+        } catch (Exception e) {
+            String message = "Failed to verify space manifest against snapshot manifest:" + e.getMessage();
+            errors.add(message);
+            log.error(message, e);
+        }
+
+        log.info("verification complete. error count = {}", errors.size());
+        return getResult(errors);
+    }
 
+    private void resetResult() {
         this.errors = new LinkedList<>();
-        try (BufferedReader reader =
-                 new BufferedReader(new InputStreamReader(generator.generate(spaceId, ManifestFormat.TSV)))) {
-            WriteOnlyStringSet snapshotManifest = ManifestFileHelper.loadManifestSetFromFile(this.md5Manifest);
-            log.info("loaded manifest set into memory.");
+        this.missing = 0;
+        this.extra = 0;
+        this.mismatched = 0;
+    }
 
-            ManifestFormatter formatter = new TsvManifestFormatter();
-            // skip header
-            if (formatter.getHeader() != null) {
-                reader.readLine();
+    /**
+     * @return a local copy of the stitched space manifest, which is fetched
+     * unless a copy has been kept from a previous attempt.
+     */
+    private File getSpaceManifest() throws Exception {
+        if (spaceManifest == null) {
+            File file = new File(manifestIndexFile.getAbsolutePath() + ".space.tsv");
+            File temp = new File(file.getAbsolutePath() + ".tmp");
+            try (InputStream stream = generator.generate(spaceId, ManifestFormat.TSV)) {
+                Files.copy(stream, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
             }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            spaceManifest = file;
+        } else {
+            log.info("reusing the space manifest of {} fetched by a previous attempt", spaceId);
+        }
+        return spaceManifest;
+    }
+
+    private void deleteSpaceManifest() {
+        if (spaceManifest != null) {
+            spaceManifest.delete();
+            spaceManifest = null;
+        }
+    }
 
+    private BufferedReader openSpaceManifest() throws Exception {
+        BufferedReader reader =
+            new BufferedReader(new InputStreamReader(Files.newInputStream(getSpaceManifest().toPath())));
+        ManifestFormatter formatter = new TsvManifestFormatter();
+        // skip header
+        if (formatter.getHeader() != null) {
+            reader.readLine();
+        }
+        return reader;
+    }
+
+    private ManifestIndex getSnapshotIndex() throws IOException {
+        if (snapshotIndex == null) {
+            snapshotIndex = ManifestIndex.open(this.md5Manifest, this.manifestIndexFile);
+            log.info("opened manifest index.");
+        }
+        return snapshotIndex;
+    }
+
+    private void verifyByIndex() throws Exception {
+        ManifestIndex snapshotManifest = getSnapshotIndex();
+        List<Difference> found = new ArrayList<>();
+        long stitchedManifestCount = 0;
+        try (BufferedReader reader = openSpaceManifest()) {
+            ManifestFormatter formatter = new TsvManifestFormatter();
             String line = null;
-            int stitchedManifestCount = 0;
             while ((line = reader.readLine()) != null) {
                 ManifestItem item = formatter.parseLine(line);
                 String contentId = item.getContentId();
                 if (!contentId.equals(Constants.SNAPSHOT_PROPS_FILENAME)) {
-                    if (!snapshotManifest.contains(ManifestFileHelper.formatManifestSetString(contentId,
-                                                                                         item.getContentChecksum()))) {
-                        String message = "Snapshot manifest does not contain content id/checksum combination ("
-                                         + contentId + ", " + item.getContentChecksum();
-                        errors.add(message);
+                    String checksum = item.getContentChecksum();
+                    if (!snapshotManifest.contains(contentId, checksum)) {
+                        found = addDifference(found, new Difference(contentId,
+                                                                    snapshotManifest.containsContentId(contentId),
+                                                                    null,
+                                                                    checksum));
                     }
                     stitchedManifestCount++;
                 }
             }
+        }
+
+        this.snapshotCount = snapshotManifest.size();
+        this.spaceCount = stitchedManifestCount;
+        if (snapshotCount - spaceCount + extra > 0) {
+            // entries of the snapshot manifest are missing from the space. The
+            // index is keyed by hash so cannot name them: the sorted merge can,
+            // using the space manifest which has already been fetched.
+            log.error("Snapshot Manifest size ({}) does not equal DuraCloud Manifest ({}): " +
+                      "comparing the manifests by sorted merge to find the missing entries",
+                      snapshotCount, spaceCount);
+            verifyBySortedMerge();
+            return;
+        }
 
-            int snapshotCount = snapshotManifest.size();
-            if (stitchedManifestCount != snapshotCount) {
-                String message = "Snapshot Manifest size (" + snapshotCount +
-                                 ") does not equal DuraCloud Manifest (" + stitchedManifestCount + ")";
-                errors.add(message);
-                log.error(message);
+        reportSummary();
+        this.differences = contentStore != null ? found : null;
+    }
+
+    private void verifyBySortedMerge() throws Exception {
+        // also called once an index comparison is under way
+        resetResult();
+        File tempDir = manifestIndexFile.getAbsoluteFile().getParentFile();
+        try (ExternalSorter snapshotEntries =
+                 new ExternalSorter(tempDir, ExternalSorter.DEFAULT_MAX_LINES_IN_MEMORY, ENTRY_ORDER);
+             ExternalSorter spaceEntries =
+                 new ExternalSorter(tempDir, ExternalSorter.DEFAULT_MAX_LINES_IN_MEMORY, ENTRY_ORDER)) {
+
+            try (ManifestScanner scanner = new ManifestScanner(md5Manifest)) {
+                while (scanner.next()) {
+                    snapshotEntries.add(scanner.getContentId() + "\t" + scanner.getChecksum());
+                }
             }
 
-        } catch (Exception e) {
-            String message = "Failed to verify space manifest against snapshot manifest:" + e.getMessage();
+            try (BufferedReader reader = openSpaceManifest()) {
+                ManifestFormatter formatter = new TsvManifestFormatter();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    ManifestItem item = formatter.parseLine(line);
+                    if (!item.getContentId().equals(Constants.SNAPSHOT_PROPS_FILENAME)) {
+                        spaceEntries.add(item.getContentId() + "\t" + item.getContentChecksum());
+                    }
+                }
+            }
+            log.info("sorted snapshot manifest ({} entries) and space manifest ({} entries)",
+                     snapshotEntries.size(), spaceEntries.size());
+
+            diff(snapshotEntries, spaceEntries);
+        }
+    }
+
+    /**
+     * Walks both sorted manifests in step, reporting the entries found in
+     * only one of them and the entries whose checksums differ.
+     */
+    private void diff(ExternalSorter snapshotEntries, ExternalSorter spaceEntries) throws IOException {
+        this.snapshotCount = snapshotEntries.size();
+        this.spaceCount = spaceEntries.size();
+        List<Difference> found = new ArrayList<>();
+
+        String snapshotEntry = snapshotEntries.readLine();
+        String spaceEntry = spaceEntries.readLine();
+        while (snapshotEntry != null || spaceEntry != null) {
+            int result;
+            if (snapshotEntry == null) {
+                result = 1;
+            } else if (spaceEntry == null) {
+                result = -1;
+            } else {
+                result = compareContentIds(snapshotEntry, spaceEntry);
+            }
+
+            Difference difference = null;
+            if (result < 0) {
+                difference = new Difference(contentId(snapshotEntry), true, checksum(snapshotEntry), null);
+                snapshotEntry = snapshotEntries.readLine();
+            } else if (result > 0) {
+                difference = new Difference(contentId(spaceEntry), false, null, checksum(spaceEntry));
+                spaceEntry = spaceEntries.readLine();
+            } else {
+                if (!snapshotEntry.equals(spaceEntry)) {
+                    difference = new Difference(contentId(snapshotEntry),
+                                                true,
+                                                checksum(snapshotEntry),
+                                                checksum(spaceEntry));
+                }
+                snapshotEntry = snapshotEntries.readLine();
+                spaceEntry = spaceEntries.readLine();
+            }
+
+            if (difference != null) {
+                found = addDifference(found, difference);
+            }
+        }
+
+        reportSummary();
+        this.differences = contentStore != null ? found : null;
+    }
+
+    /**
+     * Reports the difference and adds it to those found, unless there are
+     * too many to re-check one by one, in which case the next attempt
+     * rescans (indicated by returning null).
+     */
+    private List<Difference> addDifference(List<Difference> found, Difference difference) {
+        reportDifference(difference);
+        if (found != null) {
+            found.add(difference);
+            if (found.size() > MAX_INCREMENTAL_DIFFERENCES) {
+                return null;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Re-checks only the entries which differed on the previous attempt by
+     * looking up their current checksums in the space, rather than fetching
+     * and diffing the whole space manifest again. Entries which matched on
+     * the previous attempt are assumed to still match.
+     */
+    private void verifyIncrementally() throws Exception {
+        log.info("re-checking {} content items which did not match the snapshot manifest", differences.size());
+        Iterator<Difference> it = differences.iterator();
+        while (it.hasNext()) {
+            Difference difference = it.next();
+            String spaceChecksum = getSpaceChecksum(difference.contentId);
+            if (difference.spaceChecksum == null && spaceChecksum != null) {
+                spaceCount++;
+            } else if (difference.spaceChecksum != null && spaceChecksum == null) {
+                spaceCount--;
+            }
+
+            difference.spaceChecksum = spaceChecksum;
+            if (matchesSnapshot(difference)) {
+                it.remove();
+            } else {
+                reportDifference(difference);
+            }
+        }
+
+        reportSummary();
+    }
+
+    private boolean matchesSnapshot(Difference difference) throws IOException {
+        if (difference.inSnapshot && difference.snapshotChecksum == null) {
+            // only the index of the snapshot manifest knows its checksum
+            return difference.spaceChecksum != null &&
+                   getSnapshotIndex().contains(difference.contentId, difference.spaceChecksum);
+        }
+        return Objects.equals(difference.snapshotChecksum, difference.spaceChecksum);
+    }
+
+    /**
+     * @return the checksum of the content item in the space (the source
+     * checksum if it is chunked) or null if the space does not contain it.
+     */
+    private String getSpaceChecksum(String contentId) throws Exception {
+        try {
+            Map<String, String> properties = contentStore.getContentProperties(spaceId, contentId);
+            return properties.get(ContentStore.CONTENT_CHECKSUM);
+        } catch (NotFoundException e) {
+            try {
+                Content content = contentStore.getContent(spaceId, contentId + ChunksManifest.manifestSuffix);
+                try (InputStream stream = content.getStream()) {
+                    return ManifestDocumentBinding.createManifestFrom(stream).getHeader().getSourceMD5();
+                }
+            } catch (NotFoundException ex) {
+                return null;
+            }
+        }
+    }
+
+    private void reportDifference(Difference difference) {
+        String message;
+        String snapshotEntry = difference.contentId +
+                               (difference.snapshotChecksum != null ? ", " + difference.snapshotChecksum : "");
+        if (difference.spaceChecksum == null) {
+            message = "Space manifest does not contain snapshot manifest entry (" + snapshotEntry + ")";
+            missing++;
+        } else if (!difference.inSnapshot) {
+            message = "Snapshot manifest does not contain content id/checksum combination (" +
+                      difference.contentId + ", " + difference.spaceChecksum + ")";
+            extra++;
+        } else {
+            message = "Checksum of snapshot manifest entry (" + snapshotEntry + ") does not match " +
+                      "space manifest entry (" + difference.contentId + ", " + difference.spaceChecksum + ")";
+            mismatched++;
+        }
+
+        log.error(message);
+        if (errors.size() < MAX_REPORTED_DIFFERENCES) {
             errors.add(message);
-            log.error(message, e);
         }
+    }
 
-        log.info("verification complete. error count = {}", errors.size());
-        return getResult(errors);
+    private void reportSummary() {
+        if (missing + extra + mismatched > 0) {
+            String message = "Snapshot Manifest (" + snapshotCount + " entries) does not match " +
+                             "DuraCloud Manifest (" + spaceCount + " entries): " +
+                             missing + " missing from the space, " +
+                             extra + " not in the snapshot, " +
+                             mismatched + " with mismatched checksums";
+            errors.add(message);
+            log.error(message);
+        }
+    }
+
+    private static String contentId(String entry) {
+        return entry.substring(0, entry.lastIndexOf('\t'));
+    }
+
+    private static String checksum(String entry) {
+        return entry.substring(entry.lastIndexOf('\t') + 1);
+    }
+
+    private static int compareContentIds(String a, String b) {
+        int aEnd = a.lastIndexOf('\t');
+        int bEnd = b.lastIndexOf('\t');
+        int length = Math.min(aEnd, bEnd);
+        for (int i = 0; i < length; i++) {
+            int result = Character.compare(a.charAt(i), b.charAt(i));
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Integer.compare(aEnd, bEnd);
     }
 
     private boolean getResult(List<String> errors) {
         return errors.size() == 0;
     }
 
+    /**
+     * Releases what is kept between verifications: the differences found,
+     * the local copy of the space manifest and the open index of the
+     * snapshot manifest. To be called by the owner of the verifier at the
+     * end of its step.
+     *
+     * @param deleteIndex true to delete the index file as well, ie because
+     *                    the step has completed.
+     */
+    public void close(boolean deleteIndex) {
+        differences = null;
+        deleteSpaceManifest();
+        IOUtils.closeQuietly(snapshotIndex);
+        snapshotIndex = null;
+        if (deleteIndex && manifestIndexFile.exists() && !manifestIndexFile.delete()) {
+            log.warn("unable to delete manifest index {}", manifestIndexFile.getAbsolutePath());
+        }
+    }
+
     public List<String> getErrors() {
         if (this.errors == null) {
             throw new IllegalStateException("You must call execute() before attempting to access the errors");
@@ -135,6 +135,7 @@ public class SpaceVerifier extends StepExecutionSupport
                      status);
         }
 
+        verifier.close(errors.isEmpty());
         return status;
     }
 
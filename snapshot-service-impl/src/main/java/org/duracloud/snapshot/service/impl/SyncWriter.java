@@ -8,12 +8,21 @@
 package org.duracloud.snapshot.service.impl;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.List;
+import java.util.Map;
 
 import org.duracloud.client.ContentStore;
 import org.duracloud.common.constant.Constants;
 import org.duracloud.common.retry.Retriable;
 import org.duracloud.common.retry.Retrier;
+import org.duracloud.common.util.ChecksumUtil;
+import org.duracloud.common.util.ContentIdUtil;
+import org.duracloud.common.util.MimetypeUtil;
 import org.duracloud.domain.Space;
 import org.duracloud.error.ContentStoreException;
 import org.duracloud.error.NotFoundException;
@@ -44,6 +53,16 @@ public class SyncWriter extends StepExecutionSupport implements ItemWriter<File>
     private String destinationSpaceId;
     private RestoreManager restoreManager;
     private String restorationId;
+    private ParallelChunkUploader chunkUploader;
+    private File chunkDbFile;
+    private GroupCommitCache chunkCache;
+    private ParallelChunkRetriever.ChunkProgress chunkProgress;
+    private File contentPropertiesFile;
+    private File contentPropertiesIndexFile;
+    private ContentPropertiesIndex contentPropertiesIndex;
+    private File md5Manifest;
+    private File md5ManifestIndexFile;
+    private ManifestIndex md5ManifestIndex;
 
     /**
      * @param restorationId
@@ -68,6 +87,125 @@ public class SyncWriter extends StepExecutionSupport implements ItemWriter<File>
         this.restorationId = restorationId;
     }
 
+    /**
+     * Sets the uploader of files large enough to be chunked. If no uploader
+     * is set, all files are uploaded through the sync endpoint.
+     *
+     * @param chunkUploader
+     * @param chunkDbFile   the file in which the chunks uploaded so far are
+     *                      recorded until the step completes
+     */
+    public void setChunkUploader(ParallelChunkUploader chunkUploader, File chunkDbFile) {
+        this.chunkUploader = chunkUploader;
+        this.chunkDbFile = chunkDbFile;
+    }
+
+    /**
+     * Uploads each file with its properties from the content properties file
+     * of the restore, rather than leaving the properties to be set by a later
+     * step. Files are then uploaded directly rather than through the sync
+     * endpoint.
+     *
+     * @param contentPropertiesFile      the content properties file
+     * @param contentPropertiesIndexFile the file in which the index of the
+     *                                   content properties file is persisted
+     */
+    public void setContentProperties(File contentPropertiesFile, File contentPropertiesIndexFile) {
+        this.contentPropertiesFile = contentPropertiesFile;
+        this.contentPropertiesIndexFile = contentPropertiesIndexFile;
+    }
+
+    /**
+     * Sets the MD5 manifest of the restore, from which the checksums of
+     * chunked files are taken (when they are not among the properties of the
+     * file) so that the chunk uploader does not have to compute them.
+     *
+     * @param md5Manifest          the verified MD5 manifest of the restore
+     * @param md5ManifestIndexFile the file in which the index of the
+     *                             manifest is kept
+     */
+    public void setMd5Manifest(File md5Manifest, File md5ManifestIndexFile) {
+        this.md5Manifest = md5Manifest;
+        this.md5ManifestIndexFile = md5ManifestIndexFile;
+    }
+
+    /**
+     * @return the MD5 of the content from its properties or the MD5 manifest,
+     * or null if neither is available
+     */
+    private String getKnownMd5(String contentId, Map<String, String> properties) throws IOException {
+        String md5 = properties == null ? null : properties.get(ContentStore.CONTENT_CHECKSUM);
+        if (md5 == null && md5Manifest != null) {
+            md5 = getMd5ManifestIndex().getMd5(contentId);
+        }
+        return md5;
+    }
+
+    private synchronized ManifestIndex getMd5ManifestIndex() throws IOException {
+        if (this.md5ManifestIndex == null) {
+            this.md5ManifestIndex = ManifestIndex.open(md5Manifest, md5ManifestIndexFile);
+        }
+        return this.md5ManifestIndex;
+    }
+
+    /**
+     * Closes the index of the MD5 manifest, which is kept for the step which
+     * verifies the restore.
+     */
+    private synchronized void closeMd5ManifestIndex() {
+        if (this.md5ManifestIndex != null) {
+            try {
+                this.md5ManifestIndex.close();
+            } catch (IOException e) {
+                log.warn("failed to close the index of {}: {}", md5Manifest.getAbsolutePath(), e.getMessage());
+            }
+            this.md5ManifestIndex = null;
+        }
+    }
+
+    private synchronized ContentPropertiesIndex getContentPropertiesIndex() throws IOException {
+        if (this.contentPropertiesIndex == null) {
+            this.contentPropertiesIndex =
+                ContentPropertiesIndex.open(contentPropertiesFile, contentPropertiesIndexFile);
+        }
+        return this.contentPropertiesIndex;
+    }
+
+    private synchronized void closeContentPropertiesIndex(boolean delete) {
+        if (this.contentPropertiesIndex != null) {
+            if (delete) {
+                this.contentPropertiesIndex.delete();
+            } else {
+                this.contentPropertiesIndex.close();
+            }
+            this.contentPropertiesIndex = null;
+        } else if (delete && this.contentPropertiesIndexFile != null) {
+            // an index left by an earlier attempt of the step
+            this.contentPropertiesIndexFile.delete();
+        }
+    }
+
+    private synchronized ParallelChunkRetriever.ChunkProgress getChunkProgress() {
+        if (this.chunkProgress == null) {
+            this.chunkCache = new GroupCommitCache(this.chunkDbFile);
+            this.chunkCache.open();
+            this.chunkProgress = new CachedChunkProgress(chunkCache, "chunks");
+        }
+        return this.chunkProgress;
+    }
+
+    private synchronized void closeChunkCache(boolean delete) {
+        if (this.chunkCache != null) {
+            if (delete) {
+                this.chunkCache.delete();
+            } else {
+                this.chunkCache.close();
+            }
+            this.chunkCache = null;
+            this.chunkProgress = null;
+        }
+    }
+
     // StepExecution Interface
     /*
      * (non-Javadoc)
@@ -88,11 +226,17 @@ public class SyncWriter extends StepExecutionSupport implements ItemWriter<File>
                 // restore the snapshot props file to the data directory.
                 restoreFile(new File(this.watchDir.getParentFile(), Constants.SNAPSHOT_PROPS_FILENAME),
                             watchDir.getParentFile());
+                closeChunkCache(true);
+                closeContentPropertiesIndex(true);
+                closeMd5ManifestIndex();
                 return status.and(ExitStatus.COMPLETED);
 
             } catch (Exception e) {
                 String message = "failed to transition restore status: " + e.getMessage();
                 log.error(message, e);
+                closeChunkCache(false);
+                closeContentPropertiesIndex(false);
+                closeMd5ManifestIndex();
                 return status.and(ExitStatus.FAILED).addExitDescription(message);
             }
 
@@ -106,6 +250,10 @@ public class SyncWriter extends StepExecutionSupport implements ItemWriter<File>
             }
 
             resetContextState();
+            // keep the uploaded chunks so that the restarted step resumes them
+            closeChunkCache(false);
+            closeContentPropertiesIndex(false);
+            closeMd5ManifestIndex();
 
             return status;
         }
@@ -172,6 +320,33 @@ public class SyncWriter extends StepExecutionSupport implements ItemWriter<File>
      * @throws Exception
      */
     private void restoreFile(final File file, final File watchDir) throws Exception {
+        boolean chunked = chunkUploader != null && chunkUploader.isChunked(file);
+        if (chunked || contentPropertiesFile != null) {
+            try {
+                String contentId = ContentIdUtil.getContentId(file, watchDir, null);
+                Map<String, String> properties = null;
+                if (contentPropertiesFile != null) {
+                    properties = getContentPropertiesIndex().getProperties(contentId);
+                }
+
+                if (chunked) {
+                    // chunks are retried individually by the uploader
+                    chunkUploader.upload(destinationSpaceId,
+                                         contentId,
+                                         file,
+                                         getChunkProgress(),
+                                         properties,
+                                         getKnownMd5(contentId, properties));
+                } else {
+                    uploadFile(contentId, file, properties);
+                }
+            } catch (Exception ex) {
+                log.error("failed to upload " + file.getAbsolutePath() + ": " + ex.getMessage(), ex);
+                addError(ex.getMessage());
+            }
+            return;
+        }
+
         try {
             new Retrier().execute(new Retriable() {
 
@@ -199,6 +374,51 @@ public class SyncWriter extends StepExecutionSupport implements ItemWriter<File>
         }
     }
 
+    /**
+     * Uploads the file with its properties in a single call. The MD5 of the
+     * file is computed as it is uploaded and checked against the checksum
+     * computed by DuraCloud.
+     *
+     * @param contentId
+     * @param file
+     * @param properties the properties of the content, or null if it has none
+     * @throws Exception
+     */
+    private void uploadFile(final String contentId, final File file, final Map<String, String> properties)
+        throws Exception {
+        String mimetype = properties == null ? null : properties.get(ContentStore.CONTENT_MIMETYPE);
+        final String contentMimetype = mimetype != null ? mimetype : new MimetypeUtil().getMimeType(file);
+        final String checksum = properties == null ? null : properties.get(ContentStore.CONTENT_CHECKSUM);
+
+        new Retrier().execute(new Retriable() {
+
+            @Override
+            public Object retry() throws Exception {
+                MessageDigest md5 = MessageDigest.getInstance("MD5");
+                String result;
+                try (InputStream stream = new DigestInputStream(new FileInputStream(file), md5)) {
+                    result = contentStore.addContent(destinationSpaceId,
+                                                     contentId,
+                                                     stream,
+                                                     file.length(),
+                                                     contentMimetype,
+                                                     checksum,
+                                                     properties);
+                }
+
+                String fileChecksum = ChecksumUtil.checksumBytesToString(md5.digest());
+                if (!fileChecksum.equals(result)) {
+                    throw new IOException("Checksum of uploaded " + contentId + " (" + result +
+                                          ") does not match the checksum of " + file.getAbsolutePath() +
+                                          " (" + fileChecksum + ")");
+                }
+
+                log.info("successfully uploaded {} with its properties", file.getAbsolutePath());
+                return result;
+            }
+        });
+    }
+
     /*
      * (non-Javadoc)
      *
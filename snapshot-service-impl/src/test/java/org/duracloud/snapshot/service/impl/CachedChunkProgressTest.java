@@ -0,0 +1,78 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class CachedChunkProgressTest {
+
+    private File dbFile;
+    private GroupCommitCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        dbFile = File.createTempFile("chunk-progress", ".db");
+        dbFile.delete();
+        cache = new GroupCommitCache(dbFile);
+        cache.open();
+    }
+
+    @After
+    public void tearDown() {
+        cache.close();
+        dbFile.delete();
+    }
+
+    @Test
+    public void testCompletedChunks() throws Exception {
+        CachedChunkProgress progress = new CachedChunkProgress(cache, "chunks");
+        progress.chunkCompleted("content", 0, "md5-0");
+        progress.chunkCompleted("content", 2, "md5-2");
+        // a content id which the other is a prefix of is kept apart
+        progress.chunkCompleted("content-2", 1, "other-md5-1");
+
+        Map<Integer, String> completed = progress.getCompletedChunks("content");
+        assertEquals(2, completed.size());
+        assertEquals("md5-0", completed.get(0));
+        assertEquals("md5-2", completed.get(2));
+        assertEquals(1, progress.getCompletedChunks("content-2").size());
+    }
+
+    @Test
+    public void testProgressSurvivesRestart() throws Exception {
+        new CachedChunkProgress(cache, "chunks").chunkCompleted("content", 0, "md5-0");
+        cache.close();
+
+        cache = new GroupCommitCache(dbFile);
+        cache.open();
+        Map<Integer, String> completed = new CachedChunkProgress(cache, "chunks").getCompletedChunks("content");
+        assertEquals("md5-0", completed.get(0));
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        CachedChunkProgress progress = new CachedChunkProgress(cache, "chunks");
+        progress.chunkCompleted("content", 0, "md5-0");
+        progress.chunkCompleted("content-2", 0, "other-md5-0");
+
+        progress.clear("content");
+        assertTrue(progress.getCompletedChunks("content").isEmpty());
+        assertEquals("other-md5-0", progress.getCompletedChunks("content-2").get(0));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class ContentAddressedStoreTest {
+
+    private static final String MD5 = "0123456789abcdef0123456789abcdef";
+
+    private File tempDir;
+    private ContentAddressedStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("content-store").toFile();
+        store = new ContentAddressedStore(new File(tempDir, "store"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    private File write(String name, String content) throws Exception {
+        File file = new File(tempDir, name);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private String read(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testAddAndRetrieve() throws Exception {
+        File source = write("snapshot-1/data/content", "content");
+        assertFalse(store.contains(MD5));
+        store.add(MD5, source);
+        assertTrue(store.contains(MD5));
+        assertTrue(store.contains(MD5.toUpperCase()));
+
+        // the stored content outlives the snapshot it was added from
+        FileUtils.deleteDirectory(new File(tempDir, "snapshot-1"));
+
+        File target = new File(tempDir, "snapshot-2/data/dir/content");
+        assertTrue(store.retrieve(MD5, target));
+        assertEquals("content", read(target));
+    }
+
+    @Test
+    public void testRetrieveReplacesExistingFile() throws Exception {
+        store.add(MD5, write("source", "content"));
+        File target = write("target", "partially retrieved");
+        assertTrue(store.retrieve(MD5, target));
+        assertEquals("content", read(target));
+    }
+
+    @Test
+    public void testAddIsIdempotent() throws Exception {
+        store.add(MD5, write("source-1", "content"));
+        store.add(MD5, write("source-2", "content"));
+        assertEquals(1, new File(tempDir, "store/01").list().length);
+    }
+
+    @Test
+    public void testDetach() throws Exception {
+        File unlinked = write("unlinked", "content");
+        store.detach(unlinked);
+        assertTrue(unlinked.exists());
+
+        store.add(MD5, write("source", "content"));
+        File linked = new File(tempDir, "linked");
+        store.retrieve(MD5, linked);
+        store.detach(linked);
+        assertFalse(linked.exists());
+        assertTrue(store.contains(MD5));
+    }
+
+    @Test
+    public void testPrune() throws Exception {
+        String other = "fedcba9876543210fedcba9876543210";
+        store.add(MD5, write("source-1", "content"));
+        store.add(other, write("source-2", "other content"));
+        File linked = new File(tempDir, "linked");
+        store.retrieve(other, linked);
+
+        assertEquals(1, store.prune(Collections.singleton(MD5)));
+        assertTrue(store.contains(MD5));
+        assertFalse(store.contains(other));
+        // content linked out of the store is unaffected
+        assertEquals("other content", read(linked));
+        assertFalse(store.retrieve(other, new File(tempDir, "target")));
+    }
+
+    @Test
+    public void testLinkFailureOnlyAffectsOneFile() throws Exception {
+        // directories cannot be hard linked, which fails with a reason other
+        // than the file systems differing
+        File directory = new File(tempDir, "directory");
+        assertTrue(directory.mkdirs());
+        store.add(MD5, directory);
+        assertFalse(store.contains(MD5));
+
+        store.add(MD5, write("source", "content"));
+        assertTrue(store.contains(MD5));
+    }
+
+    @Test
+    public void testMissingContent() throws Exception {
+        File target = new File(tempDir, "target");
+        assertFalse(store.contains(null));
+        assertFalse(store.retrieve(MD5, target));
+        assertFalse(target.exists());
+    }
+}
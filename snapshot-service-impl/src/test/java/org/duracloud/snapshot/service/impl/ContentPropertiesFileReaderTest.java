@@ -8,11 +8,16 @@
 package org.duracloud.snapshot.service.impl;
 
 import java.io.File;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
 
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
 import org.springframework.batch.item.NonTransientResourceException;
 import org.springframework.batch.item.ParseException;
 import org.springframework.batch.item.UnexpectedInputException;
@@ -24,11 +29,16 @@ import org.springframework.util.CollectionUtils;
  */
 public class ContentPropertiesFileReaderTest {
 
+    private File tempDir;
+    private File testJsonFile;
+
     /**
      * @throws java.lang.Exception
      */
     @Before
     public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("content-properties-reader").toFile();
+        testJsonFile = new File(getClass().getResource("/content-properties.json").getFile());
     }
 
     /**
@@ -36,6 +46,16 @@ public class ContentPropertiesFileReaderTest {
      */
     @After
     public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    private ContentPropertiesFileReader createReader(final long itemsRead) {
+        return new ContentPropertiesFileReader(testJsonFile, new File(tempDir, "index.db")) {
+            @Override
+            protected long getItemsRead() {
+                return itemsRead;
+            }
+        };
     }
 
     /**
@@ -48,15 +68,7 @@ public class ContentPropertiesFileReaderTest {
      */
     @Test
     public void testRead() throws Exception {
-        String testJsonFile =
-            getClass().getResource("/content-properties.json").getFile();
-        ContentPropertiesFileReader reader =
-            new ContentPropertiesFileReader(new File(testJsonFile)) {
-                @Override
-                protected long getItemsRead() {
-                    return 0;
-                }
-            };
+        ContentPropertiesFileReader reader = createReader(0);
 
         ContentProperties props = null;
         int count = 0;
@@ -71,6 +83,31 @@ public class ContentPropertiesFileReaderTest {
         Assert.assertEquals(2, count++);
     }
 
+    @Test
+    public void testReadResumesFromIndex() throws Exception {
+        ContentPropertiesFileReader reader = createReader(0);
+        Assert.assertEquals("file0", reader.read().getContentId());
+
+        // the index is kept when the step does not complete
+        StepExecution stepExecution = new StepExecution("restoreContentProperties", null);
+        stepExecution.setExitStatus(ExitStatus.FAILED);
+        reader.afterStep(stepExecution);
+        File indexFile = new File(tempDir, "index.db");
+        Assert.assertTrue(indexFile.exists());
+
+        // a restarted step picks up at the first entry which was not read
+        reader = createReader(1);
+        ContentProperties props = reader.read();
+        verifyProps(props);
+        Assert.assertEquals("file1", props.getContentId());
+        Assert.assertEquals("283", props.getProperties().get("content-size"));
+        Assert.assertNull(reader.read());
+
+        stepExecution.setExitStatus(ExitStatus.COMPLETED);
+        reader.afterStep(stepExecution);
+        Assert.assertFalse(indexFile.exists());
+    }
+
     /**
      * @param props
      */
@@ -0,0 +1,108 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class ContentPropertiesIndexTest {
+
+    private File tempDir;
+    private File propertiesFile;
+    private File indexFile;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("content-properties-index").toFile();
+        propertiesFile = new File(tempDir, "content-properties.json");
+        indexFile = new File(tempDir, "content-properties.db");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    private void writeProperties(String json) throws Exception {
+        Files.write(propertiesFile.toPath(), json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testGetProperties() throws Exception {
+        writeProperties("[\n" +
+                        "{\"dir/content-1\":{\"content-mimetype\":\"text/plain\",\"key\":\"value-1\"}},\n" +
+                        "{\"content-\u00e9\":{\"key\":\"value-2\"}},\n" +
+                        "{\"content-3\":{}}\n" +
+                        "]");
+
+        try (ContentPropertiesIndex index = ContentPropertiesIndex.open(propertiesFile, indexFile)) {
+            Map<String, String> expected = new HashMap<>();
+            expected.put("content-mimetype", "text/plain");
+            expected.put("key", "value-1");
+            assertEquals(expected, index.getProperties("dir/content-1"));
+            assertEquals("value-2", index.getProperties("content-\u00e9").get("key"));
+            assertEquals(0, index.getProperties("content-3").size());
+            assertNull(index.getProperties("missing"));
+        }
+    }
+
+    @Test
+    public void testGetByPosition() throws Exception {
+        writeProperties("[{\"content-1\":{\"key\":\"value-1\"}},{\"content-2\":{\"key\":\"value-2\"}}]");
+
+        try (ContentPropertiesIndex index = ContentPropertiesIndex.open(propertiesFile, indexFile)) {
+            assertEquals(2, index.size());
+            assertEquals("content-2", index.get(1).getContentId());
+            assertEquals("value-2", index.get(1).getProperties().get("key"));
+            assertEquals("content-1", index.get(0).getContentId());
+            assertNull(index.get(2));
+        }
+    }
+
+    @Test
+    public void testRebuildWhenStale() throws Exception {
+        writeProperties("[{\"content-1\":{\"key\":\"value-1\"}}]");
+        try (ContentPropertiesIndex index = ContentPropertiesIndex.open(propertiesFile, indexFile)) {
+            assertEquals("value-1", index.getProperties("content-1").get("key"));
+        }
+
+        writeProperties("[{\"content-2\":{\"key\":\"value-2\"}},{\"content-1\":{\"key\":\"changed\"}}]");
+        propertiesFile.setLastModified(propertiesFile.lastModified() + 2000);
+        try (ContentPropertiesIndex index = ContentPropertiesIndex.open(propertiesFile, indexFile)) {
+            assertEquals("changed", index.getProperties("content-1").get("key"));
+            assertEquals("value-2", index.getProperties("content-2").get("key"));
+        }
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        writeProperties("[{\"content-1\":{\"key\":\"value-1\"}}]");
+        ContentPropertiesIndex index = ContentPropertiesIndex.open(propertiesFile, indexFile);
+        assertTrue(indexFile.exists());
+
+        index.delete();
+        assertFalse(indexFile.exists());
+        assertTrue(propertiesFile.exists());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class ContentPropertiesJsonWriterTest {
+
+    private File propsFile;
+
+    @Before
+    public void setUp() throws Exception {
+        propsFile = File.createTempFile("content-properties", ".json");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        propsFile.delete();
+    }
+
+    @Test
+    public void testConcurrentWrites() throws Exception {
+        final ContentPropertiesJsonWriter writer = new ContentPropertiesJsonWriter(propsFile, 10);
+        writer.open();
+
+        final int threads = 4;
+        final int itemsPerThread = 250;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < itemsPerThread; i++) {
+                    String contentId = "dir/content \"" + thread + "-" + i + "\"";
+                    writer.write(contentId, createProperties(contentId));
+                }
+                return null;
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        writer.close();
+
+        ContentPropertiesFileReader reader = new ContentPropertiesFileReader(propsFile) {
+            @Override
+            protected long getItemsRead() {
+                return 0;
+            }
+        };
+
+        int count = 0;
+        ContentProperties props;
+        while ((props = reader.read()) != null) {
+            assertEquals(createProperties(props.getContentId()), props.getProperties());
+            count++;
+        }
+
+        assertEquals(threads * itemsPerThread, count);
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void testNoEntries() throws Exception {
+        ContentPropertiesJsonWriter writer = new ContentPropertiesJsonWriter(propsFile);
+        writer.open();
+        writer.close();
+
+        ContentPropertiesFileReader reader = new ContentPropertiesFileReader(propsFile) {
+            @Override
+            protected long getItemsRead() {
+                return 0;
+            }
+        };
+        assertNull(reader.read());
+    }
+
+    private Map<String, String> createProperties(String contentId) {
+        Map<String, String> props = new HashMap<>();
+        props.put("content-id", contentId);
+        props.put("path", "c:\\dir\\" + contentId);
+        return props;
+    }
+}
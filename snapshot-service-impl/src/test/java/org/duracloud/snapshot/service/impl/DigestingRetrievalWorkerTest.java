@@ -0,0 +1,107 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.duracloud.client.ContentStore;
+import org.duracloud.common.model.ContentItem;
+import org.duracloud.common.util.ChecksumUtil;
+import org.duracloud.common.util.ChecksumUtil.Algorithm;
+import org.duracloud.retrieval.mgmt.OutputWriter;
+import org.duracloud.retrieval.mgmt.RetrievalListener;
+import org.duracloud.retrieval.source.ContentStream;
+import org.duracloud.retrieval.source.RetrievalSource;
+import org.duracloud.snapshot.common.test.SnapshotTestBase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class DigestingRetrievalWorkerTest extends SnapshotTestBase {
+
+    private File contentDir;
+    private ContentItem contentItem = new ContentItem("space-id", "content-id");
+    private byte[] content = "the quick brown fox".getBytes(StandardCharsets.UTF_8);
+
+    @Before
+    @Override
+    public void setup() throws Exception {
+        super.setup();
+        contentDir = new File(getTempDir(), "digesting-worker-" + System.currentTimeMillis());
+        assertTrue(contentDir.mkdirs());
+    }
+
+    @After
+    @Override
+    public void tearDown() {
+        super.tearDown();
+        FileUtils.deleteQuietly(contentDir);
+    }
+
+    @Test
+    public void testDigestsComputedWhileWriting() throws Exception {
+        String md5 = new ChecksumUtil(Algorithm.MD5).generateChecksum(new ByteArrayInputStream(content));
+        String sha256 = new ChecksumUtil(Algorithm.SHA_256).generateChecksum(new ByteArrayInputStream(content));
+
+        RetrievalSource source = setupSource(md5);
+        OutputWriter outputWriter = createNiceMock(OutputWriter.class);
+        replayAll();
+
+        DigestingRetrievalWorker worker =
+            new DigestingRetrievalWorker(contentItem, source, contentDir, true, outputWriter, false, false);
+        Map<String, String> props = worker.retrieveFile();
+
+        assertNotNull(props);
+        assertEquals(md5, worker.getMd5Checksum());
+        assertEquals(sha256, worker.getSha256Checksum());
+        assertEquals(sha256, new ChecksumUtil(Algorithm.SHA_256).generateChecksum(worker.getLocalFile()));
+    }
+
+    @Test
+    public void testChecksumMismatch() throws Exception {
+        RetrievalSource source = setupSource("not-the-md5");
+        OutputWriter outputWriter = createNiceMock(OutputWriter.class);
+        replayAll();
+
+        DigestingRetrievalWorker worker =
+            new DigestingRetrievalWorker(contentItem, source, contentDir, true, outputWriter, false, false);
+        Map<String, String> props = worker.retrieveFile();
+
+        assertNull(props);
+        assertNull(worker.getSha256Checksum());
+        assertFalse(worker.getLocalFile().exists());
+    }
+
+    private RetrievalSource setupSource(String md5) throws IOException {
+        RetrievalSource source = createMock(RetrievalSource.class);
+        Map<String, String> props = new HashMap<>();
+        props.put(ContentStore.CONTENT_CHECKSUM, md5);
+        expect(source.getSourceContent(eq(contentItem), anyObject(RetrievalListener.class)))
+            .andAnswer(() -> new ContentStream(new ByteArrayInputStream(content), props))
+            .anyTimes();
+        return source;
+    }
+}
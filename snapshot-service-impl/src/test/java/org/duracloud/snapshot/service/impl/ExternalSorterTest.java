@@ -0,0 +1,84 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class ExternalSorterTest {
+
+    private File tempDir;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("external-sorter").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    @Test
+    public void testSortInMemory() throws Exception {
+        testSort(100, 1000);
+        assertEquals(0, tempDir.list().length);
+    }
+
+    @Test
+    public void testSortWithSpills() throws Exception {
+        testSort(10000, 333);
+    }
+
+    @Test
+    public void testSortNothing() throws Exception {
+        try (ExternalSorter sorter = new ExternalSorter(tempDir, 10, Comparator.naturalOrder())) {
+            assertNull(sorter.readLine());
+        }
+    }
+
+    private void testSort(int count, int maxLinesInMemory) throws Exception {
+        List<String> lines = new ArrayList<>(count);
+        Random random = new Random(count);
+        for (int i = 0; i < count; i++) {
+            lines.add("line-" + random.nextInt(count / 2));
+        }
+
+        try (ExternalSorter sorter = new ExternalSorter(tempDir, maxLinesInMemory, Comparator.naturalOrder())) {
+            for (String line : lines) {
+                sorter.add(line);
+            }
+            assertEquals(count, sorter.size());
+
+            Collections.sort(lines);
+            for (String line : lines) {
+                assertEquals(line, sorter.readLine());
+            }
+            assertNull(sorter.readLine());
+        }
+
+        // the spilled runs are deleted on close
+        assertEquals(0, tempDir.list().length);
+    }
+}
@@ -10,10 +10,13 @@ package org.duracloud.snapshot.service.impl;
 import static org.easymock.EasyMock.anyLong;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.duracloud.snapshot.common.test.SnapshotTestBase;
@@ -44,31 +47,62 @@ public class FileSystemReaderTest extends SnapshotTestBase {
      */
     @Test
     public void testRead() throws Exception {
-        StepExecution stepExecution = createMock(StepExecution.class);
-        ExecutionContext context = createMock(ExecutionContext.class);
-        expect(stepExecution.getExecutionContext()).andReturn(context);
-        expect(context.getLong(isA(String.class), anyLong())).andReturn(0l);
-
-        File rootDirectory =
-            new File(System.getProperty("java.io.tmpdir")
-                     + File.separator + "FileSystemReaderTest" + System.currentTimeMillis());
-        rootDirectory.mkdirs();
-        rootDirectory.deleteOnExit();
+        File rootDirectory = createRootDirectory();
 
         Set<File> files = new HashSet<>();
-        Set<File> results = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            File dir = new File(rootDirectory, i % 2 == 0 ? "" : "dir-" + i % 3);
+            dir.mkdirs();
+            File f = File.createTempFile("test-" + i, ".txt", dir);
+            f.deleteOnExit();
+            files.add(f);
+        }
 
+        List<File> results = readAll(rootDirectory, 0);
+
+        Assert.assertEquals(files.size(), results.size());
+        Assert.assertTrue(files.containsAll(results));
+    }
+
+    @Test
+    public void testReadResumesFromIndex() throws Exception {
+        File rootDirectory = createRootDirectory();
         for (int i = 0; i < 10; i++) {
-            File f = File.createTempFile("test-" + i, ".txt", rootDirectory);
+            File f = new File(rootDirectory, "dir-" + i % 3 + File.separator + "test-" + i + ".txt");
+            f.getParentFile().mkdirs();
             f.createNewFile();
             f.deleteOnExit();
-            files.add(f);
         }
 
-        replayAll();
+        List<File> results = readAll(rootDirectory, 0);
+        Assert.assertEquals(10, results.size());
+
+        // the index is reused, so files added since it was built are not read
+        new File(rootDirectory, "added.txt").createNewFile();
+        Assert.assertEquals(results.subList(4, 10), readAll(rootDirectory, 4));
+    }
+
+    private File createRootDirectory() {
+        File rootDirectory =
+            new File(System.getProperty("java.io.tmpdir")
+                     + File.separator + "FileSystemReaderTest" + System.nanoTime());
+        rootDirectory.mkdirs();
+        rootDirectory.deleteOnExit();
+        return rootDirectory;
+    }
 
-        FileSystemReader reader = new FileSystemReader(rootDirectory);
+    private List<File> readAll(File rootDirectory, long itemsRead) throws Exception {
+        StepExecution stepExecution = createMock(StepExecution.class);
+        ExecutionContext context = createMock(ExecutionContext.class);
+        expect(stepExecution.getExecutionContext()).andReturn(context);
+        expect(context.getLong(isA(String.class), anyLong())).andReturn(itemsRead);
+        replay(stepExecution, context);
+
+        File indexFile = new File(rootDirectory.getParentFile(), rootDirectory.getName() + ".idx");
+        indexFile.deleteOnExit();
+        FileSystemReader reader = new FileSystemReader(rootDirectory, indexFile);
         reader.beforeStep(stepExecution);
+        List<File> results = new ArrayList<>();
         while (true) {
             File file = reader.read();
             if (file == null) {
@@ -76,10 +110,7 @@ public class FileSystemReaderTest extends SnapshotTestBase {
             }
             results.add(file);
         }
-
-        Assert.assertEquals(files.size(), results.size());
-        Assert.assertTrue(files.containsAll(results));
-
+        return results;
     }
 
 }
@@ -0,0 +1,84 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class GroupCommitCacheTest {
+
+    private File dbFile;
+
+    @Before
+    public void setUp() throws Exception {
+        dbFile = File.createTempFile("group-commit-cache", ".db");
+        dbFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        dbFile.delete();
+    }
+
+    @Test
+    public void testSyncedWritesSurviveReopen() throws Exception {
+        GroupCommitCache cache = new GroupCommitCache(dbFile, 1000, 60000);
+        cache.open();
+        Map<String, String> map = cache.getMap("test");
+        for (int i = 0; i < 10; i++) {
+            cache.put(map, "key" + i, "value" + i);
+        }
+        cache.sync();
+        cache.close();
+
+        cache = new GroupCommitCache(dbFile);
+        cache.open();
+        map = cache.getMap("test");
+        assertEquals(10, map.size());
+        assertEquals("value5", map.get("key5"));
+        cache.delete();
+    }
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        final GroupCommitCache cache = new GroupCommitCache(dbFile, 7, 60000);
+        cache.open();
+        final Map<String, String> map = cache.getMap("test");
+        int threads = 5;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    cache.put(map, thread + "-" + i, "value");
+                }
+                cache.sync();
+                latch.countDown();
+            }).start();
+        }
+
+        Assert.assertTrue(latch.await(60, TimeUnit.SECONDS));
+        cache.close();
+
+        cache.open();
+        assertEquals(threads * 100, cache.getMap("test").size());
+        cache.delete();
+    }
+}
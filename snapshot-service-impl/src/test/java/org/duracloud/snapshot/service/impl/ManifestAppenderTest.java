@@ -0,0 +1,98 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class ManifestAppenderTest {
+
+    private File md5File;
+    private File sha256File;
+
+    @Before
+    public void setUp() throws Exception {
+        md5File = File.createTempFile("manifest-md5", ".txt");
+        sha256File = File.createTempFile("manifest-sha256", ".txt");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        md5File.delete();
+        sha256File.delete();
+    }
+
+    @Test
+    public void testConcurrentAppends() throws Exception {
+        final ManifestAppender appender = new ManifestAppender(md5File, sha256File);
+        appender.open();
+
+        final int threads = 4;
+        final int itemsPerThread = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < itemsPerThread; i++) {
+                    String suffix = thread + "_" + i;
+                    appender.appendMd5("content-" + suffix, "md5_" + suffix);
+                    appender.appendSha256("content-" + suffix, "sha_" + suffix);
+                }
+                return null;
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        // every entry appended before the sync must be in the files.
+        appender.sync();
+        verify(md5File, "md5_", threads * itemsPerThread);
+        verify(sha256File, "sha_", threads * itemsPerThread);
+
+        appender.close();
+        verify(md5File, "md5_", threads * itemsPerThread);
+    }
+
+    private void verify(File manifestFile, String checksumPrefix, int count) throws Exception {
+        List<String> lines = Files.readAllLines(manifestFile.toPath(), StandardCharsets.UTF_8);
+        assertEquals(count, lines.size());
+
+        Set<String> contentIds = new HashSet<>();
+        for (String line : lines) {
+            ManifestEntry entry = ManifestFileHelper.parseManifestEntry(line);
+            assertTrue(entry.getChecksum().startsWith(checksumPrefix));
+            assertEquals(entry.getChecksum().substring(checksumPrefix.length()),
+                         entry.getContentId().substring("content-".length()));
+            contentIds.add(entry.getContentId());
+        }
+        assertEquals(count, contentIds.size());
+    }
+}
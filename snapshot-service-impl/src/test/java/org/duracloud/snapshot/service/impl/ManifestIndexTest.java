@@ -0,0 +1,143 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+
+import org.apache.commons.io.FileUtils;
+import org.duracloud.common.util.ChecksumUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class ManifestIndexTest {
+
+    private File manifestFile;
+    private File indexFile;
+    private int count = 10000;
+
+    @Before
+    public void setUp() throws Exception {
+        manifestFile = File.createTempFile("manifest", ".txt");
+        indexFile = new File(manifestFile.getAbsolutePath() + ".idx");
+        writeManifest(count);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        manifestFile.delete();
+        indexFile.delete();
+    }
+
+    private void writeManifest(int entries) throws Exception {
+        try (Writer writer = new BufferedWriter(new FileWriter(manifestFile))) {
+            for (int i = 0; i < entries; i++) {
+                ManifestFileHelper.writeManifestEntry(writer, "dir/content-" + i, checksum(i));
+            }
+        }
+    }
+
+    private String checksum(int i) throws Exception {
+        // a mix of md5 checksums and checksums which are not hex encoded md5s
+        if (i % 2 == 0) {
+            byte[] md5 = MessageDigest.getInstance("MD5").digest(("content-" + i).getBytes(StandardCharsets.UTF_8));
+            return ChecksumUtil.checksumBytesToString(md5);
+        }
+        return "checksum" + i;
+    }
+
+    @Test
+    public void testContains() throws Exception {
+        try (ManifestIndex index = ManifestIndex.open(manifestFile, indexFile)) {
+            assertEquals(count, index.size());
+            for (int i = 0; i < count; i++) {
+                assertTrue(index.contains("dir/content-" + i, checksum(i)));
+            }
+
+            assertFalse(index.contains("dir/content-" + count, checksum(count)));
+            assertFalse(index.contains("dir/content-0", checksum(1)));
+            assertFalse(index.contains("dir/content-1", checksum(0)));
+            assertFalse(index.contains("dir/content-2", checksum(2).toUpperCase() + "0"));
+
+            assertTrue(index.containsContentId("dir/content-0"));
+            assertFalse(index.containsContentId("dir/content-" + count));
+        }
+    }
+
+    @Test
+    public void testIndexIsReused() throws Exception {
+        ManifestIndex.open(manifestFile, indexFile).close();
+        long lastModified = indexFile.lastModified();
+        indexFile.setLastModified(lastModified - 10000);
+
+        try (ManifestIndex index = ManifestIndex.open(manifestFile, indexFile)) {
+            assertEquals(count, index.size());
+        }
+        assertEquals(lastModified - 10000, indexFile.lastModified());
+    }
+
+    @Test
+    public void testGetMd5() throws Exception {
+        try (ManifestIndex index = ManifestIndex.open(manifestFile, indexFile)) {
+            for (int i = 0; i < count; i += 2) {
+                assertEquals(checksum(i), index.getMd5("dir/content-" + i));
+            }
+            assertNull(index.getMd5("dir/content-" + count));
+        }
+    }
+
+    @Test
+    public void testStaleIndexIsRebuilt() throws Exception {
+        ManifestIndex.open(manifestFile, indexFile).close();
+
+        writeManifest(count + 1);
+        try (ManifestIndex index = ManifestIndex.open(manifestFile, indexFile)) {
+            assertEquals(count + 1, index.size());
+            assertTrue(index.contains("dir/content-" + count, checksum(count)));
+        }
+    }
+
+    @Test
+    public void testEmptyManifest() throws Exception {
+        writeManifest(0);
+        try (ManifestIndex index = ManifestIndex.open(manifestFile, indexFile)) {
+            assertEquals(0, index.size());
+            assertFalse(index.contains("dir/content-0", checksum(0)));
+        }
+    }
+
+    @Test
+    public void testIndexFilesOfDifferentManifestsAreDistinct() throws Exception {
+        File workDir = Files.createTempDirectory("work").toFile();
+        try {
+            File manifest = new File("/content/restore-1/restore/manifest-md5.txt");
+            File otherManifest = new File("/content/restore-2/restore/manifest-md5.txt");
+            assertEquals(ManifestIndex.getIndexFile(workDir, manifest), ManifestIndex.getIndexFile(workDir, manifest));
+            assertNotEquals(ManifestIndex.getIndexFile(workDir, manifest),
+                            ManifestIndex.getIndexFile(workDir, otherManifest));
+        } finally {
+            FileUtils.deleteDirectory(workDir);
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class ManifestScannerTest {
+
+    private static final String MD5 = "0123456789abcdefABCDEF0123456789";
+
+    private File manifestFile;
+
+    @Before
+    public void setUp() throws Exception {
+        manifestFile = File.createTempFile("manifest", ".txt");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        manifestFile.delete();
+    }
+
+    private void write(String content) throws Exception {
+        Files.write(manifestFile.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testScan() throws Exception {
+        write(MD5 + "  data/dir/content-1\n" +
+              "not_hex\tdata/content 2\r\n" +
+              MD5 + " data/\u00e9t\u00e9\n" +
+              "not a manifest line\n" +
+              MD5 + "  data/last-line-without-break");
+
+        // a window smaller than the lines exercises remapping
+        for (int windowSize : new int[] {8, 40, 1024}) {
+            try (ManifestScanner scanner = new ManifestScanner(manifestFile, windowSize)) {
+                assertTrue(scanner.next());
+                assertEquals(MD5, scanner.getChecksum());
+                assertEquals("dir/content-1", scanner.getContentId());
+                assertTrue(scanner.isHexChecksum(32));
+                assertFalse(scanner.isHexChecksum(64));
+
+                assertTrue(scanner.next());
+                assertEquals("not_hex", scanner.getChecksum());
+                assertEquals("content 2", scanner.getContentId());
+                assertFalse(scanner.isHexChecksum(7));
+
+                assertTrue(scanner.next());
+                assertEquals("\u00e9t\u00e9", scanner.getContentId());
+
+                try {
+                    scanner.next();
+                    fail("expected parse exception");
+                } catch (ParseException ex) {
+                    // expected
+                }
+
+                assertTrue(scanner.next());
+                assertEquals("last-line-without-break", scanner.getContentId());
+                assertEquals(5, scanner.getLinesRead());
+                assertFalse(scanner.next());
+            }
+        }
+    }
+
+    @Test
+    public void testSkip() throws Exception {
+        write(MD5 + "  data/content-1\n" + MD5 + "  data/content-2\n");
+        try (ManifestScanner scanner = new ManifestScanner(manifestFile, 16)) {
+            assertTrue(scanner.skip());
+            assertTrue(scanner.next());
+            assertEquals("content-2", scanner.getContentId());
+            assertFalse(scanner.skip());
+        }
+    }
+
+    @Test
+    public void testEmptyFile() throws Exception {
+        try (ManifestScanner scanner = new ManifestScanner(manifestFile)) {
+            assertFalse(scanner.next());
+            assertEquals(0, scanner.getLinesRead());
+        }
+    }
+
+}
@@ -7,6 +7,7 @@
  */
 package org.duracloud.snapshot.service.impl;
 
+import static org.easymock.EasyMock.anyDouble;
 import static org.easymock.EasyMock.anyLong;
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
@@ -97,6 +98,7 @@ public class ManifestVerifierTest extends EasyMockSupport {
      */
     private void createVerifier() {
         this.verifier = new ManifestVerifier(restoreId, restoreDir, restoreManager);
+        this.verifier.setThreads(4);
     }
 
     @Test
@@ -175,6 +177,10 @@ public class ManifestVerifierTest extends EasyMockSupport {
 
         context.putLong(isA(String.class), anyLong());
         expectLastCall().atLeastOnce();
+        context.putDouble(eq(ManifestVerifier.MB_PER_SECOND_KEY), anyDouble());
+        expectLastCall().atLeastOnce();
+        context.putDouble(eq(ManifestVerifier.FILES_PER_SECOND_KEY), anyDouble());
+        expectLastCall().atLeastOnce();
 
         List<String> errors = new LinkedList<>();
         expect(context.get(eq(StepExecutionSupport.ERRORS_KEY))).andReturn(errors).atLeastOnce();
@@ -0,0 +1,205 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.duracloud.chunk.manifest.ChunksManifest;
+import org.duracloud.chunk.manifest.xml.ManifestDocumentBinding;
+import org.duracloud.client.ContentStore;
+import org.duracloud.common.model.ContentItem;
+import org.duracloud.common.util.ChecksumUtil;
+import org.duracloud.common.util.ChecksumUtil.Algorithm;
+import org.duracloud.domain.Content;
+import org.duracloud.retrieval.source.RetrievalSource;
+import org.duracloud.snapshot.common.test.SnapshotTestBase;
+import org.easymock.Mock;
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class ParallelChunkRetrieverTest extends SnapshotTestBase {
+
+    private static final String SPACE_ID = "space-id";
+    private static final String CONTENT_ID = "content-id";
+    private static final byte[] CONTENT = "0123456789abcdefghij".getBytes(StandardCharsets.UTF_8);
+    private static final int CHUNK_SIZE = 6;
+
+    @Mock
+    private ContentStore contentStore;
+
+    @Mock
+    private RetrievalSource retrievalSource;
+
+    private File tempDir;
+    private File localFile;
+    private GroupCommitCache chunkCache;
+    private CachedChunkProgress progress;
+    private ParallelChunkRetriever retriever;
+    private ContentItem manifestItem = new ContentItem(SPACE_ID, CONTENT_ID + ChunksManifest.manifestSuffix);
+    private ChunksManifest manifest;
+    private List<byte[]> chunks = new ArrayList<>();
+
+    @Override
+    public void setup() throws Exception {
+        super.setup();
+        tempDir = Files.createTempDirectory("chunk-retriever").toFile();
+        localFile = new File(tempDir, "data/" + CONTENT_ID);
+        chunkCache = new GroupCommitCache(new File(tempDir, "chunks.db"));
+        chunkCache.open();
+        progress = new CachedChunkProgress(chunkCache, "chunks");
+        retriever = new ParallelChunkRetriever(contentStore, 2);
+    }
+
+    @Override
+    public void tearDown() {
+        retriever.close();
+        chunkCache.close();
+        try {
+            FileUtils.deleteDirectory(tempDir);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        super.tearDown();
+    }
+
+    private void createManifest(long size, String sourceMd5) throws Exception {
+        manifest = new ChunksManifest(CONTENT_ID, "text/plain", size);
+        for (int offset = 0; offset < CONTENT.length; offset += CHUNK_SIZE) {
+            byte[] chunk = Arrays.copyOfRange(CONTENT, offset, Math.min(CONTENT.length, offset + CHUNK_SIZE));
+            chunks.add(chunk);
+            manifest.addEntry(manifest.nextChunkId(), md5(chunk), chunk.length);
+        }
+        manifest.setMD5OfSourceContent(sourceMd5);
+
+        final byte[] manifestBytes =
+            ManifestDocumentBinding.createDocumentFrom(manifest).getBytes(StandardCharsets.UTF_8);
+        expect(contentStore.getContent(SPACE_ID, manifestItem.getContentId()))
+            .andAnswer(() -> content(manifestBytes));
+    }
+
+    private void expectChunkRetrievals(int... indexes) throws Exception {
+        for (int index : indexes) {
+            final byte[] chunk = chunks.get(index);
+            expect(contentStore.getContent(SPACE_ID, manifest.getEntries().get(index).getChunkId()))
+                .andAnswer(() -> content(chunk));
+        }
+    }
+
+    private void expectSourceProperties() throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(ContentStore.CONTENT_MIMETYPE, "text/plain");
+        properties.put(ContentStore.CONTENT_CHECKSUM, "manifest-checksum");
+        expect(retrievalSource.getSourceProperties(manifestItem)).andReturn(properties);
+    }
+
+    private Content content(byte[] bytes) {
+        Content content = new Content();
+        content.setStream(new ByteArrayInputStream(bytes));
+        return content;
+    }
+
+    private String md5(byte[] bytes) {
+        return new ChecksumUtil(Algorithm.MD5).generateChecksum(new ByteArrayInputStream(bytes));
+    }
+
+    @Test
+    public void testRetrieve() throws Exception {
+        createManifest(CONTENT.length, md5(CONTENT));
+        // four chunks of (at most) six bytes, fetched two at a time
+        expectChunkRetrievals(0, 1, 2, 3);
+        expectSourceProperties();
+        replayAll();
+
+        ParallelChunkRetriever.Result result = retriever.retrieve(manifestItem, retrievalSource, localFile, progress);
+
+        // each chunk is written at its offset
+        assertTrue(Arrays.equals(CONTENT, Files.readAllBytes(localFile.toPath())));
+        // the checksums are of the whole file, digested in order
+        assertEquals(md5(CONTENT), result.getMd5Checksum());
+        assertEquals(new ChecksumUtil(Algorithm.SHA_256).generateChecksum(new ByteArrayInputStream(CONTENT)),
+                     result.getSha256Checksum());
+        // the properties describe the stitched content
+        assertEquals(md5(CONTENT), result.getProperties().get(ContentStore.CONTENT_CHECKSUM));
+        assertEquals("text/plain", result.getProperties().get(ContentStore.CONTENT_MIMETYPE));
+        assertTrue(progress.getCompletedChunks(CONTENT_ID).isEmpty());
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        createManifest(CONTENT.length, md5(CONTENT));
+
+        // the first two chunks were recorded by an earlier attempt, but the
+        // second no longer matches its checksum
+        localFile.getParentFile().mkdirs();
+        try (RandomAccessFile file = new RandomAccessFile(localFile, "rw")) {
+            file.setLength(CONTENT.length);
+            file.write(CONTENT, 0, CHUNK_SIZE);
+        }
+        progress.chunkCompleted(CONTENT_ID, 0, md5(chunks.get(0)));
+        progress.chunkCompleted(CONTENT_ID, 1, md5(chunks.get(1)));
+
+        expectChunkRetrievals(1, 2, 3);
+        expectSourceProperties();
+        replayAll();
+
+        ParallelChunkRetriever.Result result = retriever.retrieve(manifestItem, retrievalSource, localFile, progress);
+
+        assertTrue(Arrays.equals(CONTENT, Files.readAllBytes(localFile.toPath())));
+        assertEquals(md5(CONTENT), result.getMd5Checksum());
+    }
+
+    @Test
+    public void testChecksumMismatch() throws Exception {
+        createManifest(CONTENT.length, "0123456789abcdef0123456789abcdef");
+        expectChunkRetrievals(0, 1, 2, 3);
+        replayAll();
+
+        try {
+            retriever.retrieve(manifestItem, retrievalSource, localFile, progress);
+            fail("retrieval of content which does not match its manifest checksum should fail");
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertFalse(localFile.exists());
+        assertTrue(progress.getCompletedChunks(CONTENT_ID).isEmpty());
+    }
+
+    @Test
+    public void testSizeMismatch() throws Exception {
+        // the chunks total one byte less than the size of the content
+        createManifest(CONTENT.length + 1, md5(CONTENT));
+        replayAll();
+
+        try {
+            retriever.retrieve(manifestItem, retrievalSource, localFile, progress);
+            fail("retrieval of chunks which do not total the size of the content should fail");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
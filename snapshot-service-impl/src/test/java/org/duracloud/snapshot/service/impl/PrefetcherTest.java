@@ -0,0 +1,90 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author Daniel Bernstein
+ */
+public class PrefetcherTest {
+
+    @Test
+    public void testMultipleConsumers() throws Exception {
+        final int count = 1000;
+        final AtomicInteger produced = new AtomicInteger(0);
+        final Prefetcher<Integer> prefetcher = new Prefetcher<>("test-prefetcher", () -> {
+            int next = produced.getAndIncrement();
+            return next < count ? next : null;
+        }, 10);
+
+        final List<Integer> consumed = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(executor.submit(() -> {
+                Integer item;
+                while ((item = prefetcher.next()) != null) {
+                    consumed.add(item);
+                }
+                return null;
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(count, consumed.size());
+        Collections.sort(consumed);
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, consumed.get(i).intValue());
+        }
+        assertNull(prefetcher.next());
+    }
+
+    @Test
+    public void testSourceFailure() throws Exception {
+        final AtomicInteger produced = new AtomicInteger(0);
+        Prefetcher<Integer> prefetcher = new Prefetcher<>("test-prefetcher", () -> {
+            int next = produced.getAndIncrement();
+            if (next == 2) {
+                throw new IllegalStateException("listing failed");
+            }
+            return next;
+        }, 10);
+
+        assertEquals(0, prefetcher.next().intValue());
+        assertEquals(1, prefetcher.next().intValue());
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                prefetcher.next();
+                fail("the source failure should be rethrown");
+            } catch (IllegalStateException e) {
+                assertEquals("listing failed", e.getMessage());
+            }
+        }
+
+        prefetcher.close();
+    }
+}
@@ -31,4 +31,16 @@ public class PropertiesSerializerTest {
         Assert.assertEquals(map, map2);
     }
 
+    @Test
+    public void testReadProperty() {
+        Map<String, String> map = new HashMap<>();
+        map.put("key", "value");
+        map.put("other-key", "other-value");
+        String json = PropertiesSerializer.serialize(map);
+        Assert.assertEquals("value", PropertiesSerializer.readProperty(json, "key"));
+        Assert.assertEquals("other-value", PropertiesSerializer.readProperty(json, "other-key"));
+        Assert.assertNull(PropertiesSerializer.readProperty(json, "missing-key"));
+        Assert.assertNull(PropertiesSerializer.readProperty(null, "key"));
+    }
+
 }
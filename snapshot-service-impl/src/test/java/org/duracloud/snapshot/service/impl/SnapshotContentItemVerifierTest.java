@@ -17,14 +17,10 @@ import static org.junit.Assert.assertEquals;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
-import org.duracloud.client.ContentStore;
 import org.duracloud.snapshot.db.model.Restoration;
-import org.duracloud.snapshot.db.model.SnapshotContentItem;
 import org.duracloud.snapshot.dto.RestoreStatus;
 import org.duracloud.snapshot.service.RestoreManager;
 import org.easymock.EasyMock;
@@ -58,6 +54,8 @@ public class SnapshotContentItemVerifierTest extends EasyMockSupport {
 
     private File manifestFile;
 
+    private File manifestIndexFile;
+
     private String restoreId = "restore-id";
 
     private int itemCount = 100;
@@ -68,6 +66,7 @@ public class SnapshotContentItemVerifierTest extends EasyMockSupport {
     @Before
     public void setUp() throws Exception {
         this.manifestFile = File.createTempFile("manifest", "txt");
+        this.manifestIndexFile = File.createTempFile("manifest", "idx");
     }
 
     /**
@@ -82,7 +81,7 @@ public class SnapshotContentItemVerifierTest extends EasyMockSupport {
     public void testSuccessfulRun() throws Exception {
         setupStepExecution();
         List<ManifestEntry> list = setupManifestFile();
-        List<SnapshotContentItem> snapshotContentItems = setupSnapshotContentItems(list);
+        List<ManifestEntry> snapshotContentItems = setupSnapshotContentItems(list);
         replayAll();
         createVerifier();
         simulateStepExecution(ExitStatus.COMPLETED, snapshotContentItems);
@@ -92,7 +91,11 @@ public class SnapshotContentItemVerifierTest extends EasyMockSupport {
      *
      */
     private void createVerifier() {
-        this.verifier = new SnapshotContentItemVerifier(this.restoreId, manifestFile, snapshotName, restoreManager);
+        this.verifier = new SnapshotContentItemVerifier(this.restoreId,
+                                                        manifestFile,
+                                                        manifestIndexFile,
+                                                        snapshotName,
+                                                        restoreManager);
     }
 
     @Test
@@ -100,7 +103,7 @@ public class SnapshotContentItemVerifierTest extends EasyMockSupport {
         setupStepExecution(1, itemCount);
         setupStepExecutionFailure();
         List<ManifestEntry> list = setupManifestFile();
-        List<SnapshotContentItem> snapshotContentItems = setupSnapshotContentItems(list);
+        List<ManifestEntry> snapshotContentItems = setupSnapshotContentItems(list);
         snapshotContentItems.add(createSnapshotContentItem("missing-content", "checksum"));
         replayAll();
         createVerifier();
@@ -120,9 +123,9 @@ public class SnapshotContentItemVerifierTest extends EasyMockSupport {
         setupStepExecutionFailure();
 
         List<ManifestEntry> list = setupManifestFile();
-        List<SnapshotContentItem> snapshotContentItems = setupSnapshotContentItems(list);
+        List<ManifestEntry> snapshotContentItems = setupSnapshotContentItems(list);
         //replace the checksum of last item with bad checksum.
-        snapshotContentItems.get(snapshotContentItems.size() - 1).setMetadata(getMetadata("badchecksum"));
+        snapshotContentItems.get(snapshotContentItems.size() - 1).setChecksum("badchecksum");
         replayAll();
         createVerifier();
         simulateStepExecution(ExitStatus.FAILED, snapshotContentItems);
@@ -134,7 +137,7 @@ public class SnapshotContentItemVerifierTest extends EasyMockSupport {
         setupStepExecutionFailure();
 
         List<ManifestEntry> list = setupManifestFile();
-        List<SnapshotContentItem> snapshotContentItems = setupSnapshotContentItems(list);
+        List<ManifestEntry> snapshotContentItems = setupSnapshotContentItems(list);
         //remove a snapshot item
         snapshotContentItems.remove(0);
         replayAll();
@@ -146,12 +149,12 @@ public class SnapshotContentItemVerifierTest extends EasyMockSupport {
      * @param list
      * @return
      */
-    private List<SnapshotContentItem> setupSnapshotContentItems(List<ManifestEntry> list) {
-        List<SnapshotContentItem> snapshotContentItems = new ArrayList<>();
+    private List<ManifestEntry> setupSnapshotContentItems(List<ManifestEntry> list) {
+        List<ManifestEntry> snapshotContentItems = new ArrayList<>();
         for (ManifestEntry e : list) {
             String contentId = e.getContentId();
             String checksum = e.getChecksum();
-            SnapshotContentItem c = createSnapshotContentItem(contentId, checksum);
+            ManifestEntry c = createSnapshotContentItem(contentId, checksum);
             snapshotContentItems.add(c);
         }
         return snapshotContentItems;
@@ -162,21 +165,8 @@ public class SnapshotContentItemVerifierTest extends EasyMockSupport {
      * @param checksum
      * @return
      */
-    private SnapshotContentItem createSnapshotContentItem(String contentId, String checksum) {
-        SnapshotContentItem c = new SnapshotContentItem();
-        c.setContentId(contentId);
-        c.setMetadata(getMetadata(checksum));
-        return c;
-    }
-
-    /**
-     * @param checksum
-     * @return
-     */
-    private String getMetadata(String checksum) {
-        Map<String, String> props = new HashMap<>();
-        props.put(ContentStore.CONTENT_CHECKSUM, checksum);
-        return PropertiesSerializer.serialize(props);
+    private ManifestEntry createSnapshotContentItem(String contentId, String checksum) {
+        return new ManifestEntry(checksum, contentId);
     }
 
     /**
@@ -225,7 +215,7 @@ public class SnapshotContentItemVerifierTest extends EasyMockSupport {
      * @param expectedStatus
      * @throws Exception
      */
-    private void simulateStepExecution(ExitStatus expectedStatus, List<SnapshotContentItem> items) throws Exception {
+    private void simulateStepExecution(ExitStatus expectedStatus, List<ManifestEntry> items) throws Exception {
         verifier.beforeStep(stepExecution);
         verifier.beforeWrite(items);
         verifier.write(items);
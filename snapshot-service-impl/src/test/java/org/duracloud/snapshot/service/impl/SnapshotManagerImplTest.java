@@ -12,6 +12,7 @@ import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
 import static org.easymock.EasyMock.isA;
 import static org.easymock.EasyMock.isNull;
 import static org.junit.Assert.assertEquals;
@@ -24,6 +25,11 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
@@ -32,6 +38,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import javax.sql.DataSource;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -40,6 +47,8 @@ import org.duracloud.client.task.SnapshotTaskClient;
 import org.duracloud.common.constant.Constants;
 import org.duracloud.common.notification.NotificationManager;
 import org.duracloud.common.notification.NotificationType;
+import org.duracloud.common.util.ChecksumUtil;
+import org.duracloud.common.util.ChecksumUtil.Algorithm;
 import org.duracloud.common.util.WaitUtil;
 import org.duracloud.error.ContentStoreException;
 import org.duracloud.error.NotFoundException;
@@ -63,6 +72,7 @@ import org.easymock.Mock;
 import org.easymock.TestSubject;
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.data.domain.Pageable;
 
 /**
  * @author Daniel Bernstein Date: Jul 31, 2014
@@ -125,6 +135,8 @@ public class SnapshotManagerImplTest extends SnapshotTestBase {
     public void testAddContentItem() throws SnapshotException {
         Map<String, String> props = new HashMap<>();
         props.put("key", "value");
+        props.put(ContentStore.CONTENT_CHECKSUM, "md5");
+        props.put(ContentStore.CONTENT_SIZE, "1024");
         String contentId = "content-id";
         Capture<SnapshotContentItem> contentItemCapture = new Capture<>();
         expect(this.snapshotContentItemRepo
@@ -142,11 +154,72 @@ public class SnapshotManagerImplTest extends SnapshotTestBase {
         assertTrue(item.getMetadata().contains("\"key\""));
         assertTrue(item.getMetadata().contains("\"value\""));
         assertNotNull(item.getContentIdHash());
+        assertEquals("md5", item.getMd5());
+        assertEquals(Long.valueOf(1024), item.getSizeBytes());
 
     }
 
+    @Test
+    public void testAddContentItems() throws Exception {
+        DataSource dataSource = createMock(DataSource.class);
+        Connection connection = createNiceMock(Connection.class);
+        DatabaseMetaData metaData = createNiceMock(DatabaseMetaData.class);
+        PreparedStatement statement = createNiceMock(PreparedStatement.class);
+
+        expect(dataSource.getConnection()).andReturn(connection);
+        expect(connection.getMetaData()).andReturn(metaData).anyTimes();
+        expect(metaData.supportsBatchUpdates()).andReturn(true).anyTimes();
+        expect(connection.prepareStatement(isA(String.class))).andReturn(statement);
+
+        List<SnapshotContentItem> items = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            String contentId = "content-id-" + i;
+            SnapshotContentItem item = new SnapshotContentItem();
+            item.setContentId(contentId);
+            item.setMetadata("{\"key\":\"value\",\"" + ContentStore.CONTENT_CHECKSUM + "\":\"md5-" + i + "\"}");
+            items.add(item);
+
+            statement.setString(2, contentId);
+            expectLastCall();
+            statement.setString(4, item.getMetadata());
+            expectLastCall();
+            // the md5 column is filled from the metadata when the item has no md5
+            statement.setString(5, "md5-" + i);
+            expectLastCall();
+        }
+
+        statement.addBatch();
+        expectLastCall().times(2);
+        expect(statement.executeBatch()).andReturn(new int[] {1, 1});
+        expect(snapshot.getId()).andReturn(1L).anyTimes();
+        replayAll();
+
+        manager.setDataSource(dataSource);
+        manager.addContentItems(snapshot, items);
+    }
+
+    @Test
+    public void testAddNoContentItems() throws Exception {
+        DataSource dataSource = createMock(DataSource.class);
+        replayAll();
+
+        manager.setDataSource(dataSource);
+        manager.addContentItems(snapshot, new ArrayList<SnapshotContentItem>());
+    }
+
     @Test
     public void testTransferToSnapshotStorageComplete() throws SnapshotException, ContentStoreException, IOException {
+        testTransferToSnapshotStorageComplete(true);
+    }
+
+    @Test
+    public void testTransferToSnapshotStorageCompleteFromDisk()
+        throws SnapshotException, ContentStoreException, IOException {
+        testTransferToSnapshotStorageComplete(false);
+    }
+
+    private void testTransferToSnapshotStorageComplete(boolean streamed)
+        throws SnapshotException, ContentStoreException, IOException {
         String snapshotId = "snapshot-name";
         String spaceId = "space-id";
         expect(snapshotRepo.findByName(snapshotId)).andReturn(snapshot);
@@ -182,13 +255,30 @@ public class SnapshotManagerImplTest extends SnapshotTestBase {
                                      isNull(String.class))).andThrow(new NotFoundException("not found"));
         contentStore.createSpace(eq(Constants.SNAPSHOT_METADATA_SPACE));
         expectLastCall();
+        // the zip is first streamed, with the checksum computed by duracloud
         expect(contentStore.addContent(eq(Constants.SNAPSHOT_METADATA_SPACE),
                                        eq(snapshotId + ".zip"),
                                        isA(InputStream.class),
-                                       anyLong(),
+                                       eq(-1L),
                                        eq("application/zip"),
-                                       isA(String.class),
-                                       (Map<String, String>) isNull())).andReturn("test");
+                                       isNull(String.class),
+                                       (Map<String, String>) isNull())).andAnswer(() -> {
+                                           InputStream zip = (InputStream) getCurrentArguments()[2];
+                                           if (!streamed) {
+                                               throw new ContentStoreException("failed");
+                                           }
+                                           return new ChecksumUtil(Algorithm.MD5).generateChecksum(zip);
+                                       });
+        if (!streamed) {
+            // then uploaded from disk with its checksum
+            expect(contentStore.addContent(eq(Constants.SNAPSHOT_METADATA_SPACE),
+                                           eq(snapshotId + ".zip"),
+                                           isA(InputStream.class),
+                                           anyLong(),
+                                           eq("application/zip"),
+                                           isA(String.class),
+                                           (Map<String, String>) isNull())).andReturn("test");
+        }
 
         expect(storeClientHelper.create(isA(DuracloudEndPointConfig.class),
                                         isA(String.class),
@@ -422,4 +512,128 @@ public class SnapshotManagerImplTest extends SnapshotTestBase {
 
     }
 
+    @Test
+    public void testPruneContentStore() throws Exception {
+        File workDir = Files.createTempDirectory("content-store-prune").toFile();
+        try {
+            ContentAddressedStore store =
+                new ContentAddressedStore(new File(workDir, ContentAddressedStore.DIRECTORY_NAME));
+            String latestMd5 = addToStore(store, workDir, "latest");
+            String metadataMd5 = addToStore(store, workDir, "metadata");
+            String completedMd5 = addToStore(store, workDir, "completed");
+            String supersededMd5 = addToStore(store, workDir, "superseded");
+
+            expectNoSnapshotsInProgress();
+
+            // the previous snapshot of the space is superseded by the latest,
+            // so its items are not read
+            Snapshot previous = createSnapshot("previous", "space-id");
+            Snapshot latest = createSnapshot("latest", "space-id");
+            Snapshot empty = createSnapshot("empty", "other-space-id");
+            expect(this.snapshotRepo.findByStatusOrderBySnapshotDateAsc(SnapshotStatus.SNAPSHOT_COMPLETE))
+                .andReturn(Arrays.asList(previous, empty, latest));
+
+            Map<String, String> props = new HashMap<>();
+            props.put(ContentStore.CONTENT_CHECKSUM, metadataMd5);
+            expectContentItems("latest",
+                               new Object[] {1L, "content-id", latestMd5, null},
+                               new Object[] {2L, "metadata-content-id", null, PropertiesSerializer.serialize(props)});
+            expectContentItems("empty");
+
+            // the snapshot which has just completed is not yet listed as complete
+            Snapshot completed = createSnapshot("completed", "completed-space-id");
+            expectContentItems("completed", new Object[] {3L, "content-id", completedMd5, null});
+
+            replayAll();
+            manager.pruneContentStore(workDir, completed);
+
+            assertTrue(store.contains(latestMd5));
+            assertTrue(store.contains(metadataMd5));
+            assertTrue(store.contains(completedMd5));
+            assertFalse(store.contains(supersededMd5));
+            // the database of the prune is deleted
+            assertFalse(Arrays.stream(workDir.list()).anyMatch(name -> name.endsWith(".db")));
+        } finally {
+            FileUtils.deleteDirectory(workDir);
+        }
+    }
+
+    @Test
+    public void testPruneContentStoreWhileSnapshotInProgress() throws Exception {
+        File workDir = Files.createTempDirectory("content-store-prune").toFile();
+        try {
+            ContentAddressedStore store =
+                new ContentAddressedStore(new File(workDir, ContentAddressedStore.DIRECTORY_NAME));
+            String md5 = addToStore(store, workDir, "in-progress");
+
+            // the content added by the snapshot in progress is not yet
+            // referenced by a complete snapshot
+            expect(this.snapshotRepo.findByStatusOrderBySnapshotDateAsc(SnapshotStatus.INITIALIZED))
+                .andReturn(new ArrayList<>());
+            expect(this.snapshotRepo.findByStatusOrderBySnapshotDateAsc(SnapshotStatus.TRANSFERRING_FROM_DURACLOUD))
+                .andReturn(Arrays.asList(snapshot));
+
+            replayAll();
+            manager.pruneContentStore(workDir, createSnapshot("completed", "space-id"));
+
+            assertTrue(store.contains(md5));
+        } finally {
+            FileUtils.deleteDirectory(workDir);
+        }
+    }
+
+    private String addToStore(ContentAddressedStore store, File workDir, String content) throws IOException {
+        File file = new File(workDir, "content/" + content);
+        FileUtils.writeStringToFile(file, content, StandardCharsets.UTF_8);
+        String md5 = new ChecksumUtil(Algorithm.MD5).generateChecksum(file);
+        store.add(md5, file);
+        assertTrue(store.contains(md5));
+        return md5;
+    }
+
+    private Snapshot createSnapshot(String name, String spaceId) {
+        DuracloudEndPointConfig source = new DuracloudEndPointConfig();
+        source.setHost("host");
+        source.setStoreId("store-id");
+        source.setSpaceId(spaceId);
+        Snapshot snapshot = new Snapshot();
+        snapshot.setName(name);
+        snapshot.setSource(source);
+        return snapshot;
+    }
+
+    private void expectNoSnapshotsInProgress() {
+        expect(this.snapshotRepo.findByStatusOrderBySnapshotDateAsc(SnapshotStatus.INITIALIZED))
+            .andReturn(new ArrayList<>());
+        expect(this.snapshotRepo.findByStatusOrderBySnapshotDateAsc(SnapshotStatus.TRANSFERRING_FROM_DURACLOUD))
+            .andReturn(new ArrayList<>());
+    }
+
+    /**
+     * @param rows the (id, content id, md5, metadata) of the items of the
+     *             snapshot, in id order
+     */
+    private void expectContentItems(String snapshotName, Object[]... rows) {
+        if (rows.length == 0) {
+            expect(this.snapshotContentItemRepo.findMinIdBySnapshotName(snapshotName)).andReturn(null);
+            expect(this.snapshotContentItemRepo.findMaxIdBySnapshotName(snapshotName)).andReturn(null);
+            return;
+        }
+
+        Long minId = (Long) rows[0][0];
+        Long maxId = (Long) rows[rows.length - 1][0];
+        expect(this.snapshotContentItemRepo.findMinIdBySnapshotName(snapshotName)).andReturn(minId);
+        expect(this.snapshotContentItemRepo.findMaxIdBySnapshotName(snapshotName)).andReturn(maxId);
+        expect(this.snapshotContentItemRepo.findContentIdAndMd5BySnapshotName(eq(snapshotName),
+                                                                             eq(minId - 1),
+                                                                             eq(maxId),
+                                                                             isA(Pageable.class)))
+            .andReturn(Arrays.asList(rows));
+        expect(this.snapshotContentItemRepo.findContentIdAndMd5BySnapshotName(eq(snapshotName),
+                                                                             eq(maxId),
+                                                                             eq(maxId),
+                                                                             isA(Pageable.class)))
+            .andReturn(new ArrayList<>());
+    }
+
 }
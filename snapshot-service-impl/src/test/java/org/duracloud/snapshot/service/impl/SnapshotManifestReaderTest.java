@@ -65,4 +65,27 @@ public class SnapshotManifestReaderTest extends EasyMockSupport {
             index++;
         }
     }
+
+    @Test
+    public void testReadResumesAfterItemsRead() throws Exception {
+        File manifestFile = File.createTempFile("test", "txt");
+
+        List<ManifestEntry> list = ManifestTestHelper.setupManifestFile(manifestFile, 100, "checksum", "contentid");
+
+        replayAll();
+        SnapshotManifestReader reader = new SnapshotManifestReader(manifestFile) {
+            protected long getItemsRead() {
+                return 40;
+            }
+        };
+
+        ManifestEntry entry = null;
+        int index = 40;
+
+        while ((entry = reader.read()) != null) {
+            assertEquals(list.get(index), entry);
+            index++;
+        }
+        assertEquals(100, index);
+    }
 }
@@ -0,0 +1,107 @@
+/*
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ *     http://duracloud.org/license/
+ */
+package org.duracloud.snapshot.service.impl;
+
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.duracloud.client.ContentStore;
+import org.duracloud.snapshot.db.repo.SnapshotContentItemRepo;
+import org.easymock.EasyMockRunner;
+import org.easymock.EasyMockSupport;
+import org.easymock.Mock;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.data.domain.Pageable;
+
+/**
+ * @author Daniel Bernstein
+ */
+@RunWith(EasyMockRunner.class)
+public class SnapshotRepoChecksumReaderTest extends EasyMockSupport {
+
+    @Mock
+    private SnapshotContentItemRepo repo;
+
+    private String snapshotName = "snapshot-name";
+
+    @After
+    public void tearDown() throws Exception {
+        verifyAll();
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        expect(repo.findMinIdBySnapshotName(snapshotName)).andReturn(1L);
+        expect(repo.findMaxIdBySnapshotName(snapshotName)).andReturn(10L);
+
+        // two partitions of ids: (0, 5] and (5, 10], each read 3 items at a time
+        expectPage(0, 5, 1, 3);
+        expectPage(3, 5, 4, 5);
+        expectPage(5, 10, 6, 8);
+        expectPage(8, 10, 9, 10);
+
+        replayAll();
+        SnapshotRepoChecksumReader reader = new SnapshotRepoChecksumReader(repo, snapshotName, 2, 3);
+
+        Set<String> contentIds = new HashSet<>();
+        ManifestEntry entry;
+        while ((entry = reader.read()) != null) {
+            assertEquals(checksum(entry.getContentId()), entry.getChecksum());
+            contentIds.add(entry.getContentId());
+        }
+
+        assertEquals(10, contentIds.size());
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void testReadEmptySnapshot() throws Exception {
+        expect(repo.findMinIdBySnapshotName(snapshotName)).andReturn(null);
+        expect(repo.findMaxIdBySnapshotName(snapshotName)).andReturn(null);
+
+        replayAll();
+        SnapshotRepoChecksumReader reader = new SnapshotRepoChecksumReader(repo, snapshotName, 4, 100);
+        assertNull(reader.read());
+    }
+
+    private void expectPage(long afterId, long toId, long firstId, long lastId) {
+        List<Object[]> rows = new ArrayList<>();
+        for (long id = firstId; id <= lastId; id++) {
+            String contentId = "content-" + id;
+            if (id % 2 == 0) {
+                rows.add(new Object[] {id, contentId, checksum(contentId), null});
+            } else {
+                // items without an md5 column fall back on their metadata
+                String metadata =
+                    PropertiesSerializer.serialize(Collections.singletonMap(ContentStore.CONTENT_CHECKSUM,
+                                                                            checksum(contentId)));
+                rows.add(new Object[] {id, contentId, null, metadata});
+            }
+        }
+
+        expect(repo.findContentIdAndMd5BySnapshotName(eq(snapshotName),
+                                                      eq(afterId),
+                                                      eq(toId),
+                                                      isA(Pageable.class))).andReturn(rows);
+    }
+
+    private String checksum(String contentId) {
+        return "checksum-" + contentId;
+    }
+}
@@ -10,6 +10,7 @@ package org.duracloud.snapshot.service.impl;
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.isA;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
@@ -25,7 +26,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.springframework.data.domain.Page;
+import org.springframework.batch.core.StepExecution;
 import org.springframework.data.domain.Pageable;
 
 /**
@@ -34,9 +35,6 @@ import org.springframework.data.domain.Pageable;
 @RunWith(EasyMockRunner.class)
 public class SnapshotRepoManifestReaderTest extends EasyMockSupport {
 
-    @Mock
-    private Page page;
-
     @Mock
     private SnapshotContentItemRepo repo;
 
@@ -66,14 +64,35 @@ public class SnapshotRepoManifestReaderTest extends EasyMockSupport {
     public void testRead() throws Exception {
 
         int count = 3;
-        setupRepo(count);
+        setupRepo(0, count);
+
+        replayAll();
+        StepExecution stepExecution = new StepExecution("step", null);
+        SnapshotRepoManifestReader reader = new SnapshotRepoManifestReader(repo, snapshotName);
+        reader.beforeStep(stepExecution);
+
+        for (int i = 0; i < count; i++) {
+            assertNotNull(reader.read());
+            assertEquals(i + 1L,
+                         stepExecution.getExecutionContext()
+                                      .getLong(SnapshotRepoManifestReader.LAST_ID_READ_KEY));
+        }
+
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void testReadOnRestart() throws Exception {
+
+        int lastIdRead = 2;
+        int count = 3;
+        setupRepo(lastIdRead, count);
 
         replayAll();
-        SnapshotRepoManifestReader reader = new SnapshotRepoManifestReader(repo, snapshotName) {
-            protected long getItemsRead() {
-                return 0;
-            }
-        };
+        StepExecution stepExecution = new StepExecution("step", null);
+        stepExecution.getExecutionContext().putLong(SnapshotRepoManifestReader.LAST_ID_READ_KEY, lastIdRead);
+        SnapshotRepoManifestReader reader = new SnapshotRepoManifestReader(repo, snapshotName);
+        reader.beforeStep(stepExecution);
 
         for (int i = 0; i < count; i++) {
             assertNotNull(reader.read());
@@ -83,17 +102,23 @@ public class SnapshotRepoManifestReaderTest extends EasyMockSupport {
     }
 
     /**
-     *
+     * Sets up the repo to return count items with the ids following lastId.
      */
-    private void setupRepo(int count) {
+    private void setupRepo(long lastId, int count) {
         List<SnapshotContentItem> items = new LinkedList<>();
         for (int i = 0; i < count; i++) {
-            items.add(new SnapshotContentItem());
+            SnapshotContentItem item = new SnapshotContentItem();
+            item.setId(lastId + i + 1L);
+            items.add(item);
         }
 
-        expect(page.getTotalPages()).andReturn(1);
-        expect(page.getContent()).andReturn(items);
-        expect(repo.findBySnapshotName(eq(snapshotName), isA(Pageable.class))).andReturn(page);
+        // each page seeks past the id of the last item of the previous page
+        expect(repo.findBySnapshotNameAndIdGreaterThanOrderByIdAsc(eq(snapshotName), eq(lastId), isA(Pageable.class)))
+            .andReturn(items);
+        expect(repo.findBySnapshotNameAndIdGreaterThanOrderByIdAsc(eq(snapshotName),
+                                                                   eq(lastId + count),
+                                                                   isA(Pageable.class)))
+            .andReturn(new LinkedList<>());
     }
 
 }
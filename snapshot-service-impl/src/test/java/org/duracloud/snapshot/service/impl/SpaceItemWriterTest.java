@@ -8,15 +8,19 @@
 package org.duracloud.snapshot.service.impl;
 
 import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.getCurrentArguments;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.isA;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
@@ -25,22 +29,33 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FileUtils;
+import org.duracloud.chunk.manifest.ChunksManifest;
+import org.duracloud.chunk.util.ChunkUtil;
 import org.duracloud.common.constant.Constants;
+import org.duracloud.common.constant.ManifestFormat;
 import org.duracloud.common.model.ContentItem;
 import org.duracloud.common.util.ChecksumUtil;
 import org.duracloud.common.util.ChecksumUtil.Algorithm;
 import org.duracloud.common.util.DateUtil;
 import org.duracloud.common.util.DateUtil.DateFormat;
+import org.duracloud.manifest.impl.TsvManifestFormatter;
+import org.duracloud.manifeststitch.StitchedManifestGenerator;
+import org.duracloud.mill.db.model.ManifestItem;
 import org.duracloud.retrieval.mgmt.CSVFileOutputWriter;
 import org.duracloud.retrieval.mgmt.OutputWriter;
 import org.duracloud.retrieval.mgmt.RetrievalListener;
@@ -48,7 +63,9 @@ import org.duracloud.retrieval.source.ContentStream;
 import org.duracloud.retrieval.source.RetrievalSource;
 import org.duracloud.snapshot.SnapshotException;
 import org.duracloud.snapshot.common.test.SnapshotTestBase;
+import org.duracloud.snapshot.db.model.DuracloudEndPointConfig;
 import org.duracloud.snapshot.db.model.Snapshot;
+import org.duracloud.snapshot.db.model.SnapshotContentItem;
 import org.duracloud.snapshot.service.SnapshotManager;
 import org.duracloud.storage.provider.StorageProvider;
 import org.easymock.Mock;
@@ -102,6 +119,11 @@ public class SpaceItemWriterTest extends SnapshotTestBase {
     private String spaceId = "space-id";
     private String contentId = "content-id";
 
+    private Map<String, Integer> expectedContentItemAdds = new HashMap<>();
+    private Map<String, AtomicInteger> contentItemAdds = new ConcurrentHashMap<>();
+    private List<Integer> contentItemBatches = Collections.synchronizedList(new ArrayList<>());
+    private Map<String, String> readers = new ConcurrentHashMap<>();
+
     /*
      * (non-Javadoc)
      *
@@ -117,6 +139,17 @@ public class SpaceItemWriterTest extends SnapshotTestBase {
         md5File = new File(contentDir, MD5_MANIFEST_TXT_FILE_NAME);
         sha256File = new File(contentDir, SHA256_MANIFEST_TXT_FILE_NAME);
 
+        this.snapshotManager.addContentItems(eq(snapshot), isA(Collection.class));
+        expectLastCall().andAnswer(() -> {
+            Collection<SnapshotContentItem> added =
+                (Collection<SnapshotContentItem>) getCurrentArguments()[1];
+            contentItemBatches.add(added.size());
+            for (SnapshotContentItem item : added) {
+                contentItemAdds.computeIfAbsent(item.getContentId(), k -> new AtomicInteger())
+                               .incrementAndGet();
+            }
+            return null;
+        }).anyTimes();
     }
 
     /*
@@ -128,6 +161,14 @@ public class SpaceItemWriterTest extends SnapshotTestBase {
     @Override
     public void tearDown() {
         super.tearDown();
+
+        assertEquals(expectedContentItemAdds.keySet(), contentItemAdds.keySet());
+        for (Map.Entry<String, Integer> expected : expectedContentItemAdds.entrySet()) {
+            assertEquals("content item adds for " + expected.getKey(),
+                         expected.getValue().intValue(),
+                         contentItemAdds.get(expected.getKey()).get());
+        }
+
         try {
             FileUtils.deleteDirectory(contentDir);
         } catch (IOException e) {
@@ -185,6 +226,8 @@ public class SpaceItemWriterTest extends SnapshotTestBase {
         expect(spaceManifestVerifier.verify()).andReturn(manifestVerificationSuccessful);
         expect(spaceManifestVerifier.getSpaceId()).andReturn(spaceId);
 
+        spaceManifestVerifier.close(manifestVerificationSuccessful);
+        expectLastCall();
         if (!manifestVerificationSuccessful) {
             expect(stepExecution.getId()).andReturn(1l);
             expect(stepExecution.getJobExecutionId()).andReturn(1l);
@@ -269,6 +312,8 @@ public class SpaceItemWriterTest extends SnapshotTestBase {
 
         expect(spaceManifestVerifier.verify()).andReturn(true);
         expect(spaceManifestVerifier.getSpaceId()).andReturn(spaceId);
+        spaceManifestVerifier.close(true);
+        expectLastCall();
 
         replayAll();
         writer =
@@ -349,6 +394,8 @@ public class SpaceItemWriterTest extends SnapshotTestBase {
 
         expect(spaceManifestVerifier.verify()).andReturn(true);
         expect(spaceManifestVerifier.getSpaceId()).andReturn(spaceId);
+        spaceManifestVerifier.close(true);
+        expectLastCall();
 
         replayAll();
         writer =
@@ -398,6 +445,187 @@ public class SpaceItemWriterTest extends SnapshotTestBase {
         assertEquals(ExitStatus.COMPLETED.getExitCode(), status.getExitCode());
     }
 
+    @Test
+    public void testLargeItemsTransferredOnTheirOwnLane() throws Exception {
+        outputWriter = new CSVFileOutputWriter(workDir);
+        List<ContentItem> items = new ArrayList<>();
+        String largeContentId = "large-" + contentId + ChunksManifest.manifestSuffix;
+        CountDownLatch releaseLarge = new CountDownLatch(1);
+        setupContentItem(items, spaceId, contentId, 1, null);
+        setupContentItem(items, spaceId, largeContentId, 1, releaseLarge);
+        setupContentItem(items, spaceId, Constants.SNAPSHOT_PROPS_FILENAME, 1, null);
+
+        expect(stepExecution.getExitStatus()).andReturn(ExitStatus.COMPLETED)
+                                             .times(2);
+
+        expect(snapshot.getName()).andReturn(snapshotName).times(2);
+
+        SpaceManifestSnapshotManifestVerifier spaceManifestVerifier =
+            createMock(SpaceManifestSnapshotManifestVerifier.class);
+
+        expect(spaceManifestVerifier.verify()).andReturn(true);
+        expect(spaceManifestVerifier.getSpaceId()).andReturn(spaceId);
+        spaceManifestVerifier.close(true);
+        expectLastCall();
+
+        replayAll();
+        writer =
+            new SpaceItemWriter(snapshot,
+                                retrievalSource,
+                                contentDir,
+                                outputWriter,
+                                propsFile,
+                                md5File,
+                                sha256File,
+                                snapshotManager,
+                                spaceManifestVerifier);
+        writer.setIsTest();
+        writer.setSmallItemThreads(1);
+        writer.setLargeItemThreads(1);
+        writer.beforeStep(stepExecution);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> write = executor.submit(() -> {
+                writer.write(items);
+                return null;
+            });
+
+            // the small item is transferred while the large item is held on
+            // its own lane, but the chunk is not committed until both finish
+            long deadline = System.currentTimeMillis() + 60000;
+            while (!(readers.containsKey(contentId) && readers.containsKey(largeContentId)) &&
+                   System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(200);
+            assertFalse(write.isDone());
+            assertTrue(contentItemAdds.isEmpty());
+
+            releaseLarge.countDown();
+            write.get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        ExitStatus status = writer.afterStep(stepExecution);
+
+        assertEquals(ExitStatus.COMPLETED.getExitCode(), status.getExitCode());
+        assertTrue(readers.get(contentId).startsWith("snapshot-small-item-transfer"));
+        assertTrue(readers.get(largeContentId).startsWith("snapshot-large-item-transfer"));
+        // both items of the chunk are added in one batch, then the snapshot properties
+        assertEquals(Arrays.asList(2, 1), contentItemBatches);
+    }
+
+    @Test
+    public void testIncremental() throws Exception {
+        outputWriter = new CSVFileOutputWriter(workDir);
+        ContentAddressedStore store =
+            new ContentAddressedStore(new File(workDir, ContentAddressedStore.DIRECTORY_NAME));
+        List<ContentItem> items = new ArrayList<>();
+
+        // unchanged since the previous snapshot, which left its content in the store
+        String unchangedId = contentId + "-unchanged";
+        File unchangedContent = new File(workDir, unchangedId);
+        FileUtils.copyFile(createUniqueTempFile(1024, unchangedId), unchangedContent);
+        String unchangedMd5 = new ChecksumUtil(Algorithm.MD5).generateChecksum(unchangedContent);
+        String unchangedSha256 = new ChecksumUtil(Algorithm.SHA_256).generateChecksum(unchangedContent);
+        store.add(unchangedMd5, unchangedContent);
+        assertTrue(store.contains(unchangedMd5));
+        items.add(new ContentItem(spaceId, unchangedId));
+        expectedContentItemAdds.put(unchangedId, 1);
+
+        // changed since the previous snapshot
+        String changedId = contentId + "-changed";
+        File changedContent = setupContentItem(items, spaceId, changedId, 1);
+        String changedMd5 = new ChecksumUtil(Algorithm.MD5).generateChecksum(changedContent);
+        String previousMd5 = "0123456789abcdef0123456789abcdef";
+        store.add(previousMd5, createUniqueTempFile(1024, changedId));
+
+        setupContentItem(items, spaceId, Constants.SNAPSHOT_PROPS_FILENAME, 1);
+
+        Snapshot previousSnapshot = createMock(Snapshot.class);
+        expect(previousSnapshot.getName()).andReturn("previous-snapshot-name").anyTimes();
+        expect(snapshotManager.getContentItems(previousSnapshot, 0L, 1000))
+            .andReturn(Arrays.asList(createSnapshotContentItem(1L, unchangedId, unchangedMd5, unchangedSha256),
+                                     createSnapshotContentItem(2L, changedId, previousMd5, null)));
+        expect(snapshotManager.getContentItems(previousSnapshot, 2L, 1000))
+            .andReturn(Collections.emptyList());
+
+        DuracloudEndPointConfig source = new DuracloudEndPointConfig();
+        source.setSpaceId(spaceId);
+        expect(snapshot.getSource()).andReturn(source);
+
+        StitchedManifestGenerator manifestGenerator = createMock(StitchedManifestGenerator.class);
+        expect(manifestGenerator.generate(spaceId, ManifestFormat.TSV))
+            .andReturn(createSpaceManifest(unchangedId, unchangedMd5, changedId, changedMd5));
+
+        expect(stepExecution.getExitStatus()).andReturn(ExitStatus.COMPLETED)
+                                             .times(2);
+
+        expect(snapshot.getName()).andReturn(snapshotName).anyTimes();
+
+        SpaceManifestSnapshotManifestVerifier spaceManifestVerifier =
+            createMock(SpaceManifestSnapshotManifestVerifier.class);
+
+        expect(spaceManifestVerifier.verify()).andReturn(true);
+        expect(spaceManifestVerifier.getSpaceId()).andReturn(spaceId);
+        spaceManifestVerifier.close(true);
+        expectLastCall();
+
+        replayAll();
+        writer =
+            new SpaceItemWriter(snapshot,
+                                retrievalSource,
+                                contentDir,
+                                outputWriter,
+                                propsFile,
+                                md5File,
+                                sha256File,
+                                snapshotManager,
+                                spaceManifestVerifier);
+        writer.setIsTest();
+        writer.setIncremental(store, previousSnapshot, manifestGenerator);
+        writer.beforeStep(stepExecution);
+        writeItems(items, 1);
+        ExitStatus status = writer.afterStep(stepExecution);
+
+        assertEquals(ExitStatus.COMPLETED.getExitCode(), status.getExitCode());
+
+        // the unchanged item is linked to the stored content rather than
+        // retrieved: the content is shared by the original, the store and
+        // the snapshot
+        assertEquals(3, ((Number) Files.getAttribute(unchangedContent.toPath(), "unix:nlink")).intValue());
+        // with the sha256 checksum recorded by the previous snapshot
+        assertTrue(getLines(SHA256_MANIFEST_TXT_FILE_NAME).stream()
+                       .anyMatch(line -> line.startsWith(unchangedSha256) && line.endsWith(unchangedId)));
+
+        // the changed item is retrieved and added to the store
+        assertTrue(store.contains(changedMd5));
+    }
+
+    private SnapshotContentItem createSnapshotContentItem(Long id, String contentId, String md5, String sha256) {
+        SnapshotContentItem item = new SnapshotContentItem();
+        item.setId(id);
+        item.setContentId(contentId);
+        item.setMd5(md5);
+        item.setSha256(sha256);
+        item.setMetadata(PropertiesSerializer.serialize(createContentProperties(md5)));
+        return item;
+    }
+
+    private InputStream createSpaceManifest(String... contentIdsAndChecksums) {
+        TsvManifestFormatter formatter = new TsvManifestFormatter();
+        StringBuilder manifest = new StringBuilder(formatter.getHeader() + "\n");
+        for (int i = 0; i < contentIdsAndChecksums.length; i += 2) {
+            ManifestItem manifestItem = new ManifestItem();
+            manifestItem.setContentId(contentIdsAndChecksums[i]);
+            manifestItem.setContentChecksum(contentIdsAndChecksums[i + 1]);
+            manifest.append(formatter.formatLine(manifestItem)).append("\n");
+        }
+        return new ByteArrayInputStream(manifest.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
     private void verifyMd5Manifest(List<ContentItem> items, List<File> sourceFiles) throws IOException {
         List<String> md5Lines = getLines(MD5_MANIFEST_TXT_FILE_NAME);
 
@@ -548,12 +776,25 @@ public class SpaceItemWriterTest extends SnapshotTestBase {
                                   String contentId,
                                   int times)
         throws IOException, SnapshotException {
+        return setupContentItem(items, spaceId, contentId, times, null);
+    }
+
+    /**
+     * @param release if not null, reads of the content are held until the
+     *                latch is released
+     */
+    private File setupContentItem(List<ContentItem> items,
+                                  String spaceId,
+                                  String contentId,
+                                  int times,
+                                  CountDownLatch release)
+        throws IOException, SnapshotException {
         int size = 1024 * 100;
         File content = createUniqueTempFile(size, contentId);
         ChecksumUtil util = new ChecksumUtil(Algorithm.MD5);
         assertEquals(size, content.length());
         String md5 = util.generateChecksum(content);
-        InputStream is = new FileInputStream(content);
+        InputStream is = new RecordingInputStream(new FileInputStream(content), contentId, release);
         Map<String, String> map = createContentProperties(md5);
         ContentStream contentStream = new ContentStream(is, map);
         ContentItem item = new ContentItem(spaceId, contentId);
@@ -562,13 +803,51 @@ public class SpaceItemWriterTest extends SnapshotTestBase {
             .andReturn(contentStream);
 
         items.add(item);
-        this.snapshotManager.addContentItem(eq(snapshot),
-                                            eq(contentId),
-                                            isA(Map.class));
-        expectLastCall().times(times);
+        expectedContentItemAdds.merge(new ChunkUtil().preChunkedContentId(contentId), times, Integer::sum);
         return content;
     }
 
+    /**
+     * Records the thread which reads the content of an item, optionally
+     * holding the read until a latch is released. The wait is done by the
+     * stream rather than by the mock, as the mock answers one call at a time.
+     */
+    private class RecordingInputStream extends FilterInputStream {
+
+        private String contentId;
+        private CountDownLatch release;
+
+        RecordingInputStream(InputStream in, String contentId, CountDownLatch release) {
+            super(in);
+            this.contentId = contentId;
+            this.release = release;
+        }
+
+        @Override
+        public int read() throws IOException {
+            beforeRead();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            beforeRead();
+            return super.read(b, off, len);
+        }
+
+        private void beforeRead() throws IOException {
+            readers.putIfAbsent(contentId, Thread.currentThread().getName());
+            if (release != null) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+        }
+    }
+
     @NotNull
     private Map<String, String> createContentProperties(String md5) {
         Map<String, String> map = new HashMap<>();
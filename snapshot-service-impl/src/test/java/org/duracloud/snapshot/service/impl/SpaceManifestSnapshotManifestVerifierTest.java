@@ -8,6 +8,7 @@
 package org.duracloud.snapshot.service.impl;
 
 import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -15,14 +16,21 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
+import org.duracloud.chunk.manifest.ChunksManifest;
+import org.duracloud.client.ContentStore;
 import org.duracloud.common.constant.Constants;
 import org.duracloud.common.constant.ManifestFormat;
 import org.duracloud.common.model.ContentItem;
+import org.duracloud.error.NotFoundException;
 import org.duracloud.manifest.impl.TsvManifestFormatter;
 import org.duracloud.manifeststitch.StitchedManifestGenerator;
 import org.duracloud.mill.db.model.ManifestItem;
@@ -41,9 +49,13 @@ public class SpaceManifestSnapshotManifestVerifierTest extends SnapshotTestBase
     private String incorrectChecksum = "incorrect";
     private String contentIdPrefix = "content-id-";
     private File md5Manifest;
+    private File manifestIndex;
     private int count = 5;
+    private boolean sortedMerge = false;
     @Mock
     private StitchedManifestGenerator generator;
+    @Mock
+    private ContentStore contentStore;
 
     /**
      * @throws java.lang.Exception
@@ -52,13 +64,15 @@ public class SpaceManifestSnapshotManifestVerifierTest extends SnapshotTestBase
     public void setUp() throws Exception {
         md5Manifest = File.createTempFile("manifest", "tmp");
         md5Manifest.deleteOnExit();
+        manifestIndex = File.createTempFile("manifest", "idx");
+        manifestIndex.deleteOnExit();
 
     }
 
     private List<ContentItem> createContentItems(int count, String contentIdPrefix) {
         List<ContentItem> items = new LinkedList<>();
         for (int i = 0; i < count; i++) {
-            items.add(new ContentItem(spaceId, contentIdPrefix + 1));
+            items.add(new ContentItem(spaceId, contentIdPrefix + i));
         }
 
         return items;
@@ -127,8 +141,120 @@ public class SpaceManifestSnapshotManifestVerifierTest extends SnapshotTestBase
      */
     private SpaceManifestSnapshotManifestVerifier setupVerifier() {
         SpaceManifestSnapshotManifestVerifier verifier =
-            new SpaceManifestSnapshotManifestVerifier(md5Manifest, generator, spaceId);
+            new SpaceManifestSnapshotManifestVerifier(md5Manifest, manifestIndex, generator, spaceId);
+        verifier.setSortedMerge(sortedMerge);
+        verifier.setContentStore(contentStore);
         return verifier;
     }
 
+    @Test
+    public void testRetryRechecksOnlyDifferences() throws Exception {
+        sortedMerge = true;
+        List<ContentItem> items = createContentItems(count, contentIdPrefix);
+        items.remove(0);
+        // the space manifest is generated once only
+        expect(generator.generate(spaceId, ManifestFormat.TSV)).andReturn(createManifestInputStream(items));
+        ManifestTestHelper.setupManifestFile(md5Manifest, count, correctChecksum, contentIdPrefix);
+
+        Map<String, String> props = new HashMap<>();
+        props.put(ContentStore.CONTENT_CHECKSUM, correctChecksum);
+        expect(contentStore.getContentProperties(spaceId, contentIdPrefix + "0"))
+            .andThrow(new NotFoundException("not found"));
+        expect(contentStore.getContent(spaceId, contentIdPrefix + "0" + ChunksManifest.manifestSuffix))
+            .andThrow(new NotFoundException("not found"));
+        expect(contentStore.getContentProperties(spaceId, contentIdPrefix + "0")).andReturn(props);
+        replayAll();
+        SpaceManifestSnapshotManifestVerifier verifier = setupVerifier();
+
+        assertFalse(verifier.verify());
+
+        // still missing
+        assertFalse(verifier.verify());
+        assertEquals(2, verifier.getErrors().size());
+        assertTrue(verifier.getErrors().get(0).contains(contentIdPrefix + "0"));
+
+        // now present
+        assertTrue(verifier.verify());
+        assertTrue(verifier.getErrors().isEmpty());
+    }
+
+    @Test
+    public void testIndexRetryRechecksOnlyDifferences() throws Exception {
+        List<ContentItem> items = createContentItems(count, contentIdPrefix);
+        // in the space but not the snapshot
+        items.add(new ContentItem(spaceId, contentIdPrefix + "extra"));
+        // the space manifest is generated once only
+        expect(generator.generate(spaceId, ManifestFormat.TSV)).andReturn(createManifestInputStream(items));
+
+        List<ManifestEntry> entries =
+            ManifestTestHelper.setupManifestFile(md5Manifest, count, correctChecksum, contentIdPrefix);
+        entries.get(count - 1).setChecksum(incorrectChecksum);
+        try (Writer writer = new FileWriter(md5Manifest)) {
+            for (ManifestEntry entry : entries) {
+                ManifestFileHelper.writeManifestEntry(writer, entry.getContentId(), entry.getChecksum());
+            }
+        }
+
+        // both differences have been resolved by the time they are re-checked
+        Map<String, String> props = new HashMap<>();
+        props.put(ContentStore.CONTENT_CHECKSUM, incorrectChecksum);
+        expect(contentStore.getContentProperties(spaceId, contentIdPrefix + (count - 1))).andReturn(props);
+        expect(contentStore.getContentProperties(spaceId, contentIdPrefix + "extra"))
+            .andThrow(new NotFoundException("not found"));
+        expect(contentStore.getContent(spaceId, contentIdPrefix + "extra" + ChunksManifest.manifestSuffix))
+            .andThrow(new NotFoundException("not found"));
+        replayAll();
+        SpaceManifestSnapshotManifestVerifier verifier = setupVerifier();
+
+        assertFalse(verifier.verify());
+        List<String> errors = verifier.getErrors();
+        assertEquals(3, errors.size());
+        assertTrue(errors.get(0).contains(contentIdPrefix + (count - 1)));
+        assertTrue(errors.get(1).contains(contentIdPrefix + "extra"));
+
+        assertTrue(verifier.verify());
+        assertTrue(verifier.getErrors().isEmpty());
+
+        verifier.close(true);
+        assertFalse(manifestIndex.exists());
+    }
+
+    @Test
+    public void testSortedMergeSuccess() throws Exception {
+        sortedMerge = true;
+        testSuccess();
+    }
+
+    @Test
+    public void testSortedMergeReportsEveryDifference() throws Exception {
+        sortedMerge = true;
+        List<ContentItem> items = createContentItems(count, contentIdPrefix);
+        // in the space but not the snapshot
+        items.add(new ContentItem(spaceId, contentIdPrefix + "extra"));
+        // in the snapshot but not the space
+        items.remove(0);
+        expect(generator.generate(spaceId, ManifestFormat.TSV)).andReturn(createManifestInputStream(items));
+
+        List<ManifestEntry> entries =
+            ManifestTestHelper.setupManifestFile(md5Manifest, count, correctChecksum, contentIdPrefix);
+        entries.get(count - 1).setChecksum(incorrectChecksum);
+        try (Writer writer = new FileWriter(md5Manifest)) {
+            for (ManifestEntry entry : entries) {
+                ManifestFileHelper.writeManifestEntry(writer, entry.getContentId(), entry.getChecksum());
+            }
+        }
+
+        replayAll();
+        SpaceManifestSnapshotManifestVerifier verifier = setupVerifier();
+
+        assertFalse(verifier.verify());
+        List<String> errors = verifier.getErrors();
+        assertEquals(4, errors.size());
+        assertTrue(errors.get(0).contains(contentIdPrefix + "0"));
+        assertTrue(errors.get(1).contains(contentIdPrefix + (count - 1)));
+        assertTrue(errors.get(2).contains(contentIdPrefix + "extra"));
+        assertTrue(errors.get(3).contains("1 missing from the space, 1 not in the snapshot, " +
+                                          "1 with mismatched checksums"));
+    }
+
 }
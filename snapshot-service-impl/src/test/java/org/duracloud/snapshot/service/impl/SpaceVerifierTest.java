@@ -82,6 +82,8 @@ public class SpaceVerifierTest extends EasyMockSupport {
         setupStepExecution();
         expect(this.spaceManifestVerifier.verify()).andReturn(true);
         expect(this.spaceManifestVerifier.getSpaceId()).andReturn(spaceId);
+        this.spaceManifestVerifier.close(true);
+        expectLastCall();
 
         replayAll();
         setupTestSubject();
@@ -95,6 +97,8 @@ public class SpaceVerifierTest extends EasyMockSupport {
         expect(this.spaceManifestVerifier.verify()).andReturn(false);
         expect(this.spaceManifestVerifier.getSpaceId()).andReturn(spaceId);
         expect(this.spaceManifestVerifier.getErrors()).andReturn(Arrays.asList("error"));
+        this.spaceManifestVerifier.close(false);
+        expectLastCall();
         replayAll();
         setupTestSubject();
         simulateStepExecution(ExitStatus.FAILED);
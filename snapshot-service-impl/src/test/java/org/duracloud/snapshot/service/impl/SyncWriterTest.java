@@ -8,19 +8,36 @@
 package org.duracloud.snapshot.service.impl;
 
 import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.anyLong;
+import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
 import static org.easymock.EasyMock.isA;
 import static org.easymock.EasyMock.isNull;
+import static org.easymock.EasyMock.startsWith;
+import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
+import org.duracloud.chunk.manifest.ChunksManifest;
+import org.duracloud.chunk.manifest.xml.ManifestDocumentBinding;
 import org.duracloud.client.ContentStore;
+import org.duracloud.common.util.ChecksumUtil;
+import org.duracloud.common.util.ChecksumUtil.Algorithm;
 import org.duracloud.domain.Space;
 import org.duracloud.error.NotFoundException;
 import org.duracloud.snapshot.common.test.SnapshotTestBase;
@@ -32,6 +49,7 @@ import org.duracloud.snapshot.service.RestoreManager;
 import org.duracloud.sync.endpoint.MonitoredFile;
 import org.duracloud.sync.endpoint.SyncEndpoint;
 import org.duracloud.sync.endpoint.SyncResultType;
+import org.easymock.Capture;
 import org.easymock.Mock;
 import org.easymock.TestSubject;
 import org.junit.Test;
@@ -59,6 +77,8 @@ public class SyncWriterTest extends SnapshotTestBase {
 
     private File watchDir;
 
+    private File chunkDbFile;
+
     @Mock
     private RestoreManager restoreManager;
 
@@ -76,6 +96,7 @@ public class SyncWriterTest extends SnapshotTestBase {
         watchDir = new File(System.getProperty("java.io.tmpdir") + File.separator + System.currentTimeMillis());
         watchDir.mkdirs();
         watchDir.deleteOnExit();
+        chunkDbFile = new File(watchDir.getParentFile(), watchDir.getName() + "-chunks.db");
         writer = new SyncWriter(restorationId, watchDir, endpoint, contentStore, "spaceId", restoreManager);
     }
 
@@ -90,6 +111,7 @@ public class SyncWriterTest extends SnapshotTestBase {
         }
 
         watchDir.delete();
+        chunkDbFile.delete();
     }
 
     @Test
@@ -110,6 +132,166 @@ public class SyncWriterTest extends SnapshotTestBase {
         this.writer.write(files);
     }
 
+    @Test
+    public void testWriteChunked() throws Exception {
+        File file = createLargeFile();
+
+        // three chunks of (at most) four bytes, whose checksums are computed by duracloud
+        expectChunkUploads(3);
+        Capture<InputStream> manifest = expectManifestUpload();
+        replayAll();
+
+        this.writer.write(Arrays.asList(file));
+
+        ChunksManifest chunksManifest = ManifestDocumentBinding.createManifestFrom(manifest.getValue());
+        assertEquals(checksum(new ByteArrayInputStream("0123456789".getBytes(StandardCharsets.UTF_8))),
+                     chunksManifest.getHeader().getSourceMD5());
+        assertEquals(3, chunksManifest.getEntries().size());
+    }
+
+    @Test
+    public void testWriteChunkedTakesChecksumFromMd5Manifest() throws Exception {
+        File file = createLargeFile();
+
+        // the checksum in the manifest is used as it is rather than computed
+        String md5 = "0123456789abcdef0123456789abcdef";
+        File md5Manifest = new File(watchDir, "manifest-md5.txt");
+        try (Writer manifestWriter = Files.newBufferedWriter(md5Manifest.toPath(), StandardCharsets.UTF_8)) {
+            ManifestFileHelper.writeManifestEntry(manifestWriter, "large-file", md5);
+        }
+        writer.setMd5Manifest(md5Manifest, new File(watchDir, "manifest-md5.idx"));
+
+        expectChunkUploads(3);
+        Capture<InputStream> manifest = expectManifestUpload();
+        replayAll();
+
+        this.writer.write(Arrays.asList(file));
+
+        ChunksManifest chunksManifest = ManifestDocumentBinding.createManifestFrom(manifest.getValue());
+        assertEquals(md5, chunksManifest.getHeader().getSourceMD5());
+    }
+
+    @Test
+    public void testWriteChunkedWithProperties() throws Exception {
+        File file = createLargeFile();
+        String md5 = checksum(new ByteArrayInputStream("0123456789".getBytes(StandardCharsets.UTF_8)));
+        File propertiesFile = new File(watchDir, "content-properties.json");
+        Files.write(propertiesFile.toPath(),
+                    ("[{\"large-file\":{\"content-mimetype\":\"text/plain\",\"content-checksum\":\"" + md5 +
+                     "\",\"key\":\"value\"}}]").getBytes(StandardCharsets.UTF_8));
+        writer.setContentProperties(propertiesFile, new File(watchDir, "content-properties.db"));
+
+        expectChunkUploads(3);
+        Capture<InputStream> manifest = Capture.newInstance();
+        Capture<String> manifestMd5 = Capture.newInstance();
+        Capture<Map<String, String>> manifestProperties = Capture.newInstance();
+        expect(contentStore.addContent(eq("spaceId"),
+                                       eq("large-file" + ChunksManifest.manifestSuffix),
+                                       capture(manifest),
+                                       anyLong(),
+                                       eq("application/xml"),
+                                       capture(manifestMd5),
+                                       capture(manifestProperties)))
+            .andReturn("manifest-checksum");
+        replayAll();
+
+        this.writer.write(Arrays.asList(file));
+
+        // the manifest's own properties are laid on top of those of the stitched file
+        Map<String, String> properties = manifestProperties.getValue();
+        assertEquals("value", properties.get("key"));
+        assertEquals("application/xml", properties.get(ContentStore.CONTENT_MIMETYPE));
+        assertEquals(manifestMd5.getValue(), properties.get(ContentStore.CONTENT_CHECKSUM));
+        ChunksManifest chunksManifest = ManifestDocumentBinding.createManifestFrom(manifest.getValue());
+        assertEquals(md5, chunksManifest.getHeader().getSourceMD5());
+    }
+
+    @Test
+    public void testWriteChunkedResumesUpload() throws Exception {
+        File file = createLargeFile();
+
+        // the first chunk was uploaded before the step was interrupted
+        String firstChunkId = new ChunksManifest("large-file", "text/plain", 10).nextChunkId();
+        String firstChunkChecksum = checksum(new ByteArrayInputStream("0123".getBytes(StandardCharsets.UTF_8)));
+        GroupCommitCache cache = new GroupCommitCache(chunkDbFile);
+        cache.open();
+        new CachedChunkProgress(cache, "chunks").chunkCompleted("large-file", 0, firstChunkChecksum);
+        cache.close();
+
+        expect(contentStore.getContentProperties("spaceId", firstChunkId))
+            .andReturn(Collections.singletonMap(ContentStore.CONTENT_CHECKSUM, firstChunkChecksum));
+        expectChunkUploads(2);
+        Capture<InputStream> manifest = expectManifestUpload();
+        replayAll();
+
+        this.writer.write(Arrays.asList(file));
+
+        ChunksManifest chunksManifest = ManifestDocumentBinding.createManifestFrom(manifest.getValue());
+        assertEquals(3, chunksManifest.getEntries().size());
+    }
+
+    @Test
+    public void testWriteWithProperties() throws Exception {
+        File file = new File(watchDir, "file");
+        Files.write(file.toPath(), "content".getBytes(StandardCharsets.UTF_8));
+        File propertiesFile = new File(watchDir, "content-properties.json");
+        Files.write(propertiesFile.toPath(),
+                    "[{\"file\":{\"content-mimetype\":\"text/plain\",\"key\":\"value\"}}]"
+                        .getBytes(StandardCharsets.UTF_8));
+        writer.setContentProperties(propertiesFile, new File(watchDir, "content-properties.db"));
+
+        Map<String, String> properties = new HashMap<>();
+        properties.put(ContentStore.CONTENT_MIMETYPE, "text/plain");
+        properties.put("key", "value");
+        expect(contentStore.addContent(eq("spaceId"),
+                                       eq("file"),
+                                       isA(InputStream.class),
+                                       eq(7L),
+                                       eq("text/plain"),
+                                       isNull(String.class),
+                                       eq(properties)))
+            .andAnswer(() -> checksum((InputStream) getCurrentArguments()[2]));
+        replayAll();
+
+        this.writer.write(Arrays.asList(file));
+    }
+
+    private File createLargeFile() throws Exception {
+        File file = new File(watchDir, "large-file");
+        Files.write(file.toPath(), "0123456789".getBytes(StandardCharsets.UTF_8));
+        writer.setChunkUploader(new ParallelChunkUploader(contentStore, 4, 2), chunkDbFile);
+        return file;
+    }
+
+    private void expectChunkUploads(int count) throws Exception {
+        expect(contentStore.addContent(eq("spaceId"),
+                                       startsWith("large-file" + ChunksManifest.chunkSuffix),
+                                       isA(InputStream.class),
+                                       anyLong(),
+                                       eq("application/octet-stream"),
+                                       isNull(String.class),
+                                       isNull(Map.class)))
+            .andAnswer(() -> checksum((InputStream) getCurrentArguments()[2]))
+            .times(count);
+    }
+
+    private Capture<InputStream> expectManifestUpload() throws Exception {
+        Capture<InputStream> manifest = Capture.newInstance();
+        expect(contentStore.addContent(eq("spaceId"),
+                                       eq("large-file" + ChunksManifest.manifestSuffix),
+                                       capture(manifest),
+                                       anyLong(),
+                                       eq("application/xml"),
+                                       isA(String.class),
+                                       isNull(Map.class)))
+            .andReturn("manifest-checksum");
+        return manifest;
+    }
+
+    private String checksum(InputStream stream) {
+        return new ChecksumUtil(Algorithm.MD5).generateChecksum(stream);
+    }
+
     @Test
     public void testBeforeStep() throws Exception {
         expect(contentStore.getSpace(isA(String.class),
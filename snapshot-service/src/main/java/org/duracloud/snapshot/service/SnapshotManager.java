@@ -7,11 +7,13 @@
  */
 package org.duracloud.snapshot.service;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
 import org.duracloud.snapshot.SnapshotException;
 import org.duracloud.snapshot.db.model.Snapshot;
+import org.duracloud.snapshot.db.model.SnapshotContentItem;
 
 /**
  * @author Daniel Bernstein
@@ -28,6 +30,39 @@ public interface SnapshotManager {
                                String contentId,
                                Map<String, String> props) throws SnapshotException;
 
+    /**
+     * Adds a batch of content items to the snapshot. The content id, metadata,
+     * md5, sha256 and size of each item are written; where the md5 or size of
+     * an item is not set it is taken from the metadata, if present there.
+     * Items which have already been added to the snapshot are ignored, so a
+     * batch may safely be resubmitted.
+     *
+     * @param snapshot
+     * @param items
+     * @throws SnapshotException
+     */
+    public void addContentItems(Snapshot snapshot,
+                                Collection<SnapshotContentItem> items) throws SnapshotException;
+
+    /**
+     * @param snapshot
+     * @return the most recently completed snapshot of the same space as the
+     * snapshot or null if there is none.
+     */
+    public Snapshot getPreviousCompleteSnapshot(Snapshot snapshot);
+
+    /**
+     * Returns the content items of a snapshot in id order, a page at a time.
+     *
+     * @param snapshot
+     * @param afterId  the id of the last item of the previous page, or 0 for
+     *                 the first page
+     * @param count    the maximum number of items to return
+     * @return the items whose ids follow afterId, or an empty list once all
+     * of the items have been returned
+     */
+    public List<SnapshotContentItem> getContentItems(Snapshot snapshot, long afterId, int count);
+
     /**
      * Adds a list of snapshot alternate Id's to a snapshot. To map Bag Id's
      * to Duracloud Snapshot Id's